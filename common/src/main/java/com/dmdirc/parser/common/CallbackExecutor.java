@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A bounded pool of threads that can be shared between many {@link CallbackManager}s.
+ *
+ * <p>Each callback manager is given its own serial view of the pool, which runs that
+ * manager's tasks one at a time in the order they were submitted. Events from a single parser
+ * are therefore still delivered in order, while the number of threads no longer grows with the
+ * number of parsers.
+ */
+public class CallbackExecutor {
+
+    /** Maximum number of tasks a serial view runs before giving other views a turn. */
+    private static final int BATCH_SIZE = 64;
+    /** The number of threads used by the default executor. */
+    private static final int DEFAULT_THREADS =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** The queue depth used by the default executor. */
+    private static final int DEFAULT_QUEUE_DEPTH = 1024;
+    /** Lock used when creating the default executor. */
+    private static final Object DEFAULT_LOCK = new Object();
+    /** The default executor, created when first requested. */
+    private static CallbackExecutor defaultExecutor;
+
+    /** The underlying pool of threads. */
+    private final ThreadPoolExecutor pool;
+    /** The maximum number of pending tasks for each serial view. */
+    private final int queueDepth;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param threads The maximum number of threads to use
+     * @param queueDepth The maximum number of pending tasks for each callback manager. Once
+     * full, other threads block until there is space, but tasks submitted from one of the
+     * executor's own threads are rejected rather than tying up the shared pool.
+     */
+    public CallbackExecutor(final int threads, final int queueDepth) {
+        if (threads < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("Threads and queue depth must be at least 1");
+        }
+        this.queueDepth = queueDepth;
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets an executor shared by every parser that hasn't been given one explicitly.
+     *
+     * @return The default shared executor
+     */
+    public static CallbackExecutor getDefault() {
+        synchronized (DEFAULT_LOCK) {
+            if (defaultExecutor == null) {
+                defaultExecutor = new CallbackExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_DEPTH);
+            }
+            return defaultExecutor;
+        }
+    }
+
+    /**
+     * Creates a new serial view of this executor, for use by a single callback manager.
+     * Shutting down the view does not affect the shared pool.
+     *
+     * <p>Exceptions thrown by tasks are passed to the uncaught exception handler of the thread
+     * that ran them, and do not stop later tasks from running.
+     *
+     * @return A new executor service that runs tasks in order on the shared pool
+     */
+    public SerialExecutor createSerialExecutor() {
+        return new SerialExecutor(CallbackExecutor::reportUncaught);
+    }
+
+    /**
+     * Creates a new serial view of this executor, which reports exceptions thrown by its tasks
+     * to the given handler. Shutting down the view does not affect the shared pool.
+     *
+     * @param errorHandler The handler to call, on the pool thread, when a task throws
+     * @return A new executor service that runs tasks in order on the shared pool
+     */
+    public SerialExecutor createSerialExecutor(
+            final Consumer<? super RuntimeException> errorHandler) {
+        return new SerialExecutor(errorHandler);
+    }
+
+    /**
+     * Gets the maximum number of threads used by this executor.
+     *
+     * @return The maximum number of threads
+     */
+    public int getThreads() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Gets the maximum number of pending tasks for each callback manager.
+     *
+     * @return The maximum number of pending tasks
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Shuts down the shared pool. Tasks that have already been submitted are still run.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Passes an exception thrown by a task to the current thread's uncaught exception handler.
+     *
+     * @param ex The exception thrown by the task
+     */
+    private static void reportUncaught(final RuntimeException ex) {
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+    }
+
+    /**
+     * An executor that runs tasks in submission order, one at a time, using the shared pool.
+     */
+    public final class SerialExecutor extends AbstractExecutorService {
+
+        /** Tasks waiting to be run. */
+        private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(queueDepth);
+        /** Whether a drain of {@link #tasks} is scheduled or running on the pool. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Whether this view has been shut down. */
+        private volatile boolean shutdown;
+        /** Handler for exceptions thrown by tasks. */
+        private final Consumer<? super RuntimeException> errorHandler;
+
+        private SerialExecutor(final Consumer<? super RuntimeException> errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+
+        /**
+         * Queues a task without blocking. Unlike {@link #execute(Runnable)}, this never waits
+         * for space, so it is safe to call from threads that must not stall, such as a shared
+         * timer.
+         *
+         * @param command The task to run
+         * @return True if the task was queued, false if the view is full or shut down
+         * @throws RejectedExecutionException If the shared pool has been shut down
+         */
+        public boolean tryExecute(final Runnable command) {
+            if (shutdown || !tasks.offer(command)) {
+                return false;
+            }
+            schedule();
+            return true;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            if (!tasks.offer(command)) {
+                if (Thread.currentThread() instanceof PoolThread) {
+                    // Blocking a pool thread could leave nothing free to drain the queue.
+                    throw new RejectedExecutionException("Callback queue is full");
+                }
+                try {
+                    tasks.put(command);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ex);
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Schedules a drain of the queue on the shared pool, unless one is already pending.
+         */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                    throw ex;
+                }
+            }
+        }
+
+        /**
+         * Runs queued tasks, rescheduling if more remain once a batch is complete.
+         */
+        private void drain() {
+            try {
+                Runnable task;
+                for (int i = 0; i < BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        report(ex);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Reports an exception thrown by a task, without letting a faulty handler stop the
+         * rest of the queue.
+         *
+         * @param ex The exception thrown by the task
+         */
+        private void report(final RuntimeException ex) {
+            try {
+                errorHandler.accept(ex);
+            } catch (RuntimeException handlerEx) {
+                handlerEx.addSuppressed(ex);
+                reportUncaught(handlerEx);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            final List<Runnable> pending = new ArrayList<>();
+            tasks.drainTo(pending);
+            return pending;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && tasks.isEmpty() && !scheduled.get();
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * Creates daemon threads for the shared pool.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        /** Number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new PoolThread(runnable,
+                    "Callback executor " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    /**
+     * A thread belonging to a shared pool, which must never block waiting for space in a
+     * serial view.
+     */
+    private static class PoolThread extends Thread {
+
+        /**
+         * Creates a new pool thread.
+         *
+         * @param runnable The runnable to run
+         * @param name The name of the thread
+         */
+        PoolThread(final Runnable runnable, final String name) {
+            super(runnable, name);
+        }
+
+    }
+
+}
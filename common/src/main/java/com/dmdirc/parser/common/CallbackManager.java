@@ -22,19 +22,57 @@
 
 package com.dmdirc.parser.common;
 
+import com.dmdirc.parser.events.CommandEvent;
+import com.dmdirc.parser.events.NumericEvent;
 import com.dmdirc.parser.events.ParserEvent;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import net.engio.mbassy.bus.IMessagePublication;
 import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.bus.MessagePublication;
 import net.engio.mbassy.bus.config.BusConfiguration;
 import net.engio.mbassy.bus.config.Feature;
 import net.engio.mbassy.bus.error.IPublicationErrorHandler;
+import net.engio.mbassy.bus.error.PublicationError;
+import net.engio.mbassy.subscription.Subscription;
 
 /**
  * Parser Callback Manager.
  * Manages adding/removing/calling callbacks.
+ *
+ * <p>As well as normal MBassador subscriptions, handlers can be routed to directly by numeric
+ * or by command. Routed handlers are found with an array or map lookup, instead of having
+ * MBassador evaluate a handler condition against every event. They are always called on the
+ * publishing thread, before the event is published to normal subscribers, whether it is
+ * published synchronously or asynchronously.
  */
 public class CallbackManager extends MBassador<ParserEvent> {
 
+    /** The number of distinct numerics that may be routed. */
+    private static final int NUMERICS = 1000;
+
+    /** Listeners to notify whenever a subscription is added or removed. */
+    private final List<Runnable> subscriptionListeners = new CopyOnWriteArrayList<>();
+    /** Handlers routed to by numeric, indexed by the numeric. */
+    private final AtomicReferenceArray<List<Consumer<? super NumericEvent>>> numericHandlers =
+            new AtomicReferenceArray<>(NUMERICS);
+    /** Handlers routed to by command, keyed on the command name. */
+    private final Map<String, List<ActionHandler<?>>> actionHandlers = new ConcurrentHashMap<>();
+    /** Executor used for asynchronous publication, or null to use MBassador's dispatchers. */
+    private final ExecutorService dispatchExecutor;
+
     public CallbackManager(final IPublicationErrorHandler errorHandler) {
         this(new BusConfiguration().addFeature(Feature.SyncPubSub.Default())
                 .addFeature(Feature.AsynchronousHandlerInvocation.Default(1, 1))
@@ -43,8 +81,293 @@ public class CallbackManager extends MBassador<ParserEvent> {
                 .addPublicationErrorHandler(errorHandler));
     }
 
+    /**
+     * Creates a new callback manager that dispatches asynchronous events and handlers using
+     * a shared executor, rather than its own threads. Events are still delivered in the order
+     * they were published.
+     *
+     * @param errorHandler The handler to report publication errors to
+     * @param executor The shared executor to dispatch events with
+     */
+    public CallbackManager(final IPublicationErrorHandler errorHandler,
+            final CallbackExecutor executor) {
+        this(errorHandler, executor.createSerialExecutor());
+    }
+
+    private CallbackManager(final IPublicationErrorHandler errorHandler,
+            final ExecutorService dispatchExecutor) {
+        this(createConfiguration(errorHandler, dispatchExecutor), dispatchExecutor);
+    }
+
     protected CallbackManager(final BusConfiguration busConfiguration) {
+        this(busConfiguration, null);
+    }
+
+    /**
+     * Creates a new callback manager.
+     *
+     * @param busConfiguration The configuration for the underlying bus
+     * @param dispatchExecutor The executor to use for asynchronous publication, or null to use
+     * the bus's own dispatcher threads
+     */
+    protected CallbackManager(final BusConfiguration busConfiguration,
+            @Nullable final ExecutorService dispatchExecutor) {
         super(busConfiguration);
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    /**
+     * Creates a bus configuration that uses the given executor for asynchronous handlers,
+     * and starts no dispatcher threads of its own.
+     *
+     * @param errorHandler The handler to report publication errors to
+     * @param executor The executor to invoke asynchronous handlers with
+     * @return A new bus configuration
+     */
+    protected static BusConfiguration createConfiguration(
+            final IPublicationErrorHandler errorHandler, final ExecutorService executor) {
+        return new BusConfiguration().addFeature(Feature.SyncPubSub.Default())
+                .addFeature(Feature.AsynchronousHandlerInvocation.Default().setExecutor(executor))
+                .addFeature(Feature.AsynchronousMessageDispatch.Default()
+                        .setNumberOfMessageDispatchers(0))
+                .addPublicationErrorHandler(errorHandler);
+    }
+
+    @Override
+    public IMessagePublication publish(final ParserEvent message) {
+        route(message);
+        return super.publish(message);
+    }
+
+    @Override
+    public IMessagePublication publishAsync(final ParserEvent message) {
+        route(message);
+        if (dispatchExecutor == null) {
+            return super.publishAsync(message);
+        }
+        return dispatch(message);
+    }
+
+    @Override
+    public IMessagePublication publishAsync(final ParserEvent message, final long timeout,
+            final TimeUnit unit) {
+        route(message);
+        if (dispatchExecutor == null) {
+            return super.publishAsync(message, timeout, unit);
+        }
+        return dispatch(message);
+    }
+
+    /**
+     * Publishes a message using the dispatch executor.
+     *
+     * @param message The message to publish
+     * @return The publication of the message
+     */
+    private IMessagePublication dispatch(final ParserEvent message) {
+        final MessagePublication publication = createMessagePublication(message).markScheduled();
+        try {
+            dispatchExecutor.execute(publication::execute);
+        } catch (RejectedExecutionException ex) {
+            handlePublicationError(new PublicationError(ex, "Unable to dispatch message",
+                    publication));
+        }
+        return publication;
+    }
+
+    @Override
+    public void subscribe(final Object listener) {
+        super.subscribe(listener);
+        subscriptionListeners.forEach(Runnable::run);
+    }
+
+    @Override
+    public boolean unsubscribe(final Object listener) {
+        final boolean result = super.unsubscribe(listener);
+        if (result) {
+            subscriptionListeners.forEach(Runnable::run);
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether any handler is currently subscribed to events of the given type (or
+     * one of its supertypes).
+     *
+     * @param type The type of event to check
+     * @return True if publishing an event of that type may reach a handler
+     */
+    public boolean hasSubscribers(final Class<? extends ParserEvent> type) {
+        final Collection<Subscription> subscriptions = getSubscriptionsByMessageType(type);
+        if (subscriptions != null
+                && subscriptions.stream().anyMatch(subscription -> subscription.size() > 0)) {
+            return true;
+        }
+        if (NumericEvent.class.isAssignableFrom(type)) {
+            for (int i = 0; i < NUMERICS; i++) {
+                if (numericHandlers.get(i) != null && !numericHandlers.get(i).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return actionHandlers.values().stream().flatMap(List::stream)
+                .anyMatch(handler -> handler.type.isAssignableFrom(type));
+    }
+
+    /**
+     * Subscribes a handler to {@link NumericEvent}s with the given numeric.
+     *
+     * <p>The handler is always called synchronously on the publishing thread, before the event
+     * is passed to normal subscribers. This applies to {@link #publishAsync(ParserEvent)} as
+     * well, so handlers must not block.
+     *
+     * @param numeric The numeric to handle (0-999)
+     * @param handler The handler to call
+     */
+    public void subscribeNumeric(final int numeric,
+            final Consumer<? super NumericEvent> handler) {
+        checkNumeric(numeric);
+        numericHandlers.compareAndSet(numeric, null, new CopyOnWriteArrayList<>());
+        numericHandlers.get(numeric).add(handler);
+        subscriptionListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Unsubscribes a handler previously added with {@link #subscribeNumeric(int, Consumer)}.
+     *
+     * @param numeric The numeric the handler was subscribed to
+     * @param handler The handler to remove
+     * @return True if the handler was removed, false if it wasn't subscribed
+     */
+    public boolean unsubscribeNumeric(final int numeric,
+            final Consumer<? super NumericEvent> handler) {
+        checkNumeric(numeric);
+        final List<Consumer<? super NumericEvent>> handlers = numericHandlers.get(numeric);
+        final boolean result = handlers != null && handlers.remove(handler);
+        if (result) {
+            subscriptionListeners.forEach(Runnable::run);
+        }
+        return result;
+    }
+
+    /**
+     * Subscribes a handler to events of the given type for the given command.
+     *
+     * <p>As with {@link #subscribeNumeric(int, Consumer)}, the handler is always called
+     * synchronously on the publishing thread, before the event is passed to normal
+     * subscribers, even if the event is published asynchronously.
+     *
+     * @param <T> The type of event to handle
+     * @param type The type of event to handle
+     * @param action The (upper case) command to handle, e.g. "JOIN"
+     * @param handler The handler to call
+     */
+    public <T extends ParserEvent & CommandEvent> void subscribeAction(final Class<T> type,
+            final String action, final Consumer<? super T> handler) {
+        actionHandlers.computeIfAbsent(action, k -> new CopyOnWriteArrayList<>())
+                .add(new ActionHandler<>(type, handler));
+        subscriptionListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Unsubscribes a handler previously added with
+     * {@link #subscribeAction(Class, String, Consumer)}.
+     *
+     * @param action The command the handler was subscribed to
+     * @param handler The handler to remove
+     * @return True if the handler was removed, false if it wasn't subscribed
+     */
+    public boolean unsubscribeAction(final String action, final Consumer<?> handler) {
+        final List<ActionHandler<?>> handlers = actionHandlers.get(action);
+        final boolean result = handlers != null
+                && handlers.removeIf(actionHandler -> actionHandler.handler == handler);
+        if (result) {
+            subscriptionListeners.forEach(Runnable::run);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a listener to be run whenever a subscription is added or removed, so that callers
+     * can cache the result of {@link #hasSubscribers(Class)}.
+     *
+     * @param listener The listener to add
+     */
+    public void addSubscriptionListener(final Runnable listener) {
+        subscriptionListeners.add(listener);
+    }
+
+    /**
+     * Calls any routed handlers for the given event.
+     *
+     * @param message The event being published
+     */
+    private void route(final ParserEvent message) {
+        if (message instanceof NumericEvent) {
+            final int numeric = ((NumericEvent) message).getNumeric();
+            if (numeric >= 0 && numeric < NUMERICS) {
+                final List<Consumer<? super NumericEvent>> handlers = numericHandlers.get(numeric);
+                if (handlers != null) {
+                    for (Consumer<? super NumericEvent> handler : handlers) {
+                        invoke(handler, (NumericEvent) message);
+                    }
+                }
+            }
+        } else if (message instanceof CommandEvent && !actionHandlers.isEmpty()) {
+            final List<ActionHandler<?>> handlers =
+                    actionHandlers.get(((CommandEvent) message).getAction());
+            if (handlers != null) {
+                for (ActionHandler<?> handler : handlers) {
+                    handler.handle(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls a routed handler, reporting any exception to the bus's error handlers.
+     */
+    private <T> void invoke(final Consumer<? super T> handler, final T message) {
+        try {
+            handler.accept(message);
+        } catch (RuntimeException ex) {
+            handlePublicationError(new PublicationError(ex, "Error in routed handler")
+                    .setPublishedMessage(message));
+        }
+    }
+
+    /**
+     * A handler routed to by command, along with the type of event it accepts.
+     *
+     * @param <T> The type of event handled
+     */
+    private final class ActionHandler<T extends ParserEvent> {
+
+        /** The type of event handled. */
+        private final Class<T> type;
+        /** The handler to call. */
+        private final Consumer<? super T> handler;
+
+        ActionHandler(final Class<T> type, final Consumer<? super T> handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+
+        void handle(final ParserEvent message) {
+            if (type.isInstance(message)) {
+                invoke(handler, type.cast(message));
+            }
+        }
+
+    }
+
+    /**
+     * Checks that the given numeric may be routed.
+     */
+    private static void checkNumeric(final int numeric) {
+        if (numeric < 0 || numeric >= NUMERICS) {
+            throw new IllegalArgumentException("Numeric must be between 0 and 999: " + numeric);
+        }
     }
 
 }
@@ -44,4 +44,48 @@ public class DefaultStringConverter implements StringConverter {
         return first.equalsIgnoreCase(second);
     }
 
+    @Override
+    public int compareIgnoreCase(final String first, final String second) {
+        return String.CASE_INSENSITIVE_ORDER.compare(first, second);
+    }
+
+    @Override
+    public int hashCodeIgnoreCase(final CharSequence input, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + fold(input.charAt(i));
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean regionMatches(final CharSequence first, final int firstOffset,
+            final CharSequence second, final int secondOffset, final int length) {
+        if (firstOffset < 0 || secondOffset < 0 || length < 0
+                || firstOffset + length > first.length()
+                || secondOffset + length > second.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            final char firstChar = first.charAt(firstOffset + i);
+            final char secondChar = second.charAt(secondOffset + i);
+            if (firstChar != secondChar && fold(firstChar) != fold(secondChar)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Folds the case of a character in the same way as {@link String#equalsIgnoreCase(String)}.
+     *
+     * @param input The character to fold
+     * @return The folded character
+     */
+    private static char fold(final char input) {
+        return Character.toLowerCase(Character.toUpperCase(input));
+    }
+
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.common;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer which can be shared between many parsers, used for pings and other timeouts.
+ *
+ * <p>Tasks are placed into the buckets of a hashed timing wheel, which a single thread steps
+ * through once per tick. Scheduling and cancelling tasks are constant-time operations, and a
+ * task runs on the first tick at or after its deadline, so timings are only as precise as the
+ * tick duration. Tasks run on the timer thread and should not block.
+ */
+public class HashedWheelTimer {
+
+    /** The default tick duration, in milliseconds. */
+    private static final long DEFAULT_TICK_MILLIS = 100;
+    /** The default number of buckets in the wheel. */
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+    /** Lock used when creating the default timer. */
+    private static final Object DEFAULT_LOCK = new Object();
+    /** The default timer, created when first requested. */
+    private static HashedWheelTimer defaultTimer;
+
+    /** The duration of each tick, in nanoseconds. */
+    private final long tickNanos;
+    /** The buckets of the wheel. Only accessed by the timer thread. */
+    private final Queue<Timeout>[] wheel;
+    /** Mask used to find a bucket from a tick number. */
+    private final int mask;
+    /** Timeouts which have been scheduled but not yet placed in the wheel. */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    /** The time the timer started, in nanoseconds. */
+    private final long startTime;
+    /** The thread stepping through the wheel. */
+    private final Thread worker;
+    /** The number of ticks that have been processed. Only accessed by the timer thread. */
+    private long tick;
+    /** Whether the timer has been shut down. */
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new timer.
+     *
+     * @param tickDuration The duration of each tick
+     * @param unit The unit of the tick duration
+     * @param ticksPerWheel The number of buckets in the wheel; rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Tick duration and ticks per wheel must be positive");
+        }
+        tickNanos = unit.toNanos(tickDuration);
+        final int buckets = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        wheel = (Queue<Timeout>[]) new Queue<?>[Math.max(1, buckets)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        mask = wheel.length - 1;
+        startTime = System.nanoTime();
+        worker = new Thread(this::run, "Parser timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Gets a timer shared by every parser that hasn't been given one explicitly.
+     *
+     * @return The default shared timer
+     */
+    public static HashedWheelTimer getDefault() {
+        synchronized (DEFAULT_LOCK) {
+            if (defaultTimer == null) {
+                defaultTimer = new HashedWheelTimer(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS,
+                        DEFAULT_TICKS_PER_WHEEL);
+            }
+            return defaultTimer;
+        }
+    }
+
+    /**
+     * Schedules a task to be run once after the given delay.
+     *
+     * @param task The task to run
+     * @param delay The delay before running the task
+     * @param unit The unit of the delay
+     * @return A handle which can be used to cancel the task
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return schedule(task, delay, 0, unit);
+    }
+
+    /**
+     * Schedules a task to be run repeatedly. The task is first run after the initial delay and
+     * then every period until it is cancelled.
+     *
+     * @param task The task to run
+     * @param initialDelay The delay before first running the task
+     * @param period The time between runs of the task
+     * @param unit The unit of the delay and period
+     * @return A handle which can be used to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(final Runnable task, final long initialDelay,
+            final long period, final TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return schedule(task, initialDelay, period, unit);
+    }
+
+    /**
+     * Stops the timer. Tasks which have not yet run are discarded.
+     */
+    public void shutdown() {
+        shutdown = true;
+        worker.interrupt();
+    }
+
+    /**
+     * Creates and queues a new timeout.
+     */
+    private Timeout schedule(final Runnable task, final long delay, final long period,
+            final TimeUnit unit) {
+        if (shutdown) {
+            throw new IllegalStateException("Timer has been shut down");
+        }
+        final Timeout timeout = new Timeout(task, unit.toNanos(period));
+        timeout.deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Main loop of the timer thread.
+     */
+    private void run() {
+        while (!shutdown) {
+            final long deadline = (tick + 1) * tickNanos;
+            final long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+            }
+
+            transferPending();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Moves newly scheduled timeouts into the wheel.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (!timeout.cancelled) {
+                place(timeout, tick);
+            }
+        }
+    }
+
+    /**
+     * Places a timeout in the bucket for its deadline.
+     *
+     * @param timeout The timeout to place
+     * @param earliest The earliest tick the timeout may be placed on
+     */
+    private void place(final Timeout timeout, final long earliest) {
+        // Timeouts whose deadlines have already passed are run as soon as possible.
+        final long ticks = Math.max(earliest, timeout.deadline / tickNanos);
+        timeout.rounds = (ticks - earliest) / wheel.length;
+        wheel[(int) (ticks & mask)].add(timeout);
+    }
+
+    /**
+     * Runs any expired timeouts in the given bucket.
+     */
+    private void expire(final Queue<Timeout> bucket, final long deadline) {
+        Queue<Timeout> rescheduled = null;
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext();) {
+            final Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else if (timeout.deadline <= deadline) {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException ex) {
+                    // Don't let one broken task stop the timer for everyone else.
+                    worker.getUncaughtExceptionHandler().uncaughtException(worker, ex);
+                }
+                if (timeout.period > 0 && !timeout.cancelled) {
+                    timeout.deadline += timeout.period;
+                    if (rescheduled == null) {
+                        rescheduled = new ArrayDeque<>();
+                    }
+                    rescheduled.add(timeout);
+                }
+            }
+        }
+        if (rescheduled != null) {
+            // Placed after the bucket is processed, so a short period can't run twice in one tick.
+            for (Timeout timeout : rescheduled) {
+                place(timeout, tick + 1);
+            }
+        }
+    }
+
+    /**
+     * A handle to a task scheduled with a {@link HashedWheelTimer}.
+     */
+    public static final class Timeout {
+
+        /** The task to run. */
+        private final Runnable task;
+        /** The period between runs of the task, in nanoseconds, or 0 for a one-off task. */
+        private final long period;
+        /** The time the task should next run, relative to the timer's start time. */
+        private long deadline;
+        /** The number of times the wheel must go round before the task is due. */
+        private long rounds;
+        /** Whether the task has been cancelled. */
+        private volatile boolean cancelled;
+
+        /**
+         * Creates a new timeout.
+         *
+         * @param task The task to run
+         * @param period The period between runs of the task, or 0 for a one-off task
+         */
+        private Timeout(final Runnable task, final long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Cancels the task. If it is currently running, it will not be run again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Determines whether the task has been cancelled.
+         *
+         * @return True if the task has been cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+}
@@ -56,4 +56,51 @@ public interface StringConverter {
      */
     boolean equalsIgnoreCase(String first, String second);
 
+    /**
+     * Compares two strings lexicographically, ignoring case.
+     *
+     * @param first First string to compare
+     * @param second Second string to compare
+     * @return A negative integer, zero, or a positive integer as the first string is less than,
+     * equal to, or greater than the second string after both are lowercased
+     */
+    default int compareIgnoreCase(final String first, final String second) {
+        return toLowerCase(first).compareTo(toLowerCase(second));
+    }
+
+    /**
+     * Calculates a hash code for part of a string which is the same for any strings that are
+     * equal ignoring case.
+     *
+     * @param input The string to hash
+     * @param start The index to start hashing at
+     * @param end The index to stop hashing at (exclusive)
+     * @return The hash code of the lowercase version of the given part of the string
+     */
+    default int hashCodeIgnoreCase(final CharSequence input, final int start, final int end) {
+        return toLowerCase(input.subSequence(start, end).toString()).hashCode();
+    }
+
+    /**
+     * Checks if two regions of strings are equal to each other ignoring case.
+     *
+     * @param first The first string
+     * @param firstOffset The offset of the region in the first string
+     * @param second The second string
+     * @param secondOffset The offset of the region in the second string
+     * @param length The length of the regions
+     * @return True if both regions exist and are equal after being lowercased
+     */
+    default boolean regionMatches(final CharSequence first, final int firstOffset,
+            final CharSequence second, final int secondOffset, final int length) {
+        if (firstOffset < 0 || secondOffset < 0 || length < 0
+                || firstOffset + length > first.length()
+                || secondOffset + length > second.length()) {
+            return false;
+        }
+        return toLowerCase(first.subSequence(firstOffset, firstOffset + length).toString())
+                .equals(toLowerCase(
+                        second.subSequence(secondOffset, secondOffset + length).toString()));
+    }
+
 }
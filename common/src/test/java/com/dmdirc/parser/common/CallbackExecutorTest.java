@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackExecutorTest {
+
+    private final CallbackExecutor executor = new CallbackExecutor(2, 16);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testPreservesOrderPerView() throws InterruptedException {
+        final List<List<Integer>> results = new ArrayList<>();
+        final List<ExecutorService> views = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(Collections.synchronizedList(new ArrayList<>()));
+            views.add(executor.createSerialExecutor());
+        }
+
+        for (int task = 0; task < 200; task++) {
+            for (int i = 0; i < views.size(); i++) {
+                final int value = task;
+                final List<Integer> result = results.get(i);
+                views.get(i).execute(() -> result.add(value));
+            }
+        }
+
+        for (int i = 0; i < views.size(); i++) {
+            views.get(i).shutdown();
+            assertTrue(views.get(i).awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(200, results.get(i).size());
+            for (int task = 0; task < 200; task++) {
+                assertEquals(task, (int) results.get(i).get(task));
+            }
+        }
+    }
+
+    @Test
+    public void testShuttingDownViewLeavesPoolRunning() throws InterruptedException {
+        executor.createSerialExecutor().shutdown();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.createSerialExecutor().execute(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReportsTaskErrorsAndCarriesOn() throws InterruptedException {
+        final List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        final ExecutorService view = executor.createSerialExecutor(errors::add);
+        final RuntimeException failure = new IllegalStateException("test");
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        view.execute(() -> { throw failure; });
+        view.execute(latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, errors.size());
+        assertSame(failure, errors.get(0));
+    }
+
+    @Test
+    public void testTryExecuteDoesNotBlockWhenFull() throws InterruptedException {
+        final CallbackExecutor small = new CallbackExecutor(1, 1);
+        try {
+            final CallbackExecutor.SerialExecutor view = small.createSerialExecutor();
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch gate = new CountDownLatch(1);
+            view.execute(() -> {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertTrue(view.tryExecute(() -> {}));
+            assertFalse(view.tryExecute(() -> {}));
+            gate.countDown();
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    public void testPoolThreadsDoNotBlockOnFullView() throws InterruptedException {
+        final CallbackExecutor small = new CallbackExecutor(2, 1);
+        try {
+            final CallbackExecutor.SerialExecutor full = small.createSerialExecutor();
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch gate = new CountDownLatch(1);
+            full.execute(() -> {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(full.tryExecute(() -> {}));
+
+            final AtomicReference<RuntimeException> result = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            small.createSerialExecutor().execute(() -> {
+                try {
+                    full.execute(() -> {});
+                } catch (RejectedExecutionException ex) {
+                    result.set(ex);
+                }
+                done.countDown();
+            });
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertNotNull(result.get());
+            gate.countDown();
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidSizes() {
+        new CallbackExecutor(0, 1);
+    }
+
+    @Test
+    public void testDefaultIsShared() {
+        assertSame(CallbackExecutor.getDefault(), CallbackExecutor.getDefault());
+    }
+
+}
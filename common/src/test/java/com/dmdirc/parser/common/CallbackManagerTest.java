@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.common;
+
+import com.dmdirc.parser.events.CommandEvent;
+import com.dmdirc.parser.events.DataOutEvent;
+import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import net.engio.mbassy.bus.error.IPublicationErrorHandler;
+import net.engio.mbassy.listener.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CallbackManagerTest {
+
+    private final Parser parser = mock(Parser.class);
+    private final IPublicationErrorHandler errorHandler = mock(IPublicationErrorHandler.class);
+    private CallbackManager manager;
+
+    @Before
+    public void setup() {
+        manager = new CallbackManager(errorHandler);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    private NumericEvent numeric(final int numeric) {
+        return new NumericEvent(parser, LocalDateTime.now(), numeric, new String[]{":server"});
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoutesNumerics() {
+        final Consumer<NumericEvent> handler = mock(Consumer.class);
+        manager.subscribeNumeric(311, handler);
+
+        final NumericEvent event = numeric(311);
+        manager.publish(numeric(312));
+        manager.publish(event);
+        verify(handler).accept(event);
+
+        assertTrue(manager.unsubscribeNumeric(311, handler));
+        assertFalse(manager.unsubscribeNumeric(311, handler));
+        manager.publish(numeric(311));
+        verify(handler).accept(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoutesActions() {
+        final Consumer<TestCommandEvent> handler = mock(Consumer.class);
+        manager.subscribeAction(TestCommandEvent.class, "JOIN", handler);
+
+        final TestCommandEvent event = new TestCommandEvent(parser, "JOIN #chan", "JOIN");
+        manager.publish(new TestCommandEvent(parser, "PART #chan", "PART"));
+        manager.publish(event);
+        verify(handler).accept(event);
+
+        assertTrue(manager.unsubscribeAction("JOIN", handler));
+        manager.publish(event);
+        verify(handler).accept(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHasSubscribersIncludesRoutedHandlers() {
+        final Runnable listener = mock(Runnable.class);
+        manager.addSubscriptionListener(listener);
+        assertFalse(manager.hasSubscribers(NumericEvent.class));
+        assertFalse(manager.hasSubscribers(TestCommandEvent.class));
+
+        manager.subscribeNumeric(1, mock(Consumer.class));
+        manager.subscribeAction(TestCommandEvent.class, "JOIN", mock(Consumer.class));
+        assertTrue(manager.hasSubscribers(NumericEvent.class));
+        assertTrue(manager.hasSubscribers(TestCommandEvent.class));
+        assertFalse(manager.hasSubscribers(DataOutEvent.class));
+        verify(listener, times(2)).run();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReportsHandlerErrors() {
+        final Consumer<NumericEvent> handler = mock(Consumer.class);
+        final Consumer<NumericEvent> other = mock(Consumer.class);
+        doThrow(new IllegalStateException()).when(handler).accept(any());
+        manager.subscribeNumeric(1, handler);
+        manager.subscribeNumeric(1, other);
+
+        final NumericEvent event = numeric(1);
+        manager.publish(event);
+        verify(errorHandler).handleError(any());
+        verify(other).accept(event);
+    }
+
+    @Test
+    public void testPublishesAsyncUsingSharedExecutor() throws InterruptedException {
+        final CallbackExecutor executor = new CallbackExecutor(1, 4);
+        final CallbackManager shared = new CallbackManager(errorHandler, executor);
+        final NumericListener listener = new NumericListener();
+        shared.subscribe(listener);
+
+        for (int i = 0; i < 20; i++) {
+            shared.publishAsync(numeric(i));
+        }
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) listener.numerics.get(i));
+        }
+
+        shared.shutdown();
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void testRejectsInvalidNumerics() {
+        manager.subscribeNumeric(1000, mock(Consumer.class));
+    }
+
+    public static class NumericListener {
+
+        private final List<Integer> numerics = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch latch = new CountDownLatch(20);
+
+        @Handler
+        public void handleNumeric(final NumericEvent event) {
+            numerics.add(event.getNumeric());
+            latch.countDown();
+        }
+
+    }
+
+    private static class TestCommandEvent extends DataOutEvent implements CommandEvent {
+
+        private final String action;
+
+        TestCommandEvent(final Parser parser, final String data, final String action) {
+            super(parser, LocalDateTime.now(), data);
+            this.action = action;
+        }
+
+        @Override
+        public String getAction() {
+            return action;
+        }
+
+    }
+
+}
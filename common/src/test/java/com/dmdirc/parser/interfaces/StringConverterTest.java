@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.interfaces;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StringConverterTest {
+
+    /** A converter which only implements the required methods. */
+    private final StringConverter converter = new StringConverter() {
+        @Override
+        public String toLowerCase(final String input) {
+            return input.toLowerCase();
+        }
+
+        @Override
+        public String toUpperCase(final String input) {
+            return input.toUpperCase();
+        }
+
+        @Override
+        public boolean equalsIgnoreCase(final String first, final String second) {
+            return first.equalsIgnoreCase(second);
+        }
+    };
+
+    @Test
+    public void testDefaultCompareIgnoreCase() {
+        assertEquals(0, converter.compareIgnoreCase("Nick", "nICK"));
+        assertTrue(converter.compareIgnoreCase("ABC", "abd") < 0);
+        assertTrue(converter.compareIgnoreCase("nick2", "NICK") > 0);
+    }
+
+    @Test
+    public void testDefaultHashCodeIgnoreCase() {
+        assertEquals("nick".hashCode(), converter.hashCodeIgnoreCase(":NICK!user@host", 1, 5));
+    }
+
+    @Test
+    public void testDefaultRegionMatches() {
+        assertTrue(converter.regionMatches(":Nick!user@host", 1, "nICK", 0, 4));
+        assertFalse(converter.regionMatches("nick", 2, "nick", 0, 4));
+        assertFalse(converter.regionMatches("nick", -1, "nick", 0, 2));
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.common.HashedWheelTimer;
+import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.events.PingSuccessEvent;
+import com.dmdirc.parser.events.ServerErrorEvent;
+import com.dmdirc.parser.events.ServerNoticeEvent;
+import com.dmdirc.parser.irc.outputqueue.TokenBucketOutputQueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import net.engio.mbassy.listener.Handler;
+
+/**
+ * Tunes the rate of a {@link TokenBucketOutputQueue} at runtime, based on feedback from the
+ * server.
+ *
+ * <p>The rate is adjusted using additive increase, multiplicative decrease. Whenever the server
+ * indicates that we're sending too fast (flood errors, {@code 263 RPL_TRYAGAIN}, target change
+ * numerics, throttling notices, or a sharp rise in lag) the rate is halved and the bucket is
+ * emptied. While the queue is kept busy without any such signals, the rate is raised slightly at
+ * each interval, up to the rate of the queue's flood profile.
+ *
+ * <p>The current rate multiplier can be read with {@link #getRateScale()} and used to seed the
+ * controller for the next connection to the same network.
+ */
+public class AdaptiveRateController {
+
+    /** Numerics which indicate we're sending too fast. */
+    private static final int[] NUMERICS = {263, 439};
+    /** Pattern matching errors which indicate we're sending too fast. */
+    private static final Pattern FLOOD_PATTERN = Pattern.compile(
+            "flood|throttl|too fast|slow down|rate.?limit", Pattern.CASE_INSENSITIVE);
+    /**
+     * Pattern matching server notices which tell us our own messages are being throttled. This is
+     * anchored to known wordings so that oper notices about other users flooding, or MOTD-style
+     * notices mentioning flood protection, don't slow us down.
+     */
+    private static final Pattern THROTTLE_NOTICE_PATTERN = Pattern.compile(
+            "^(?:\\*\\*\\* )?(?:Message to \\S+ throttled due to flooding"
+                    + "|Messages? throttled"
+                    + "|You are sending (?:messages )?too fast"
+                    + "|Please slow down)",
+            Pattern.CASE_INSENSITIVE);
+    /** How often the rate is reviewed, in milliseconds. */
+    private static final long INTERVAL = 10000;
+    /** Minimum time between successive decreases, in milliseconds. */
+    private static final long DECREASE_HOLDOFF = 5000;
+    /** Lag above which a rise in lag is treated as congestion, in milliseconds. */
+    private static final long LAG_THRESHOLD = 2000;
+    /** Amount added to the rate multiplier at each interval. */
+    private static final double INCREASE_STEP = 0.05;
+    /** Factor the rate multiplier is multiplied by on congestion. */
+    private static final double DECREASE_FACTOR = 0.5;
+    /** Lowest allowed rate multiplier. */
+    private static final double MIN_SCALE = 0.25;
+    /**
+     * Highest allowed rate multiplier. The flood profiles are already just under the servers'
+     * limits, so the rate is never raised beyond them.
+     */
+    private static final double MAX_SCALE = 1;
+
+    /** The parser being monitored. */
+    private final IRCParser parser;
+    /** The callback manager for the parser. */
+    private final CallbackManager manager;
+    /** The queue being tuned. */
+    private final TokenBucketOutputQueue queue;
+    /** Handler subscribed to each of the {@link #NUMERICS}. */
+    private final Consumer<NumericEvent> numericHandler = event -> decrease();
+    /** The task which reviews the rate periodically. */
+    @Nullable private HashedWheelTimer.Timeout timeout;
+    /** The queue's throttled count at the last review. */
+    private long lastThrottledCount;
+    /** The time of the last decrease, in nanoseconds. */
+    private long lastDecrease;
+    /** Whether there has been a decrease since the last review. */
+    private boolean decreasedSinceReview;
+    /** The number of times the rate has been decreased. */
+    private long decreaseCount;
+
+    /**
+     * Creates a new controller. The controller does nothing until {@link #start()} is called.
+     *
+     * @param parser The parser to monitor
+     * @param queue The queue to tune
+     */
+    public AdaptiveRateController(final IRCParser parser, final TokenBucketOutputQueue queue) {
+        this.parser = parser;
+        this.manager = parser.getCallbackManager();
+        this.queue = queue;
+        this.lastDecrease = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(DECREASE_HOLDOFF);
+    }
+
+    /**
+     * Starts monitoring the parser and tuning the queue.
+     */
+    public synchronized void start() {
+        if (timeout != null) {
+            return;
+        }
+        for (int numeric : NUMERICS) {
+            manager.subscribeNumeric(numeric, numericHandler);
+        }
+        manager.subscribe(this);
+        lastThrottledCount = queue.getThrottledCount();
+        // The timer thread is shared by every parser, so only hand the review over to the
+        // parser here. A review skipped because the parser is busy just delays an increase.
+        timeout = parser.getTimer().scheduleAtFixedRate(() -> parser.tryExecute(this::review),
+                INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops monitoring the parser. The queue keeps its current rate.
+     */
+    public synchronized void stop() {
+        if (timeout == null) {
+            return;
+        }
+        timeout.cancel();
+        timeout = null;
+        for (int numeric : NUMERICS) {
+            manager.unsubscribeNumeric(numeric, numericHandler);
+        }
+        manager.unsubscribe(this);
+    }
+
+    /**
+     * Gets the current multiplier applied to the queue's base rate.
+     *
+     * @return The current rate multiplier
+     */
+    public double getRateScale() {
+        return queue.getRateScale();
+    }
+
+    /**
+     * Sets the multiplier applied to the queue's base rate, for example to resume from the rate
+     * learnt during a previous connection.
+     *
+     * @param scale The new rate multiplier
+     */
+    public void setRateScale(final double scale) {
+        queue.setRateScale(Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale)));
+    }
+
+    /**
+     * Gets the current estimate of the rate at which lines can safely be sent, assuming lines
+     * have no per-byte cost.
+     *
+     * @return The estimated safe rate, in lines per second
+     */
+    public double getEstimatedRate() {
+        return queue.getRefillRate() / queue.getProfile().getLineCost();
+    }
+
+    /**
+     * Gets the number of times the rate has been decreased due to congestion.
+     *
+     * @return The number of decreases
+     */
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    @Handler
+    public void handleServerError(final ServerErrorEvent event) {
+        if (FLOOD_PATTERN.matcher(event.getMessage()).find()) {
+            decrease();
+        }
+    }
+
+    @Handler
+    public void handleServerNotice(final ServerNoticeEvent event) {
+        // Server notices are only published for notices addressed to our own nickname
+        if (THROTTLE_NOTICE_PATTERN.matcher(event.getMessage()).find()) {
+            decrease();
+        }
+    }
+
+    @Handler
+    public void handlePingSuccess(final PingSuccessEvent event) {
+        final LagStatistics lag = parser.getLagStatistics();
+        final long latest = lag.getLatest(TimeUnit.MILLISECONDS);
+        if (lag.getSampleCount() > 1 && latest > LAG_THRESHOLD
+                && latest > 2 * lag.getMinimum(TimeUnit.MILLISECONDS)) {
+            decrease();
+        }
+    }
+
+    /**
+     * Multiplicatively decreases the rate, unless it was decreased very recently.
+     */
+    synchronized void decrease() {
+        final long now = System.nanoTime();
+        if (now - lastDecrease < TimeUnit.MILLISECONDS.toNanos(DECREASE_HOLDOFF)) {
+            return;
+        }
+        lastDecrease = now;
+        decreasedSinceReview = true;
+        decreaseCount++;
+        queue.setRateScale(Math.max(MIN_SCALE, queue.getRateScale() * DECREASE_FACTOR));
+        queue.clearAllowance();
+    }
+
+    /**
+     * Additively increases the rate if the queue has been limited by the rate since the last
+     * review without any sign of congestion.
+     */
+    synchronized void review() {
+        final long throttled = queue.getThrottledCount();
+        if (!decreasedSinceReview && throttled > lastThrottledCount
+                && parser.getSocketState() == SocketState.OPEN) {
+            queue.setRateScale(Math.min(MAX_SCALE, queue.getRateScale() + INCREASE_STEP));
+        }
+        decreasedSinceReview = false;
+        lastThrottledCount = throttled;
+    }
+
+}
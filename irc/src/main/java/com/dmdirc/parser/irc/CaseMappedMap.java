@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hash map with string keys that are compared according to an IRC casemapping.
+ *
+ * <p>Keys are hashed and compared in place using an {@link IRCStringConverter}, so looking up a
+ * key (or part of a string, such as the nickname in a hostmask) doesn't need a lower-cased copy
+ * to be made. Keys are stored as given. If the converter changes, for example when the server
+ * announces its CASEMAPPING, the map is rehashed the next time it is used.
+ *
+ * <p>The entries are held in a {@link PersistentTrie}. Each change builds a new trie that shares
+ * all but the changed path with the old one, and then publishes it atomically. Reading never
+ * blocks, and {@link #snapshot()} returns a consistent, immutable view of the map without
+ * copying it. Iterating over the map iterates over the snapshot current at the time.
+ *
+ * @param <V> The type of value stored in the map.
+ */
+final class CaseMappedMap<V> extends AbstractMap<String, V> {
+
+    /** Supplier of the converter defining the casemapping. */
+    private final Supplier<IRCStringConverter> converterSupplier;
+    /** The current state of the map. */
+    private final AtomicReference<Snapshot<V>> state;
+
+    /**
+     * Creates a new map.
+     *
+     * @param converterSupplier Supplier of the converter defining the casemapping.
+     */
+    CaseMappedMap(final Supplier<IRCStringConverter> converterSupplier) {
+        this.converterSupplier = converterSupplier;
+        this.state = new AtomicReference<>(new Snapshot<>(converterSupplier.get(), null, 0));
+    }
+
+    /**
+     * Gets an immutable view of the map as it currently stands. Later changes to the map are
+     * not reflected in the snapshot.
+     *
+     * @return A snapshot of the map.
+     */
+    public Snapshot<V> snapshot() {
+        final IRCStringConverter converter = converterSupplier.get();
+        while (true) {
+            final Snapshot<V> current = state.get();
+            if (current.converter == converter) {
+                return current;
+            }
+            final Snapshot<V> rehashed = current.rehash(converter);
+            if (state.compareAndSet(current, rehashed)) {
+                return rehashed;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return snapshot().size();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return snapshot().containsKey(key);
+    }
+
+    /**
+     * Determines whether the map contains a key matching part of a string.
+     *
+     * @param key The string containing the key.
+     * @param start The index the key starts at.
+     * @param end The index the key ends at (exclusive).
+     * @return True if a matching key is present.
+     */
+    public boolean containsKey(final String key, final int start, final int end) {
+        return snapshot().containsKey(key, start, end);
+    }
+
+    @Override
+    public V get(final Object key) {
+        return snapshot().get(key);
+    }
+
+    /**
+     * Gets the value for a key matching part of a string.
+     *
+     * @param key The string containing the key.
+     * @param start The index the key starts at.
+     * @param end The index the key ends at (exclusive).
+     * @return The value, or null if no matching key is present.
+     */
+    @Nullable
+    public V get(final String key, final int start, final int end) {
+        return snapshot().get(key, start, end);
+    }
+
+    @Override
+    public V put(final String key, final V value) {
+        checkNotNull(key);
+        while (true) {
+            final Snapshot<V> current = snapshot();
+            final IRCStringConverter converter = current.converter;
+            final PersistentTrie.Leaf<String, V> leaf = new PersistentTrie.Leaf<>(
+                    spread(converter.hashCodeIgnoreCase(key, 0, key.length())), key, value);
+            final PersistentTrie.Change<String, V> change = new PersistentTrie.Change<>();
+            final Object root = PersistentTrie.insert(current.root, 0, leaf,
+                    equivalence(converter), change);
+            final PersistentTrie.Leaf<String, V> previous = change.getPrevious();
+            final int size = previous == null ? current.size + 1 : current.size;
+            if (state.compareAndSet(current, new Snapshot<>(converter, root, size))) {
+                return previous == null ? null : previous.getValue();
+            }
+        }
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        final String name = (String) key;
+        while (true) {
+            final Snapshot<V> current = snapshot();
+            final IRCStringConverter converter = current.converter;
+            final int hash = spread(converter.hashCodeIgnoreCase(name, 0, name.length()));
+            final PersistentTrie.Change<String, V> change = new PersistentTrie.Change<>();
+            final Object root = PersistentTrie.delete(current.root, 0, hash, name,
+                    equivalence(converter), change);
+            final PersistentTrie.Leaf<String, V> previous = change.getPrevious();
+            if (previous == null) {
+                return null;
+            }
+            if (state.compareAndSet(current, new Snapshot<>(converter, root, current.size - 1))) {
+                return previous.getValue();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        state.set(new Snapshot<>(converterSupplier.get(), null, 0));
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                final Iterator<Entry<String, V>> iterator = snapshot().entrySet().iterator();
+                return new Iterator<Entry<String, V>>() {
+                    /** The entry most recently returned. */
+                    private Entry<String, V> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        CaseMappedMap.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CaseMappedMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                CaseMappedMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Finds the leaf for a key in a trie.
+     *
+     * @param root The root of the trie.
+     * @param converter The converter the trie is hashed with.
+     * @param key The string containing the key.
+     * @param start The index the key starts at.
+     * @param end The index the key ends at (exclusive).
+     * @return The matching leaf, or null if there is none.
+     */
+    @Nullable
+    private static <V> PersistentTrie.Leaf<String, V> find(@Nullable final Object root,
+            final IRCStringConverter converter, final String key, final int start,
+            final int end) {
+        final int hash = spread(converter.hashCodeIgnoreCase(key, start, end));
+        final Object node = PersistentTrie.locate(root, hash);
+        for (int i = 0; i < PersistentTrie.getLeafCount(node); i++) {
+            final PersistentTrie.Leaf<String, V> leaf = PersistentTrie.getLeaf(node, i);
+            final String leafKey = leaf.getKey();
+            if (leaf.getHash() == hash && leafKey.length() == end - start
+                    && converter.regionMatches(leafKey, 0, key, start, end - start)) {
+                return leaf;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the equivalence used to compare keys which have the same hash.
+     *
+     * @param converter The converter defining the casemapping.
+     * @return A predicate which tests whether two keys are equal ignoring case.
+     */
+    private static BiPredicate<String, String> equivalence(final IRCStringConverter converter) {
+        return (a, b) -> a.length() == b.length()
+                && converter.regionMatches(a, 0, b, 0, a.length());
+    }
+
+    /**
+     * Spreads the higher bits of a hash downwards, so that keys differing only in their last
+     * characters separate near the root of the trie.
+     */
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * An immutable view of the map at a point in time.
+     *
+     * @param <V> The type of value stored in the map.
+     */
+    static final class Snapshot<V> extends AbstractMap<String, V> {
+
+        /** The converter the trie is hashed with. */
+        private final IRCStringConverter converter;
+        /** The root of the trie: a leaf, collision or branch, or null if the map is empty. */
+        @Nullable
+        private final Object root;
+        /** The number of entries. */
+        private final int size;
+
+        Snapshot(final IRCStringConverter converter, @Nullable final Object root,
+                final int size) {
+            this.converter = converter;
+            this.root = root;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof String
+                    && find(root, converter, (String) key, 0, ((String) key).length()) != null;
+        }
+
+        /**
+         * Determines whether the snapshot contains a key matching part of a string.
+         *
+         * @param key The string containing the key.
+         * @param start The index the key starts at.
+         * @param end The index the key ends at (exclusive).
+         * @return True if a matching key is present.
+         */
+        public boolean containsKey(final String key, final int start, final int end) {
+            return find(root, converter, key, start, end) != null;
+        }
+
+        @Override
+        public V get(final Object key) {
+            return key instanceof String ? get((String) key, 0, ((String) key).length()) : null;
+        }
+
+        /**
+         * Gets the value for a key matching part of a string.
+         *
+         * @param key The string containing the key.
+         * @param start The index the key starts at.
+         * @param end The index the key ends at (exclusive).
+         * @return The value, or null if no matching key is present.
+         */
+        @Nullable
+        public V get(final String key, final int start, final int end) {
+            final PersistentTrie.Leaf<String, V> leaf = find(root, converter, key, start, end);
+            return leaf == null ? null : leaf.getValue();
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<Entry<String, V>>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new PersistentTrie.LeafIterator<>(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * Builds a copy of this snapshot hashed with a different converter. Keys which are
+         * equal under the new converter are merged.
+         *
+         * @param newConverter The converter to hash keys with.
+         * @return The rehashed snapshot.
+         */
+        Snapshot<V> rehash(final IRCStringConverter newConverter) {
+            final BiPredicate<String, String> equivalence = equivalence(newConverter);
+            Object newRoot = null;
+            int newSize = 0;
+            for (Entry<String, V> entry : entrySet()) {
+                final String key = entry.getKey();
+                final PersistentTrie.Change<String, V> change = new PersistentTrie.Change<>();
+                newRoot = PersistentTrie.insert(newRoot, 0, new PersistentTrie.Leaf<>(
+                        spread(newConverter.hashCodeIgnoreCase(key, 0, key.length())),
+                        key, entry.getValue()), equivalence, change);
+                if (change.getPrevious() == null) {
+                    newSize++;
+                }
+            }
+            return new Snapshot<>(newConverter, newRoot, newSize);
+        }
+
+    }
+
+}
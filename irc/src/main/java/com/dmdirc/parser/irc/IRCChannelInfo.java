@@ -77,7 +77,7 @@ public class IRCChannelInfo implements ChannelInfo {
     /** Channel Key. */
     private String password = "";
     /** Hashtable containing references to ChannelClients. */
-    private final Map<String, IRCChannelClientInfo> clients = Collections.synchronizedMap(new HashMap<>());
+    private final CaseMappedMap<IRCChannelClientInfo> clients;
     /** Hashtable storing values for modes set in the channel that use parameters. */
     private final Map<Character, String> paramModes = new HashMap<>();
     /** Hashtable storing list modes. */
@@ -88,7 +88,7 @@ public class IRCChannelInfo implements ChannelInfo {
      */
     private final Collection<Character> addingModes = new LinkedList<>();
     /** Modes waiting to be sent to the server. */
-    private final Collection<String> modeQueue = new LinkedList<>();
+    private final ModeBatch modeBatch;
     /** A Map to allow applications to attach misc data to this object. */
     private final Map<Object, Object> map;
     /** Queue of requested list modes. */
@@ -118,6 +118,8 @@ public class IRCChannelInfo implements ChannelInfo {
         this.userModeManager = userModeManager;
         this.chanModeManager = chanModeManager;
         this.name = name;
+        this.modeBatch = new ModeBatch(parser, name);
+        this.clients = new CaseMappedMap<>(parser::getStringConverter);
     }
 
     /**
@@ -143,6 +145,17 @@ public class IRCChannelInfo implements ChannelInfo {
      */
     @Override
     public void requestListModes() {
+        requestListModes(new ArrayList<>());
+    }
+
+    /**
+     * Ask the server for all the list modes for this channel, recording which modes were asked
+     * for. The server sends an end of list reply for each of them.
+     *
+     * @param requested Collection to add the requested modes to. Every mode is added before any
+     * request is sent, so that replies can't arrive before the mode is recorded.
+     */
+    void requestListModes(final Collection<Character> requested) {
         final IRCChannelClientInfo me = getChannelClient(parser.getLocalClient());
 
         if (me == null) {
@@ -172,6 +185,7 @@ public class IRCChannelInfo implements ChannelInfo {
         // Add listmode handler
         final boolean supportLISTMODE = parser.h005Info.containsKey("LISTMODE");
 
+        final List<String> lines = new ArrayList<>();
         String listmodes = "";
         int i = 0;
         for (Character cTemp : parser.chanModesOther.keySet()) {
@@ -186,8 +200,9 @@ public class IRCChannelInfo implements ChannelInfo {
                 }
                 i++;
                 listmodes = listmodes + cTemp;
+                requested.add(cTemp);
                 if (i >= modecount && !supportLISTMODE) {
-                    parser.sendString("MODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                    lines.add("MODE " + getName() + " " + listmodes);
                     i = 0;
                     listmodes = "";
                 }
@@ -195,11 +210,15 @@ public class IRCChannelInfo implements ChannelInfo {
         }
         if (i > 0) {
             if (supportLISTMODE) {
-                parser.sendString("LISTMODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                lines.add("LISTMODE " + getName() + " " + listmodes);
             } else {
-                parser.sendString("MODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                lines.add("MODE " + getName() + " " + listmodes);
             }
         }
+
+        for (String line : lines) {
+            parser.sendString(line, QueuePriority.LOW);
+        }
     }
 
     /**
@@ -278,11 +297,15 @@ public class IRCChannelInfo implements ChannelInfo {
         return clients.size();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The collection is an immutable snapshot, and doesn't change if clients join or leave
+     * later.
+     */
     @Override
     public Collection<ChannelClientInfo> getChannelClients() {
-        synchronized (clients) {
-            return new ArrayList<>(clients.values());
-        }
+        return Collections.unmodifiableCollection(clients.snapshot().values());
     }
 
     /**
@@ -290,13 +313,11 @@ public class IRCChannelInfo implements ChannelInfo {
      */
     public void emptyChannel() {
         IRCClientInfo cTemp;
-        synchronized (clients) {
-            for (IRCChannelClientInfo client : clients.values()) {
-                cTemp = client.getClient();
-                cTemp.delChannelClientInfo(client);
-                if (cTemp != parser.getLocalClient() && !cTemp.checkVisibility()) {
-                    parser.removeClient(cTemp);
-                }
+        for (IRCChannelClientInfo client : clients.snapshot().values()) {
+            cTemp = client.getClient();
+            cTemp.delChannelClientInfo(client);
+            if (cTemp != parser.getLocalClient() && !cTemp.checkVisibility()) {
+                parser.removeClient(cTemp);
             }
         }
         clients.clear();
@@ -309,9 +330,10 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public IRCChannelClientInfo getChannelClient(final String client, final boolean create) {
-        final String who = parser.getStringConverter().toLowerCase(IRCClientInfo.parseHost(client));
-        if (clients.containsKey(who)) {
-            return clients.get(who);
+        final IRCChannelClientInfo target = clients.get(client,
+                IRCClientInfo.getNicknameStart(client), IRCClientInfo.getNicknameEnd(client));
+        if (target != null) {
+            return target;
         }
         if (create) {
             return new IRCChannelClientInfo(parser, prefixModeManager,
@@ -323,14 +345,16 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public IRCChannelClientInfo getChannelClient(final ClientInfo client) {
-        synchronized (clients) {
-            for (IRCChannelClientInfo target : clients.values()) {
-                if (target.getClient() == client) {
-                    return target;
-                }
-            }
+        if (!(client instanceof IRCClientInfo)) {
+            return null;
+        }
+        // Clients know which channels they are in, but may also hold references from fake
+        // channel clients that aren't in our list.
+        final IRCChannelClientInfo target = ((IRCClientInfo) client).getChannelClient(this);
+        if (target == null || clients.get(client.getNickname()) != target) {
+            return null;
         }
-        return null;
+        return target;
     }
 
     /**
@@ -343,7 +367,7 @@ public class IRCChannelInfo implements ChannelInfo {
         IRCChannelClientInfo cTemp = getChannelClient(cClient);
         if (cTemp == null) {
             cTemp = new IRCChannelClientInfo(parser, prefixModeManager, cClient, this);
-            clients.put(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp);
+            clients.put(cTemp.getClient().getNickname(), cTemp);
         }
         return cTemp;
     }
@@ -361,7 +385,7 @@ public class IRCChannelInfo implements ChannelInfo {
             if (clTemp != parser.getLocalClient() && !clTemp.checkVisibility()) {
                 parser.removeClient(clTemp);
             }
-            clients.remove(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()));
+            clients.remove(cTemp.getClient().getNickname());
         }
     }
 
@@ -379,7 +403,7 @@ public class IRCChannelInfo implements ChannelInfo {
                 clients.remove(oldNickname);
                 // Add with the new key. (getNickname will return the new name not the
                 // old one)
-                clients.put(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp);
+                clients.put(cTemp.getClient().getNickname(), cTemp);
             }
         }
     }
@@ -576,6 +600,21 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public Collection<ChannelListModeItem> getListMode(final char mode) {
+        final Collection<ChannelListModeItem> list = getListModeInternal(mode);
+        if (list != null) {
+            parser.getListModeScheduler().accessed(this);
+        }
+        return list;
+    }
+
+    /**
+     * Gets the items in a list mode, without telling the list mode scheduler that the lists
+     * have been read. This is used by the parser itself while processing list mode replies.
+     *
+     * @param mode The list mode to get
+     * @return The items in the list, or null if the mode is not a list mode
+     */
+    public Collection<ChannelListModeItem> getListModeInternal(final char mode) {
         if (!parser.chanModesOther.containsKey(mode) || parser.chanModesOther.get(mode) != IRCParser.MODE_LIST) {
             return null;
         }
@@ -627,122 +666,49 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public void alterMode(final boolean add, final Character mode, final String parameter) {
-        int modecount = 1;
-        final int modeint;
-        String modestr;
-        if (parser.h005Info.containsKey("MODES")) {
-            try {
-                modecount = Integer.parseInt(parser.h005Info.get("MODES"));
-            } catch (NumberFormatException e) {
-                if (parser.getServerType() == ServerType.OTHERNET) {
-                    modecount = 6;
-                } else {
-                    modecount = 1;
-                }
-            }
-        }
         if (!parser.isUserSettable(mode)) {
             return;
         }
 
-        modestr = (add ? "+" : "-") + mode;
         if (chanModeManager.isMode(mode)) {
-            final String teststr = (add ? "-" : "+") + mode;
-            if (modeQueue.contains(teststr)) {
-                modeQueue.remove(teststr);
-                return;
-            } else if (modeQueue.contains(modestr)) {
-                return;
-            }
-        } else {
-            // May need a param
-            if (prefixModeManager.isPrefixMode(mode)) {
-                modestr = modestr + ' ' + parameter;
-            } else if (parser.chanModesOther.containsKey(mode)) {
-                modeint = parser.chanModesOther.get(mode);
-                if ((modeint & IRCParser.MODE_LIST) == IRCParser.MODE_LIST) {
-                    modestr = modestr + " " + parameter;
-                } else if (!add && (modeint & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) {
-                    modestr = modestr + " " + parameter;
-                } else if (add && (modeint & IRCParser.MODE_SET) == IRCParser.MODE_SET) {
-                    // Does mode require a param to unset aswell?
-                    // We might need to queue an unset first
-                    if ((modeint & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) {
-                        final String existingParam = getMode(mode);
-                        if (!existingParam.isEmpty()) {
-                            final String reverseModeStr = "-" + mode + " " + existingParam;
-
-                            parser.callDebugInfo(IRCParser.DEBUG_INFO, "Queueing mode: %s", reverseModeStr);
-                            modeQueue.add(reverseModeStr);
-                            if (modeQueue.size() == modecount) {
-                                flushModes();
-                            }
-                        }
+            modeBatch.add(add, mode, null);
+        } else if (prefixModeManager.isPrefixMode(mode)) {
+            modeBatch.add(add, mode, parameter);
+        } else if (parser.chanModesOther.containsKey(mode)) {
+            final int modeint = parser.chanModesOther.get(mode);
+            if ((modeint & IRCParser.MODE_LIST) == IRCParser.MODE_LIST) {
+                modeBatch.add(add, mode, parameter);
+            } else if (!add && (modeint & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) {
+                modeBatch.add(add, mode, parameter);
+            } else if (add && (modeint & IRCParser.MODE_SET) == IRCParser.MODE_SET) {
+                // Does mode require a param to unset aswell?
+                // We might need to queue an unset first
+                if ((modeint & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) {
+                    final String existingParam = getMode(mode);
+                    if (!existingParam.isEmpty()) {
+                        modeBatch.add(false, mode, existingParam);
                     }
-                    modestr = modestr + " " + parameter;
                 }
+                modeBatch.add(add, mode, parameter);
             } else {
-                parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Trying to alter unknown mode.  positive: '" + add + "' | mode: '" + mode + "' | parameter: '" + parameter + "' ", ""));
+                modeBatch.add(add, mode, null);
             }
-        }
-        parser.callDebugInfo(IRCParser.DEBUG_INFO, "Queueing mode: %s", modestr);
-        modeQueue.add(modestr);
-        if (modeQueue.size() == modecount) {
-            flushModes();
+        } else {
+            parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Trying to alter unknown mode.  positive: '" + add + "' | mode: '" + mode + "' | parameter: '" + parameter + "' ", ""));
+            modeBatch.add(add, mode, null);
         }
     }
 
     @Override
     public void flushModes() {
-        if (modeQueue.isEmpty()) {
-            return;
-        }
-        final StringBuilder positivemode = new StringBuilder();
-        final StringBuilder positiveparam = new StringBuilder();
-        final StringBuilder negativemode = new StringBuilder();
-        final StringBuilder negativeparam = new StringBuilder();
-        final StringBuilder sendModeStr = new StringBuilder();
-        String modestr;
-        String[] modeparam;
-        boolean positive;
-        for (String aModeQueue : modeQueue) {
-            modeparam = aModeQueue.split(" ");
-            modestr = modeparam[0];
-            positive = modestr.charAt(0) == '+';
-            if (positive) {
-                positivemode.append(modestr.charAt(1));
-                if (modeparam.length > 1) {
-                    positiveparam.append(' ').append(modeparam[1]);
-                }
-            } else {
-                negativemode.append(modestr.charAt(1));
-                if (modeparam.length > 1) {
-                    negativeparam.append(' ').append(modeparam[1]);
-                }
-            }
-        }
-        if (negativemode.length() > 0) {
-            sendModeStr.append('-').append(negativemode);
-        }
-        if (positivemode.length() > 0) {
-            sendModeStr.append('+').append(positivemode);
-        }
-        if (negativeparam.length() > 0) {
-            sendModeStr.append(negativeparam);
-        }
-        if (positiveparam.length() > 0) {
-            sendModeStr.append(positiveparam);
-        }
-        parser.callDebugInfo(IRCParser.DEBUG_INFO, "Sending mode: %s", sendModeStr.toString());
-        parser.sendRawMessage("MODE " + name + ' ' + sendModeStr);
-        clearModeQueue();
+        modeBatch.flush();
     }
 
     /**
      * This function will clear the mode queue (WITHOUT Sending).
      */
     public void clearModeQueue() {
-        modeQueue.clear();
+        modeBatch.clear();
     }
 
     @Override
@@ -767,6 +733,18 @@ public class IRCChannelInfo implements ChannelInfo {
         parser.sendString("NOTICE " + name, sMessage);
     }
 
+    /**
+     * Kicks several users from this channel, using as few lines as the server allows.
+     *
+     * @param clients The clients to kick.
+     * @param reason The kick reason, or an empty string for none.
+     */
+    public void kick(final Collection<? extends ChannelClientInfo> clients, final String reason) {
+        final List<String> nicknames = new ArrayList<>(clients.size());
+        clients.forEach(client -> nicknames.add(client.getClient().getNickname()));
+        parser.sendKick(name, nicknames, reason);
+    }
+
     @Override
     public void sendAction(final String action) {
         if (action.isEmpty()) {
@@ -27,8 +27,8 @@ import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.LocalClientInfo;
 import com.dmdirc.parser.interfaces.Parser;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -67,8 +67,14 @@ public class IRCClientInfo implements LocalClientInfo {
     private final IRCParser parser;
     /** A Map to allow applications to attach misc data to this object. */
     private final Map<Object, Object> map;
-    /** List of ChannelClientInfos that point to this. */
-    private final Map<String, IRCChannelClientInfo> clients = new HashMap<>();
+    /**
+     * ChannelClientInfos that point to this, keyed by their channel. The map is immutable and
+     * replaced on each change, so it can be read without locking.
+     */
+    private volatile IdentityTrie<IRCChannelInfo, IRCChannelClientInfo> clients =
+            IdentityTrie.empty();
+    /** Lock held while changing {@link #clients}. */
+    private final Object clientsLock = new Object();
     /** Modes waiting to be sent to the server. */
     private final Collection<String> modeQueue = new LinkedList<>();
 
@@ -135,6 +141,33 @@ public class IRCClientInfo implements LocalClientInfo {
         return parseHostFull(sWho)[0];
     }
 
+    /**
+     * Gets the index at which the nickname in a hostmask starts.
+     *
+     * @param hostmask Hostmask to parse
+     * @return The index of the first character of the nickname
+     * @see #parseHost(String)
+     */
+    public static int getNicknameStart(final String hostmask) {
+        return !hostmask.isEmpty() && hostmask.charAt(0) == ':' ? 1 : 0;
+    }
+
+    /**
+     * Gets the index at which the nickname in a hostmask ends.
+     *
+     * @param hostmask Hostmask to parse
+     * @return The index after the last character of the nickname
+     * @see #parseHost(String)
+     */
+    public static int getNicknameEnd(final String hostmask) {
+        int end = hostmask.indexOf('@');
+        if (end == -1) {
+            end = hostmask.length();
+        }
+        final int bang = hostmask.indexOf('!');
+        return bang != -1 && bang < end ? bang : end;
+    }
+
     /**
      * Get a nick ident and host of a user from a hostmask.
      * Hostmask must match (?:)nick(?!ident)(?@host)
@@ -343,9 +376,10 @@ public class IRCClientInfo implements LocalClientInfo {
      * @param cci ChannelClientInfo to add as a known reference
      */
     public void addChannelClientInfo(final IRCChannelClientInfo cci) {
-        final String key = parser.getStringConverter().toLowerCase(cci.getChannel().getName());
-        if (!clients.containsKey(key)) {
-            clients.put(key, cci);
+        synchronized (clientsLock) {
+            if (clients.get(cci.getChannel()) == null) {
+                clients = clients.with(cci.getChannel(), cci);
+            }
         }
     }
 
@@ -355,19 +389,38 @@ public class IRCClientInfo implements LocalClientInfo {
      * @param cci ChannelClientInfo to remove as a known reference
      */
     public void delChannelClientInfo(final IRCChannelClientInfo cci) {
-        final String key = parser.getStringConverter().toLowerCase(cci.getChannel().getName());
-        if (clients.containsKey(key)) {
-            clients.remove(key);
+        synchronized (clientsLock) {
+            clients = clients.without(cci.getChannel());
         }
     }
 
+    /**
+     * Gets the ChannelClientInfo that refers to this client in the given channel.
+     *
+     * @param channel The channel to look in
+     * @return The ChannelClientInfo for this client, or null if none is known
+     */
+    public IRCChannelClientInfo getChannelClient(final IRCChannelInfo channel) {
+        return clients.get(channel);
+    }
+
+    /**
+     * Gets the channels this client is known to be in. The list is an immutable snapshot, and
+     * doesn't change if the client joins or leaves channels later.
+     *
+     * @return The list of channels this client is in
+     */
+    public List<IRCChannelInfo> getChannels() {
+        return clients.keys();
+    }
+
     /**
      * Check to see if a client is still known on any of the channels we are on.
      *
      * @return Boolean to see if client is still visable.
      */
     public boolean checkVisibility() {
-        return !clients.isEmpty();
+        return clients.size() > 0;
     }
 
     @Override
@@ -375,9 +428,15 @@ public class IRCClientInfo implements LocalClientInfo {
         return clients.size();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The list is an immutable snapshot, and doesn't change if the client joins or leaves
+     * channels later.
+     */
     @Override
     public List<ChannelClientInfo> getChannelClients() {
-        return new ArrayList<>(clients.values());
+        return Collections.unmodifiableList(clients.values());
     }
 
     @Override
@@ -22,9 +22,11 @@
 package com.dmdirc.parser.irc;
 
 import com.dmdirc.parser.common.BaseSocketAwareParser;
+import com.dmdirc.parser.common.CallbackExecutor;
 import com.dmdirc.parser.common.ChannelJoinRequest;
 import com.dmdirc.parser.common.ChildImplementations;
 import com.dmdirc.parser.common.CompositionState;
+import com.dmdirc.parser.common.HashedWheelTimer;
 import com.dmdirc.parser.common.IgnoreList;
 import com.dmdirc.parser.common.MyInfo;
 import com.dmdirc.parser.common.ParserError;
@@ -49,22 +51,24 @@ import com.dmdirc.parser.irc.events.IRCDataInEvent;
 import com.dmdirc.parser.irc.events.IRCDataOutEvent;
 import com.dmdirc.parser.irc.outputqueue.OutputQueue;
 import com.dmdirc.parser.irc.outputqueue.PriorityOutputQueue;
+import com.dmdirc.parser.irc.outputqueue.TokenBucketOutputQueue;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -74,12 +78,18 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Timer;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import javax.annotation.Nullable;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -118,15 +128,14 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     /** Byte used to show that a non-boolean mode is not a list, and requires a parameter to unset (k). */
     public static final byte MODE_UNSET = 4;
 
-    /** server-time time format */
-    private static final DateTimeFormatter serverTimeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-
     /**
      * Default channel prefixes if none are specified by the IRCd.
      *
      * <p>These are the RFC 2811 specified prefixes: '#', '&amp;', '!' and '+'.
      */
     private static final String DEFAULT_CHAN_PREFIX = "#&!+";
+    /** How often a timed task is retried if the task queue is full, in milliseconds. */
+    private static final long TASK_RETRY_INTERVAL = 100;
 
     /**
      * This is what the user wants settings to be.
@@ -136,18 +145,34 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private MyInfo me = new MyInfo();
     /** Should PINGs be sent to the server to check if its alive? */
     private boolean checkServerPing = true;
-    /** Timer for server ping. */
-    private Timer pingTimer;
-    /** Semaphore for access to pingTimer. */
-    private final Semaphore pingTimerSem = new Semaphore(1);
+    /** The timer used to schedule pings and other timeouts. */
+    private volatile HashedWheelTimer timer = HashedWheelTimer.getDefault();
+    /** Executor used to run this parser's timed work, so it doesn't hold up the timer. */
+    private final CallbackExecutor.SerialExecutor taskExecutor;
+    /** Number of times a task couldn't be queued without blocking because the queue was full. */
+    private final AtomicLong fullTaskQueueCount = new AtomicLong();
+    /** How long channel mode changes are batched before being sent, in milliseconds. */
+    private volatile long modeFlushDelay;
+    /** Scheduler used to pace JOINs. */
+    private final JoinScheduler joinScheduler = new JoinScheduler(this);
+    /** Scheduler used to fetch channels' list modes. */
+    private final ListModeScheduler listModeScheduler = new ListModeScheduler(this);
+    /** Task for server ping. */
+    private PingTimer pingTimer;
+    /** Lock for access to pingTimer. */
+    private final Object pingTimerLock = new Object();
     /** Is a ping needed? */
     private final AtomicBoolean pingNeeded = new AtomicBoolean(false);
     /** Time last ping was sent at. */
-    private long pingTime;
+    private volatile long pingTime;
+    /** Value of {@link System#nanoTime()} when the last ping was sent. */
+    private volatile long pingNanoTime;
     /** Current Server Lag. */
-    private long serverLag;
+    private volatile long serverLag;
+    /** Statistics about recent server lag. */
+    private final LagStatistics lagStatistics = new LagStatistics();
     /** Last value sent as a ping argument. */
-    private String lastPingValue = "";
+    private volatile String lastPingValue = "";
     /**
      * Count down to next ping.
      * The timer fires every 10 seconds, this value is decreased every time the
@@ -195,16 +220,30 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private boolean addLastLine;
     /** Channel Prefixes (ie # + etc). */
     private String chanPrefix = DEFAULT_CHAN_PREFIX;
-    /** Hashtable storing all known clients based on nickname (in lowercase). */
-    private final Map<String, IRCClientInfo> clientList = new HashMap<>();
-    /** Hashtable storing all known channels based on chanel name (inc prefix - in lowercase). */
-    private final Map<String, IRCChannelInfo> channelList = new HashMap<>();
+    /**
+     * Map storing all known clients based on nickname (case-insensitively). Other threads may
+     * read this while the parser thread changes it.
+     */
+    private final CaseMappedMap<IRCClientInfo> clientList =
+            new CaseMappedMap<>(this::getStringConverter);
+    /** Map storing all known channels based on chanel name (inc prefix - case-insensitively). */
+    private final CaseMappedMap<IRCChannelInfo> channelList =
+            new CaseMappedMap<>(this::getStringConverter);
     /** Reference to the ClientInfo object that references ourself. */
     private IRCClientInfo myself;
     /** Hashtable storing all information gathered from 005. */
     public final Map<String, String> h005Info = new HashMap<>();
     /** difference in ms between our time and the servers time (used for timestampedIRC). */
     private long tsdiff;
+    /** Converts line timestamps into local times, caching the local zone's offset. */
+    private LocalTimeConverter localTime = new LocalTimeConverter(ZoneId.systemDefault());
+    /** Debug levels the user wants published, if anything is listening. */
+    private volatile int requestedDebugMask = ~0;
+    /**
+     * Debug levels that are actually published. This is zero whenever nothing is subscribed to
+     * DebugInfo events, so that debug calls are almost free.
+     */
+    private volatile int debugMask;
     /** Reference to the Processing Manager. */
     private final ProcessingManager myProcessingManager;
     /** Should we automatically disconnect on fatal errors?. */
@@ -220,10 +259,16 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private Socket socket;
     /** Used for writing to the server. */
     private OutputQueue out;
+    /** Controller tuning the output rate, if adaptive rate control is enabled. */
+    private AdaptiveRateController rateController;
     /** The encoder to use to encode incoming lines. */
     private Encoder encoder = new SystemEncoder();
     /** Used for reading from the server. */
     private IRCReader in;
+    /** Pool of selectors used to service the connection, or null to use a blocking socket. */
+    private volatile SelectorPool selectorPool;
+    /** The non-blocking connection to the server, if a selector pool is being used. */
+    private volatile NioConnection connection;
     /** This is the default TrustManager for SSL Sockets, it trusts all ssl certs. */
     private final TrustManager[] trustAllCerts = {new TrustingTrustManager()};
     /** Should channels automatically request list modes? */
@@ -242,6 +287,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private final WhoisResponseHandler whoisHandler;
     /** Used to synchronize calls to resetState. */
     private final Object resetStateSync = new Object();
+    /** Decides which raw lines are published as data in/out events. */
+    private final RawTrafficTap rawTrafficTap = new RawTrafficTap();
+    /** Handlers called directly for outgoing lines with specific commands. */
+    private final List<OutgoingLineHandler> outgoingLineHandlers = new CopyOnWriteArrayList<>();
 
     /**
      * Default constructor, ServerInfo and MyInfo need to be added separately (using IRC.me and IRC.server).
@@ -277,8 +326,27 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param uri The URI to connect to
      */
     public IRCParser(final MyInfo myDetails, final URI uri) {
+        this(myDetails, uri, null);
+    }
+
+    /**
+     * Creates a new IRCParser with the specified client details which will connect to the
+     * specified URI, and which invokes asynchronous event handlers using a shared executor.
+     *
+     * @param myDetails The client details to use
+     * @param uri The URI to connect to
+     * @param callbackExecutor The executor to share with other parsers, or null to give this
+     * parser its own
+     */
+    public IRCParser(final MyInfo myDetails, final URI uri,
+            @Nullable final CallbackExecutor callbackExecutor) {
         super(uri);
-        setCallbackManager(new IRCParserCallbackManager(this::handleCallbackError));
+        setCallbackManager(callbackExecutor == null
+                ? new IRCParserCallbackManager(this::handleCallbackError)
+                : new IRCParserCallbackManager(this::handleCallbackError, callbackExecutor));
+        taskExecutor = (callbackExecutor == null ? CallbackExecutor.getDefault()
+                : callbackExecutor).createSerialExecutor(this::handleTaskError);
+        getCallbackManager().addSubscriptionListener(this::updateSubscriptions);
 
         // TODO: There should be a factory or builder for parsers that can construct the graph
         final ObjectGraph graph = ObjectGraph.create(new IRCParserModule(this, prefixModes,
@@ -300,6 +368,28 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
     }
 
+    /**
+     * Gets the tap that controls which raw lines are published as {@link IRCDataInEvent}s and
+     * {@link IRCDataOutEvent}s.
+     *
+     * @return This parser's raw traffic tap
+     */
+    public RawTrafficTap getRawTrafficTap() {
+        return rawTrafficTap;
+    }
+
+    /**
+     * Adds a handler that is called directly, without using the event bus, whenever a line
+     * with the given command is sent to the server. Handlers are called before the line is
+     * queued for sending.
+     *
+     * @param command The command to handle (e.g. "JOIN"), matched case-insensitively
+     * @param handler The handler to call with the tokenised line
+     */
+    public void addOutgoingLineHandler(final String command, final Consumer<String[]> handler) {
+        outgoingLineHandlers.add(new OutgoingLineHandler(command, handler));
+    }
+
     /**
      * Get the current OutputQueue
      *
@@ -320,13 +410,49 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         checkNotNull(queue);
         out.clearQueue();
 
+        final NioConnection nioConnection = connection;
         if (socket != null) {
             queue.setOutputStream(socket.getOutputStream());
+        } else if (nioConnection != null) {
+            queue.setOutputStream(nioConnection.getOutputStream());
+            queue.setSendTimer(timer, nioConnection::isWritable);
+        }
+        if (post005) {
+            queue.setServerType(getServerType());
         }
 
         out = queue;
     }
 
+    /**
+     * Enables adaptive rate control. If the current output queue is not a
+     * {@link TokenBucketOutputQueue}, one is created to replace it. The queue's rate is then
+     * tuned based on feedback from the server.
+     *
+     * @return The controller tuning the output rate
+     * @throws IOException If the output queue could not be replaced
+     */
+    public synchronized AdaptiveRateController enableAdaptiveRateControl() throws IOException {
+        if (rateController == null) {
+            if (!(out instanceof TokenBucketOutputQueue)) {
+                setOutputQueue(new TokenBucketOutputQueue());
+            }
+            rateController = new AdaptiveRateController(this, (TokenBucketOutputQueue) out);
+            rateController.start();
+        }
+        return rateController;
+    }
+
+    /**
+     * Gets the controller tuning the output rate.
+     *
+     * @return The rate controller, or null if adaptive rate control is not enabled
+     */
+    @Nullable
+    public AdaptiveRateController getAdaptiveRateController() {
+        return rateController;
+    }
+
     @Override
     public boolean compareURI(final URI uri) {
         // Get the old URI.
@@ -564,7 +690,9 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param line Incoming Line.
      */
     protected void callDataIn(final ReadLine line) {
-        getCallbackManager().publish(new IRCDataInEvent(this, LocalDateTime.now(), line));
+        if (rawTrafficTap.shouldPublish(line)) {
+            getCallbackManager().publish(new IRCDataInEvent(this, localTime.now(), line));
+        }
     }
 
     /**
@@ -574,7 +702,9 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param fromParser True if parser sent the data, false if sent using .sendLine
      */
     protected void callDataOut(final String data, final boolean fromParser) {
-        getCallbackManager().publish(new IRCDataOutEvent(this, LocalDateTime.now(), data));
+        if (rawTrafficTap.shouldPublish(data)) {
+            getCallbackManager().publish(new IRCDataOutEvent(this, localTime.now(), data));
+        }
     }
 
     /**
@@ -585,17 +715,136 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param args Formatting String Options
      */
     public void callDebugInfo(final int level, final String data, final Object... args) {
-        callDebugInfo(level, String.format(data, args));
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, String.format(data, args));
+        }
     }
 
     /**
      * Callback to all objects implementing the DebugInfo Callback.
      *
      * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @param data Debugging Information as a format string
+     * @param arg Formatting String Option
+     */
+    public void callDebugInfo(final int level, final String data, final Object arg) {
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, String.format(data, arg));
+        }
+    }
+
+    /**
+     * Callback to all objects implementing the DebugInfo Callback.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @param data Debugging Information as a format string
+     * @param arg1 First Formatting String Option
+     * @param arg2 Second Formatting String Option
+     */
+    public void callDebugInfo(final int level, final String data, final Object arg1,
+            final Object arg2) {
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, String.format(data, arg1, arg2));
+        }
+    }
+
+    /**
+     * Callback to all objects implementing the DebugInfo Callback.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @param data Debugging Information as a format string
+     * @param arg1 First Formatting String Option
+     * @param arg2 Second Formatting String Option
+     * @param arg3 Third Formatting String Option
+     */
+    public void callDebugInfo(final int level, final String data, final Object arg1,
+            final Object arg2, final Object arg3) {
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, String.format(data, arg1, arg2, arg3));
+        }
+    }
+
+    /**
+     * Callback to all objects implementing the DebugInfo Callback. The message is only built
+     * if something is listening for the given level.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @param data Supplier of the Debugging Information
+     */
+    public void callDebugInfo(final int level, final Supplier<String> data) {
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, data.get());
+        }
+    }
+
+    /**
+     * Callback to all objects implementing the DebugInfo Callback.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @param data Debugging Information
+     */
+    public void callDebugInfo(final int level, final String data) {
+        if ((debugMask & level) != 0) {
+            publishDebugInfo(level, data);
+        }
+    }
+
+    /**
+     * Publishes a DebugInfo event.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
      * @param data Debugging Information
      */
-    protected void callDebugInfo(final int level, final String data) {
-        getCallbackManager().publish(new DebugInfoEvent(this, LocalDateTime.now(), level, data));
+    private void publishDebugInfo(final int level, final String data) {
+        getCallbackManager().publish(new DebugInfoEvent(this, localTime.now(), level, data));
+    }
+
+    /**
+     * Determines whether debug information of the given level is currently wanted, i.e. the
+     * level is included in the debug mask and something is listening for DebugInfo events.
+     *
+     * @param level Debugging Level (DEBUG_INFO, DEBUG_SOCKET etc)
+     * @return True if debug information for the level will be published
+     */
+    public boolean isDebugEnabled(final int level) {
+        return (debugMask & level) != 0;
+    }
+
+    /**
+     * Sets which levels of debug information should be published. Defaults to all levels.
+     *
+     * @param mask Bitmask of debugging levels (DEBUG_INFO, DEBUG_SOCKET etc)
+     */
+    public void setDebugMask(final int mask) {
+        requestedDebugMask = mask;
+        updateDebugMask();
+    }
+
+    /**
+     * Gets which levels of debug information should be published.
+     *
+     * @return Bitmask of debugging levels (DEBUG_INFO, DEBUG_SOCKET etc)
+     */
+    public int getDebugMask() {
+        return requestedDebugMask;
+    }
+
+    /**
+     * Updates cached subscription state after listeners are added to or removed from the
+     * callback manager.
+     */
+    private void updateSubscriptions() {
+        updateDebugMask();
+        rawTrafficTap.update(getCallbackManager());
+    }
+
+    /**
+     * Updates the effective debug mask based on whether anything is listening for
+     * DebugInfo events.
+     */
+    private void updateDebugMask() {
+        debugMask = getCallbackManager().hasSubscribers(DebugInfoEvent.class)
+                ? requestedDebugMask : 0;
     }
 
     /**
@@ -657,6 +906,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         }
 
         post005 = true;
+        out.setServerType(getServerType());
 
         if (!h005Info.containsKey(IrcConstants.ISUPPORT_CHANNEL_USER_PREFIXES)) {
             parsePrefixModes();
@@ -681,6 +931,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             // Reset General State info
             got001 = false;
             post005 = false;
+            // Pick up any change to the default time zone since the last connection
+            localTime = new LocalTimeConverter(ZoneId.systemDefault());
             // Clear the hash tables
             channelList.clear();
             clientList.clear();
@@ -692,6 +944,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             chanPrefix = DEFAULT_CHAN_PREFIX;
             // Clear output queue.
             out.clearQueue();
+            joinScheduler.clear();
+            listModeScheduler.clear();
             setServerName("");
             networkName = "";
             lastLine = null;
@@ -765,14 +1019,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         if (getURI().getScheme().endsWith("s")) {
             callDebugInfo(DEBUG_SOCKET, "Server is SSL.");
 
-            if (myTrustManager == null) {
-                myTrustManager = trustAllCerts;
-            }
-
-            final SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(myKeyManagers, myTrustManager, new SecureRandom());
-
-            final SSLSocketFactory socketFactory = sc.getSocketFactory();
+            final SSLSocketFactory socketFactory = createSSLContext().getSocketFactory();
             socket = socketFactory.createSocket(rawSocket, getURI().getHost(), getURI()
                     .getPort(), false);
 
@@ -797,6 +1044,162 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         callDebugInfo(DEBUG_SOCKET, "\t-> Socket Opened");
     }
 
+    /**
+     * Starts a non-blocking connection to IRC, serviced by the given selector pool.
+     *
+     * @param pool The selector pool to use
+     * @throws IOException if the connection can not be started
+     * @throws NoSuchAlgorithmException if SSL is not available
+     * @throws KeyManagementException if the trustManager is invalid
+     */
+    private void doConnect(final SelectorPool pool)
+            throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        if (getURI() == null || getURI().getHost() == null) {
+            throw new UnknownHostException("Unspecified host.");
+        }
+
+        resetState();
+        callDebugInfo(DEBUG_SOCKET, "Connecting to " + getURI().getHost() + ':' + getURI().getPort()
+                + " (non-blocking)");
+
+        currentSocketState = SocketState.OPENING;
+
+        final URI connectUri = getConnectURI(getURI());
+        if (connectUri.getPort() > 65535 || connectUri.getPort() <= 0) {
+            throw new IOException("server port (" + connectUri.getPort() + ") is invalid.");
+        }
+        final InetAddress address = resolveAddress(connectUri.getHost());
+
+        SSLEngine engine = null;
+        if (getURI().getScheme().endsWith("s")) {
+            callDebugInfo(DEBUG_SOCKET, "Server is SSL.");
+            engine = createSSLContext().createSSLEngine(getURI().getHost(), getURI().getPort());
+            engine.setUseClientMode(true);
+        }
+
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            final String bindIp = address instanceof Inet6Address ? getBindIPv6() : getBindIP();
+            if (bindIp != null && !bindIp.isEmpty()) {
+                try {
+                    channel.bind(new InetSocketAddress(InetAddress.getByName(bindIp), 0));
+                } catch (IOException ex) {
+                    // Bind failed; continue trying to connect anyway.
+                    handleSocketDebug("Binding failed: " + ex.getMessage());
+                }
+            }
+
+            connection = new NioConnection(this, channel, engine, encoder,
+                    Charset.defaultCharset());
+            connection.connect(pool, new InetSocketAddress(address, connectUri.getPort()));
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Resolves the given host, preferring IPv6 addresses where they exist.
+     *
+     * @param host The host to resolve
+     * @return An address for the host
+     * @throws UnknownHostException if the host can't be resolved
+     */
+    private static InetAddress resolveAddress(final String host) throws UnknownHostException {
+        final InetAddress[] addresses = InetAddress.getAllByName(host);
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address) {
+                return address;
+            }
+        }
+        return addresses[0];
+    }
+
+    /**
+     * Creates an SSL context using the parser's key and trust managers.
+     *
+     * @return A new, initialised, SSL context
+     * @throws NoSuchAlgorithmException if SSL is not available
+     * @throws KeyManagementException if the trustManager is invalid
+     */
+    private SSLContext createSSLContext() throws NoSuchAlgorithmException, KeyManagementException {
+        if (myTrustManager == null) {
+            myTrustManager = trustAllCerts;
+        }
+
+        final SSLContext sc = SSLContext.getInstance("SSL");
+        sc.init(myKeyManagers, myTrustManager, new SecureRandom());
+        return sc;
+    }
+
+    /**
+     * Called by the non-blocking connection once it has been established.
+     *
+     * @param stream The stream to use to write to the server
+     */
+    void handleConnected(final OutputStream stream) {
+        final NioConnection nioConnection = connection;
+        out.setOutputStream(stream);
+        if (nioConnection != null) {
+            out.setSendTimer(timer, nioConnection::isWritable);
+        }
+        out.setQueueEnabled(true);
+        currentSocketState = SocketState.OPEN;
+        callDebugInfo(DEBUG_SOCKET, "Socket Connected");
+
+        sendConnectionStrings();
+    }
+
+    /**
+     * Called by the non-blocking connection once it can accept more data, after having
+     * buffered too much.
+     */
+    void handleWritable() {
+        out.resumeSending();
+    }
+
+    /**
+     * Handles a line received from the server.
+     *
+     * @param line The line that was received
+     */
+    void handleLine(final ReadLine line) {
+        lastLine = line;
+        if (currentSocketState != SocketState.CLOSING) {
+            processLine(line);
+        }
+    }
+
+    /**
+     * Handles the connection to the server being closed by the remote end.
+     */
+    void handleEndOfStream() {
+        if (currentSocketState != SocketState.CLOSED) {
+            currentSocketState = SocketState.CLOSED;
+            callSocketClosed();
+        }
+        resetState();
+    }
+
+    /**
+     * Handles an error on an established non-blocking connection.
+     *
+     * @param e The error that occurred
+     */
+    void handleConnectionLost(final Exception e) {
+        callDebugInfo(DEBUG_SOCKET, "Exception in main loop (" + e.getMessage() + "), Aborted");
+        handleEndOfStream();
+    }
+
+    /**
+     * Handles an error while establishing a non-blocking connection.
+     *
+     * @param e The error that occurred
+     */
+    void handleConnectionFailed(final Exception e) {
+        handleConnectException(e, e instanceof IOException);
+    }
+
     /**
      * Send server connection strings (NICK/USER/PASS).
      */
@@ -865,33 +1268,80 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
         while (true) {
             try {
-                lastLine = in.readLine(); // Blocking :/
-                if (lastLine == null) {
-                    if (currentSocketState != SocketState.CLOSED) {
-                        currentSocketState = SocketState.CLOSED;
-                        callSocketClosed();
-                    }
-                    resetState();
+                final ReadLine line = in.readLine(); // Blocking :/
+                if (line == null) {
+                    handleEndOfStream();
                     break;
-                } else if (currentSocketState != SocketState.CLOSING) {
-                    processLine(lastLine);
                 }
+                handleLine(line);
             } catch (IOException e) {
-                callDebugInfo(DEBUG_SOCKET, "Exception in main loop (" + e.getMessage() + "), Aborted");
-
-                if (currentSocketState != SocketState.CLOSED) {
-                    currentSocketState = SocketState.CLOSED;
-                    callSocketClosed();
-                }
-                resetState();
+                handleConnectionLost(e);
                 break;
             }
         }
         callDebugInfo(DEBUG_INFO, "End Thread Execution");
     }
 
+    /**
+     * Sets the selector pool that will be used to service this parser's connection. If a pool is
+     * set, {@link #connect()} will use a non-blocking connection handled by the pool's threads
+     * instead of starting a dedicated thread for this parser. Connections via a proxy always use
+     * a blocking socket.
+     *
+     * <p>This must be called before {@link #connect()}.
+     *
+     * @param pool The selector pool to use, or null to use a blocking socket
+     */
+    public void setSelectorPool(@Nullable final SelectorPool pool) {
+        selectorPool = pool;
+    }
+
+    /**
+     * Gets the selector pool that will be used to service this parser's connection.
+     *
+     * @return The selector pool in use, or null if a blocking socket is used
+     */
+    @Nullable
+    public SelectorPool getSelectorPool() {
+        return selectorPool;
+    }
+
+    @Override
+    public void connect() {
+        final SelectorPool pool = selectorPool;
+        if (pool == null || getProxy() != null) {
+            super.connect();
+            return;
+        }
+
+        synchronized (controlThreadLock) {
+            if (hasBegan || controlThread != null) {
+                // To ensure correct internal state, parsers must be recreated for
+                // new connections rather than being recycled.
+                throw new UnsupportedOperationException("This parser has already been running.");
+            }
+            hasBegan = true;
+        }
+
+        try {
+            doConnect(pool);
+        } catch (IOException e) {
+            handleConnectException(e, true);
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            handleConnectException(e, false);
+        }
+    }
+
     @Override
     public void shutdown() {
+        if (rateController != null) {
+            rateController.stop();
+        }
+        final NioConnection nioConnection = connection;
+        if (nioConnection != null) {
+            nioConnection.close();
+            connection = null;
+        }
         try {
             // See note at disconnect() method for why we close rawSocket.
             if (rawSocket != null) {
@@ -902,6 +1352,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         } catch (IOException e) {
             callDebugInfo(DEBUG_SOCKET, "Could not close socket");
         }
+        taskExecutor.shutdown();
         super.shutdown();
     }
 
@@ -972,25 +1423,29 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
     @Override
     public IRCClientInfo getClient(final String details) {
-        final String sWho = getStringConverter().toLowerCase(IRCClientInfo.parseHost(details));
+        final IRCClientInfo client = getKnownClient(details);
+        return client == null ? new IRCClientInfo(this, userModes, details).setFake(true) : client;
+    }
 
-        if (clientList.containsKey(sWho)) {
-            return clientList.get(sWho);
-        } else {
-            return new IRCClientInfo(this, userModes, details).setFake(true);
-        }
+    /**
+     * Gets a known client.
+     *
+     * @param host The nickname or hostmask of the client
+     * @return The known client, or null if the client isn't known
+     */
+    public IRCClientInfo getKnownClient(final String host) {
+        return clientList.get(host, IRCClientInfo.getNicknameStart(host),
+                IRCClientInfo.getNicknameEnd(host));
     }
 
     public boolean isKnownClient(final String host) {
-        final String sWho = getStringConverter().toLowerCase(IRCClientInfo.parseHost(host));
-        return clientList.containsKey(sWho);
+        return clientList.containsKey(host, IRCClientInfo.getNicknameStart(host),
+                IRCClientInfo.getNicknameEnd(host));
     }
 
     @Override
     public IRCChannelInfo getChannel(final String channel) {
-        synchronized (channelList) {
-            return channelList.get(getStringConverter().toLowerCase(channel));
-        }
+        return channelList.get(channel);
     }
 
     @Override
@@ -1060,8 +1515,14 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             return false;
         }
         callDataOut(line, fromParser);
+        final String[] newLine = tokeniseLine(line);
+        for (OutgoingLineHandler handler : outgoingLineHandlers) {
+            if (handler.command.equalsIgnoreCase(newLine[0])) {
+                handler.handler.accept(newLine);
+            }
+        }
         out.sendLine(line, priority);
-        parseOutgoingLine(line);
+        parseOutgoingLine(newLine);
 
         return true;
     }
@@ -1069,10 +1530,9 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     /**
      * Parses a line that has been sent to the server in order to track state.
      *
-     * @param line The line to be parsed.
+     * @param newLine The tokenised line to be parsed.
      */
-    private void parseOutgoingLine(final String line) {
-        final String[] newLine = tokeniseLine(line);
+    private void parseOutgoingLine(final String[] newLine) {
         if ("away".equalsIgnoreCase(newLine[0]) && newLine.length > 1) {
             myself.setAwayReason(newLine[newLine.length - 1]);
         } else if ("mode".equalsIgnoreCase(newLine[0]) && newLine.length == 3) {
@@ -1123,49 +1583,57 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      */
     @SuppressWarnings("fallthrough")
     protected void processLine(final ReadLine line) {
-        callDataIn(line);
-        final String[] token = line.getTokens();
-        LocalDateTime lineTS = LocalDateTime.now();
+        // Tokens are decoded as they're used, and only handed over as an array once a
+        // processor is found for the line.
+        final int tokenCount = line.getTokenCount();
+        final boolean isPing = tokenCount >= 2 && ("PING".equalsIgnoreCase(line.getToken(0))
+                || "PING".equalsIgnoreCase(line.getToken(1)));
+        if (isPing) {
+            // Reply before doing anything else, and skip the output queue, so that pings
+            // aren't answered late when there's a lot of other traffic.
+            sendString("PONG :" + line.getToken(1), QueuePriority.IMMEDIATE);
+        }
 
-        if (line.getTags().containsKey("tsirc date")) {
-            try {
-                final long ts = Long.parseLong(line.getTags().get("tsirc date")) - tsdiff;
-                lineTS = LocalDateTime.ofInstant(Instant.ofEpochSecond(ts / 1000L, (int) (ts % 1000L)),
-                        ZoneId.systemDefault());
-            } catch (final NumberFormatException nfe) { /* Do nothing. */ }
-        } else if (line.getTags().containsKey("time")) {
-            try {
-                lineTS = OffsetDateTime.parse(line.getTags().get("time"), serverTimeFormat)
-                        .atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
-            } catch (final DateTimeParseException pe) { /* Do nothing. */ }
+        callDataIn(line);
+        long lineTime = line.getTsircDate();
+        if (lineTime == -1) {
+            lineTime = line.getServerTime();
+        } else {
+            lineTime -= tsdiff;
         }
+        final LocalDateTime lineTS = localTime.toLocalDateTime(
+                lineTime == -1 ? System.currentTimeMillis() : lineTime);
 
         setPingNeeded(false);
 
-        if (token.length < 2) {
+        if (tokenCount < 2) {
             return;
         }
 
         try {
-            final String sParam = token[1];
-            if ("PING".equalsIgnoreCase(token[0]) || "PING".equalsIgnoreCase(token[1])) {
-                sendString("PONG :" + sParam, QueuePriority.HIGH);
-            } else if ("PONG".equalsIgnoreCase(token[0]) || "PONG".equalsIgnoreCase(token[1])) {
-                if (!lastPingValue.isEmpty() && lastPingValue.equals(token[token.length - 1])) {
+            final String command = line.getToken(0);
+            final String sParam = line.getToken(1);
+            if (isPing) {
+                // Already answered above.
+            } else if ("PONG".equalsIgnoreCase(command) || "PONG".equalsIgnoreCase(sParam)) {
+                if (!lastPingValue.isEmpty()
+                        && lastPingValue.equals(line.getToken(tokenCount - 1))) {
                     lastPingValue = "";
-                    serverLag = System.currentTimeMillis() - pingTime;
+                    final long lag = System.nanoTime() - pingNanoTime;
+                    lagStatistics.record(lag);
+                    serverLag = TimeUnit.NANOSECONDS.toMillis(lag);
                     callPingSuccess();
                 }
-            } else if ("ERROR".equalsIgnoreCase(token[0])) {
+            } else if ("ERROR".equalsIgnoreCase(command)) {
                 final StringBuilder errorMessage = new StringBuilder();
-                for (int i = 1; i < token.length; ++i) {
-                    errorMessage.append(token[i]);
+                for (int i = 1; i < tokenCount; ++i) {
+                    errorMessage.append(line.getToken(i));
                 }
                 callServerError(errorMessage.toString());
-            } else if ("TSIRC".equalsIgnoreCase(token[1]) && token.length > 3) {
-                if ("1".equals(token[2])) {
+            } else if ("TSIRC".equalsIgnoreCase(sParam) && tokenCount > 3) {
+                if ("1".equals(line.getToken(2))) {
                     try {
-                        final long ts = Long.parseLong(token[3]);
+                        final long ts = Long.parseLong(line.getToken(3));
                         tsdiff = ts - System.currentTimeMillis();
                     } catch (final NumberFormatException nfe) { /* Do nothing. */ }
                 }
@@ -1174,10 +1642,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                 if (got001) {
                     // Freenode sends a random notice in a stupid place, others might do aswell
                     // These shouldn't cause post005 to be fired, so handle them here.
-                    if ("NOTICE".equalsIgnoreCase(token[0]) ||
-                            token.length > 2 && "NOTICE".equalsIgnoreCase(token[2])) {
+                    if ("NOTICE".equalsIgnoreCase(command) ||
+                            tokenCount > 2 && "NOTICE".equalsIgnoreCase(line.getToken(2))) {
                         try {
-                            myProcessingManager.process(lineTS, "Notice Auth", token);
+                            myProcessingManager.process(lineTS, "Notice Auth", line);
                         } catch (ProcessorNotFoundException e) {
                             // ???
                         }
@@ -1186,11 +1654,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                     }
 
                     if (!post005) {
-                        try {
-                            nParam = Integer.parseInt(token[1]);
-                        } catch (NumberFormatException e) {
-                            nParam = -1;
-                        }
+                        nParam = ProcessingManager.getNumeric(sParam);
 
                         if (nParam < 0 || nParam > 5) {
                             callPost005();
@@ -1202,18 +1666,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                         }
                     }
                     // After 001 we potentially care about everything!
-                    try {
-                        myProcessingManager.process(lineTS, sParam, token);
-                    } catch (ProcessorNotFoundException e) {
-                        // ???
-                    }
+                    myProcessingManager.tryProcess(lineTS, sParam, line);
                 } else {
                     // Before 001 we don't care about much.
-                    try {
-                        nParam = Integer.parseInt(token[1]);
-                    } catch (NumberFormatException e) {
-                        nParam = -1;
-                    }
+                    nParam = ProcessingManager.getNumeric(sParam);
                     switch (nParam) {
                         case 1: // 001 - Welcome to IRC
                             synchronized (serverInformationLines) {
@@ -1222,35 +1678,30 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                             // Fallthrough
                         case IrcConstants.NUMERIC_ERROR_PASSWORD_MISMATCH:
                         case IrcConstants.NUMERIC_ERROR_NICKNAME_IN_USE:
-                            try {
-                                myProcessingManager.process(lineTS, sParam, token);
-                            } catch (ProcessorNotFoundException e) {
-                            }
+                            myProcessingManager.tryProcess(lineTS, sParam, line);
                             break;
                         default: // Unknown - Send to Notice Auth
                             // Some networks send a CTCP during the auth process, handle it
-                            if (token.length > 3 && !token[3].isEmpty() && token[3].charAt(0) == (char) 1 && token[3].charAt(token[3].length() - 1) == (char) 1) {
-                                try {
-                                    myProcessingManager.process(lineTS, sParam, token);
-                                } catch (ProcessorNotFoundException e) {
-                                }
+                            final String message = tokenCount > 3 ? line.getToken(3) : "";
+                            if (!message.isEmpty() && message.charAt(0) == (char) 1 && message.charAt(message.length() - 1) == (char) 1) {
+                                myProcessingManager.tryProcess(lineTS, sParam, line);
                                 break;
                             }
                             // Some networks may send a NICK message if you nick change before 001
                             // Eat it up so that it isn't treated as a notice auth.
-                            if ("NICK".equalsIgnoreCase(token[1])) {
+                            if ("NICK".equalsIgnoreCase(sParam)) {
                                 break;
                             }
 
                             // CAP also happens here, so try that.
-                            if ("CAP".equalsIgnoreCase(token[1])) {
-                                myProcessingManager.process(lineTS, sParam, token);
+                            if ("CAP".equalsIgnoreCase(sParam)) {
+                                myProcessingManager.process(lineTS, sParam, line);
                                 break;
                             }
 
                             // Otherwise, send to Notice Auth
                             try {
-                                myProcessingManager.process(lineTS, "Notice Auth", token);
+                                myProcessingManager.process(lineTS, "Notice Auth", line);
                             } catch (ProcessorNotFoundException e) {
                             }
                             break;
@@ -1265,7 +1716,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     }
 
     /** The IRCStringConverter for this parser */
-    private IRCStringConverter stringConverter;
+    private volatile IRCStringConverter stringConverter;
 
     @Override
     public IRCStringConverter getStringConverter() {
@@ -1539,48 +1990,57 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                 reversedModes.substring(0, closingIndex));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Channels are packed into as few JOIN lines as will fit within the maximum line length.
+     * If there are too many channels for one line, the remaining lines are sent one at a time
+     * once the output queue has drained. Channels that would exceed the server's CHANLIMIT are
+     * not joined.
+     */
     @Override
     public void joinChannels(final ChannelJoinRequest... channels) {
-        // We store a map from key->channels to allow intelligent joining of
-        // channels using as few JOIN commands as needed.
-        final Map<String, StringBuffer> joinMap = new HashMap<>();
-
+        final List<ChannelJoinRequest> requests = new ArrayList<>(channels.length);
         for (ChannelJoinRequest channel : channels) {
-            // Make sure we have a list to put stuff in.
-            StringBuffer list = joinMap.computeIfAbsent(channel.getPassword(), k -> new StringBuffer());
-
-            // Add the channel to the list. If the name is invalid and
-            // autoprefix is off we will just skip this channel.
-            if (!channel.getName().isEmpty()) {
-                if (list.length() > 0) {
-                    list.append(',');
-                }
-                if (!isValidChannelName(channel.getName())) {
-                    if (chanPrefix.isEmpty()) {
-                        // TODO: This is wrong - empty chan prefix means the
-                        // IRCd supports no channels.
-                        list.append('#');
-                    } else {
-                        list.append(chanPrefix.charAt(0));
-                    }
-                }
-                list.append(channel.getName());
+            // If the name is invalid and autoprefix is off we will just skip this channel.
+            if (channel.getName().isEmpty()) {
+                continue;
+            }
+            if (isValidChannelName(channel.getName())) {
+                requests.add(channel);
+            } else {
+                // TODO: This is wrong - empty chan prefix means the
+                // IRCd supports no channels.
+                final char prefix = chanPrefix.isEmpty() ? '#' : chanPrefix.charAt(0);
+                requests.add(new ChannelJoinRequest(prefix + channel.getName(),
+                        channel.getPassword()));
             }
         }
+        joinScheduler.join(requests);
+    }
 
-        for (Map.Entry<String, StringBuffer> entrySet : joinMap.entrySet()) {
-            final String thisKey = entrySet.getKey();
-            final String channelString = entrySet.getValue().toString();
-            if (!channelString.isEmpty()) {
-                if (thisKey == null || thisKey.isEmpty()) {
-                    sendString("JOIN " + channelString);
-                } else {
-                    sendString("JOIN " + channelString + ' ' + thisKey);
-                }
-            }
+    /**
+     * Requests the list modes for a channel. If JOINs for other channels are still waiting to be
+     * sent, the request is deferred until they have all been sent. The request is then queued
+     * with the {@link ListModeScheduler}.
+     *
+     * @param channel The channel to request list modes for.
+     */
+    public void requestListModes(final IRCChannelInfo channel) {
+        if (!joinScheduler.deferListModes(channel)) {
+            listModeScheduler.request(channel);
         }
     }
 
+    /**
+     * Gets the scheduler used to fetch channels' list modes.
+     *
+     * @return This parser's list mode scheduler.
+     */
+    public ListModeScheduler getListModeScheduler() {
+        return listModeScheduler;
+    }
+
     /**
      * Leave a Channel.
      *
@@ -1722,6 +2182,75 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         sendString("NOTICE " + target, message);
     }
 
+    /**
+     * Sends a message to several targets, using as few lines as the server allows.
+     *
+     * @param targets The targets to send the message to.
+     * @param message The message to send.
+     * @see #getMaxTargets(String)
+     */
+    public void sendMessage(final Collection<String> targets, final String message) {
+        sendMultiTarget("PRIVMSG", "PRIVMSG", targets, message);
+    }
+
+    /**
+     * Sends a notice to several targets, using as few lines as the server allows.
+     *
+     * @param targets The targets to send the notice to.
+     * @param message The notice to send.
+     * @see #getMaxTargets(String)
+     */
+    public void sendNotice(final Collection<String> targets, final String message) {
+        sendMultiTarget("NOTICE", "NOTICE", targets, message);
+    }
+
+    /**
+     * Requests whois information for several users, using as few lines as the server allows.
+     *
+     * @param nicknames The nicknames to look up.
+     * @see #getMaxTargets(String)
+     */
+    public void sendWhois(final Collection<String> nicknames) {
+        sendMultiTarget("WHOIS", "WHOIS", nicknames, "");
+    }
+
+    /**
+     * Kicks several users from a channel, using as few lines as the server allows.
+     *
+     * @param channel The channel to kick the users from.
+     * @param nicknames The nicknames of the users to kick.
+     * @param reason The kick reason, or an empty string for none.
+     * @see #getMaxTargets(String)
+     */
+    public void sendKick(final String channel, final Collection<String> nicknames,
+            final String reason) {
+        sendMultiTarget("KICK", "KICK " + channel, nicknames, reason);
+    }
+
+    /**
+     * Sends a command to several targets, packing as many targets into each line as the server's
+     * target limit and the maximum line length allow.
+     *
+     * @param type The command type, used to look up the target limit.
+     * @param command The command, including any parameters before the targets.
+     * @param targets The targets to send the command to.
+     * @param argument The trailing argument, or an empty string for none.
+     */
+    private void sendMultiTarget(final String type, final String command,
+            final Collection<String> targets, final String argument) {
+        if (targets == null || argument == null) {
+            return;
+        }
+        // Leave room for the ":nick!user@host " prefix the server adds when relaying the line.
+        final Charset charset = out.getCharset();
+        final int prefixLength = myself.isFake() ? 0
+                : TargetPacker.getByteLength(myself.toString(), charset) + 2;
+        for (String line : TargetPacker.pack(command, targets, argument, getMaxTargets(type),
+                MAX_LINELENGTH - prefixLength, charset)) {
+            sendString(line);
+        }
+    }
+
     @Override
     public void sendAction(final String target, final String message) {
         sendCTCP(target, "ACTION", message);
@@ -1784,6 +2313,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             if (rawSocket != null) {
                 rawSocket.close();
             }
+            final NioConnection nioConnection = connection;
+            if (nioConnection != null) {
+                nioConnection.close();
+            }
         } catch (IOException e) {
             /* Do Nothing */
         } finally {
@@ -1900,20 +2433,16 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * Start the pingTimer.
      */
     public void startPingTimer() {
-        pingTimerSem.acquireUninterruptibly();
-
-        try {
+        synchronized (pingTimerLock) {
             setPingNeeded(false);
 
             if (pingTimer != null) {
                 pingTimer.cancel();
             }
 
-            pingTimer = new Timer("IRCParser pingTimer");
-            pingTimer.schedule(new PingTimer(this, pingTimer), 0, getPingTimerInterval());
+            pingTimer = new PingTimer(this);
+            pingTimer.start(timer, getPingTimerInterval());
             pingCountDown = 1;
-        } finally {
-            pingTimerSem.release();
         }
     }
 
@@ -1921,12 +2450,151 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * Stop the pingTimer.
      */
     protected void stopPingTimer() {
-        pingTimerSem.acquireUninterruptibly();
-        if (pingTimer != null) {
-            pingTimer.cancel();
-            pingTimer = null;
+        synchronized (pingTimerLock) {
+            if (pingTimer != null) {
+                pingTimer.cancel();
+                pingTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Sets the timer used to schedule pings and other timeouts. By default all parsers share
+     * {@link HashedWheelTimer#getDefault()}.
+     *
+     * @param timer The timer to use
+     */
+    public void setTimer(final HashedWheelTimer timer) {
+        this.timer = checkNotNull(timer);
+        synchronized (pingTimerLock) {
+            if (pingTimer != null) {
+                startPingTimer();
+            }
         }
-        pingTimerSem.release();
+    }
+
+    /**
+     * Gets the timer used to schedule pings and other timeouts.
+     *
+     * @return The timer in use
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Schedules a one-off task on this parser's timer. When it is due, the task is run by
+     * {@link #execute(Runnable)} rather than on the timer's own thread. If this parser's
+     * task queue is full at that point, the task is retried on a later tick instead of
+     * holding up the timer.
+     *
+     * @param task The task to run
+     * @param delay The delay before running the task
+     * @param unit The unit of the delay
+     * @return A handle which can be used to cancel the task
+     */
+    public HashedWheelTimer.Timeout schedule(final Runnable task, final long delay,
+            final TimeUnit unit) {
+        final TimedTask timedTask = new TimedTask(task);
+        timedTask.setTimeout(timer.scheduleAtFixedRate(timedTask, unit.toNanos(delay),
+                TimeUnit.MILLISECONDS.toNanos(TASK_RETRY_INTERVAL), TimeUnit.NANOSECONDS));
+        return timedTask.timeout;
+    }
+
+    /**
+     * Runs a task for this parser. Tasks run one at a time in the order they were submitted,
+     * on a pool of threads which may be shared with other parsers. If the queue of tasks is
+     * full, this blocks until there is space.
+     *
+     * @param task The task to run
+     * @return True if the task will be run, false if it was rejected
+     */
+    boolean execute(final Runnable task) {
+        try {
+            taskExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            callDebugInfo(DEBUG_INFO, "Unable to run task: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task for this parser if it can be queued without blocking. This should be used
+     * from timer tasks, as the timer thread is shared with every other parser. Nothing is
+     * published from here, as event handlers could block the timer; failures because the
+     * queue was full are counted instead (see {@link #getFullTaskQueueCount()}).
+     *
+     * @param task The task to run
+     * @return True if the task will be run, false if it was dropped
+     */
+    boolean tryExecute(final Runnable task) {
+        try {
+            if (taskExecutor.tryExecute(task)) {
+                return true;
+            }
+            if (!taskExecutor.isShutdown()) {
+                fullTaskQueueCount.incrementAndGet();
+            }
+        } catch (RejectedExecutionException ex) {
+            // The shared pool has gone away, so nothing more can ever run.
+            taskExecutor.shutdown();
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether this parser's tasks can no longer be run, because it (or the pool
+     * its tasks run on) has been shut down.
+     *
+     * @return True if no more tasks will be run
+     */
+    boolean isTaskExecutorShutdown() {
+        return taskExecutor.isShutdown();
+    }
+
+    /**
+     * Gets the number of times a timed task couldn't be queued because this parser's task
+     * queue was full. Such tasks are retried or skipped, rather than holding up the timer.
+     *
+     * @return The number of times the task queue was found to be full
+     */
+    public long getFullTaskQueueCount() {
+        return fullTaskQueueCount.get();
+    }
+
+    /**
+     * Reports an exception thrown by a task run through {@link #execute(Runnable)}.
+     *
+     * @param ex The exception thrown by the task
+     */
+    private void handleTaskError(final RuntimeException ex) {
+        final ParserError ei = new ParserError(ParserError.ERROR_ERROR,
+                "Exception in parser task.", getLastLine());
+        ei.setException(ex);
+        callErrorInfo(ei);
+    }
+
+    /**
+     * Gets how long channel mode changes are batched before being sent automatically.
+     *
+     * @return The delay in milliseconds, or 0 if modes are only sent when a full line has been
+     * queued or {@link IRCChannelInfo#flushModes()} is called.
+     */
+    public long getModeFlushDelay() {
+        return modeFlushDelay;
+    }
+
+    /**
+     * Sets how long channel mode changes are batched before being sent automatically. Mode
+     * changes made within this window are packed into as few lines as possible.
+     *
+     * @param delay The delay, or 0 to only send modes when a full line has been queued or
+     * {@link IRCChannelInfo#flushModes()} is called.
+     * @param unit The unit of the delay
+     */
+    public void setModeFlushDelay(final long delay, final TimeUnit unit) {
+        modeFlushDelay = unit.toMillis(delay);
     }
 
     /**
@@ -1934,17 +2602,17 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * As the timer is restarted on every incomming message, this will only be
      * called when there has been no incomming line for 10 seconds.
      *
-     * @param timer The timer that called this.
+     * @param timer The ping task that called this.
      */
-    protected void pingTimerTask(final Timer timer) {
+    protected void pingTimerTask(final PingTimer timer) {
         // If user no longer wants server ping to be checked, or the socket is
         // closed then cancel the time and do nothing else.
         if (!getCheckServerPing() || getSocketState() != SocketState.OPEN) {
-            pingTimerSem.acquireUninterruptibly();
-            if (pingTimer != null && pingTimer.equals(timer)) {
-                pingTimer.cancel();
+            synchronized (pingTimerLock) {
+                if (pingTimer != null && pingTimer.equals(timer)) {
+                    pingTimer.cancel();
+                }
             }
-            pingTimerSem.release();
 
             return;
         }
@@ -1955,6 +2623,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             --pingCountDown;
             if (pingCountDown < 1) {
                 pingTime = System.currentTimeMillis();
+                pingNanoTime = System.nanoTime();
                 setPingNeeded(true);
                 pingCountDown = getPingTimerFraction();
                 lastPingValue = String.valueOf(System.currentTimeMillis());
@@ -1970,6 +2639,15 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         return serverLag;
     }
 
+    /**
+     * Gets statistics about recent server lag, measured from our pings to the server.
+     *
+     * @return The lag statistics for this parser
+     */
+    public LagStatistics getLagStatistics() {
+        return lagStatistics;
+    }
+
     /**
      * Updates the name of the server that this parser is connected to.
      *
@@ -2063,7 +2741,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param client Client to add
      */
     public void addClient(final IRCClientInfo client) {
-        clientList.put(getStringConverter().toLowerCase(client.getRealNickname()), client);
+        clientList.put(client.getRealNickname(), client);
     }
 
     /**
@@ -2085,7 +2763,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param client Client to remove
      */
     public void forceRemoveClient(final IRCClientInfo client) {
-        clientList.remove(getStringConverter().toLowerCase(client.getRealNickname()));
+        clientList.remove(client.getRealNickname());
     }
 
     /**
@@ -2098,12 +2776,13 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     }
 
     /**
-     * Get the known clients as a collection.
+     * Get the known clients as a collection. The collection is an immutable snapshot, and
+     * doesn't change if clients are added or removed later.
      *
      * @return Known clients as a collection
      */
     public Collection<IRCClientInfo> getClients() {
-        return clientList.values();
+        return clientList.snapshot().values();
     }
 
     /**
@@ -2120,9 +2799,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param channel Channel to add
      */
     public void addChannel(final IRCChannelInfo channel) {
-        synchronized (channelList) {
-            channelList.put(getStringConverter().toLowerCase(channel.getName()), channel);
-        }
+        channelList.put(channel.getName(), channel);
     }
 
     /**
@@ -2131,9 +2808,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param channel Channel to remove
      */
     public void removeChannel(final ChannelInfo channel) {
-        synchronized (channelList) {
-            channelList.remove(getStringConverter().toLowerCase(channel.getName()));
-        }
+        channelList.remove(channel.getName());
     }
 
     /**
@@ -2142,25 +2817,25 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @return Count of known channel
      */
     public int knownChannels() {
-        synchronized (channelList) {
-            return channelList.size();
-        }
+        return channelList.size();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The collection is an immutable snapshot, and doesn't change if channels are added or
+     * removed later.
+     */
     @Override
     public Collection<IRCChannelInfo> getChannels() {
-        synchronized (channelList) {
-            return channelList.values();
-        }
+        return channelList.snapshot().values();
     }
 
     /**
      * Clear the channel list.
      */
     public void clearChannels() {
-        synchronized (channelList) {
-            channelList.clear();
-        }
+        channelList.clear();
     }
 
     @Override
@@ -2186,6 +2861,53 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         return MAX_LINELENGTH;
     }
 
+    /**
+     * Gets the maximum number of targets the server accepts for the given command, as advertised
+     * in the TARGMAX or MAXTARGETS 005 tokens.
+     *
+     * @param command The command to check, for example "PRIVMSG".
+     * @return The maximum number of targets, {@link Integer#MAX_VALUE} if there is no limit, or 1
+     * if the server hasn't said that it accepts more than one target.
+     */
+    public int getMaxTargets(final String command) {
+        final String targmax = h005Info.get(IrcConstants.ISUPPORT_TARGET_MAXIMUMS);
+        if (targmax != null) {
+            // TARGMAX=PRIVMSG:4,NOTICE:4,JOIN:,KICK:1
+            for (String bit : targmax.split(",")) {
+                final String[] parts = bit.split(":", 2);
+                if (parts.length == 2 && parts[0].equalsIgnoreCase(command)) {
+                    return parseMaxTargets(parts[1]);
+                }
+            }
+            return 1;
+        }
+
+        final String maxtargets = h005Info.get(IrcConstants.ISUPPORT_MAXIMUM_TARGETS);
+        if (maxtargets != null && ("PRIVMSG".equalsIgnoreCase(command)
+                || "NOTICE".equalsIgnoreCase(command))) {
+            return parseMaxTargets(maxtargets);
+        }
+
+        return 1;
+    }
+
+    /**
+     * Parses a target limit from a 005 token.
+     *
+     * @param value The value to parse.
+     * @return The limit, {@link Integer#MAX_VALUE} if the value is empty, or 1 if it is invalid.
+     */
+    private static int parseMaxTargets(final String value) {
+        if (value.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+
     @Override
     public void setCompositionState(final String host, final CompositionState state) {
         // Do nothing
@@ -2196,4 +2918,67 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         super.handleSocketDebug(message);
         callDebugInfo(DEBUG_SOCKET, message);
     }
+
+    /**
+     * A handler for outgoing lines with a specific command.
+     */
+    private static class OutgoingLineHandler {
+
+        /** The command handled. */
+        private final String command;
+        /** The handler to call with the tokenised line. */
+        private final Consumer<String[]> handler;
+
+        OutgoingLineHandler(final String command, final Consumer<String[]> handler) {
+            this.command = command;
+            this.handler = handler;
+        }
+
+    }
+
+    /**
+     * A task scheduled with {@link #schedule(Runnable, long, TimeUnit)}. The timer runs it
+     * repeatedly until the task has been handed to the parser's executor, so a full queue
+     * delays the task rather than losing it. Once the executor has been shut down, the task
+     * is cancelled instead.
+     */
+    private class TimedTask implements Runnable {
+
+        /** The task to run. */
+        private final Runnable task;
+        /** The handle for this task's schedule. */
+        private volatile HashedWheelTimer.Timeout timeout;
+        /** Whether the task has been handed to the executor. */
+        private volatile boolean done;
+
+        TimedTask(final Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Sets the handle for this task's schedule, cancelling it if the task has already
+         * been handed over.
+         *
+         * @param timeout The handle for this task's schedule
+         */
+        void setTimeout(final HashedWheelTimer.Timeout timeout) {
+            this.timeout = timeout;
+            if (done) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!done && (tryExecute(task) || isTaskExecutorShutdown())) {
+                done = true;
+                final HashedWheelTimer.Timeout current = timeout;
+                if (current != null) {
+                    current.cancel();
+                }
+            }
+        }
+
+    }
+
 }
@@ -22,6 +22,7 @@
 
 package com.dmdirc.parser.irc;
 
+import com.dmdirc.parser.common.CallbackExecutor;
 import com.dmdirc.parser.common.CallbackManager;
 import com.dmdirc.parser.events.ParserEvent;
 import net.engio.mbassy.bus.IMessagePublication;
@@ -29,6 +30,7 @@ import net.engio.mbassy.bus.config.BusConfiguration;
 import net.engio.mbassy.bus.config.Feature;
 import net.engio.mbassy.bus.error.IPublicationErrorHandler;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -49,6 +51,23 @@ public class IRCParserCallbackManager extends CallbackManager {
                 .addPublicationErrorHandler(errorHandler));
     }
 
+    /**
+     * Creates a new callback manager that invokes asynchronous handlers using a shared
+     * executor, rather than its own thread.
+     *
+     * @param errorHandler The handler to report publication errors to
+     * @param executor The shared executor to invoke asynchronous handlers with
+     */
+    public IRCParserCallbackManager(final IPublicationErrorHandler errorHandler,
+            final CallbackExecutor executor) {
+        this(errorHandler, executor.createSerialExecutor());
+    }
+
+    private IRCParserCallbackManager(final IPublicationErrorHandler errorHandler,
+            final ExecutorService executor) {
+        super(createConfiguration(errorHandler, executor), executor);
+    }
+
     @Override
     public IMessagePublication publishAsync(final ParserEvent message) {
         throw new UnsupportedOperationException("IRCParser does not support publishAsync");
@@ -27,11 +27,10 @@ import com.dmdirc.parser.interfaces.Encoder;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -43,14 +42,22 @@ import java.util.Map;
  */
 public class IRCReader implements Closeable {
 
-    /** Maximum length for an IRC line in bytes. */
-    private static final int LINE_LENGTH = 1024;
+    /** Number of bytes to request from the underlying stream at a time. */
+    private static final int BUFFER_SIZE = 8192;
     /** The input stream to read input from. */
     private final InputStream stream;
+    /** Buffer that data from the stream is read into. */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /** The position of the next unread byte in the buffer. */
+    private int position;
+    /** The number of valid bytes in the buffer. */
+    private int limit;
+    /** The framer used to split the buffered data into lines. */
+    private final LineFramer framer = new LineFramer();
     /** The encoder to use to encode lines. */
     private final Encoder encoder;
-    /** Decoder to use for parts not handled by the encoder. */
-    private final CharsetDecoder decoder;
+    /** Charset to use for parts not handled by the encoder. */
+    private final Charset charset;
 
     /**
      * Creates a new IRCReader which will read from the specified stream.
@@ -75,9 +82,7 @@ public class IRCReader implements Closeable {
             final Charset charset) {
         this.stream = inputStream;
         this.encoder = encoder;
-        this.decoder = charset.newDecoder();
-        this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
-        this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.charset = charset;
     }
 
     /**
@@ -90,61 +95,26 @@ public class IRCReader implements Closeable {
      * underlying stream
      */
     public ReadLine readLine() throws IOException {
-        final byte[] line = new byte[LINE_LENGTH];
-        int offset = 0;
-        int paramOffset = -1;
-        int chr = 0, lastChr = 0;
-
-        boolean hasTags = false;
-        boolean endOfTags = false;
-        boolean hasV3Tags = false;
-        boolean foundFirstSpace = false;
-
-        while (offset < LINE_LENGTH && (chr = stream.read()) > -1) {
-            if (chr == '\r') {
-                continue;
-            } else if (chr == '\n') {
-                // End of the line
-                break;
-            }
-
-            if (hasTags && !endOfTags) {
-                // Tags end either at the first @ for non-v3 tags or space for v3
-                if (offset > 0 && ((chr == '@' && !hasV3Tags) || chr == ' ')) {
-                    endOfTags = true;
-                    hasV3Tags = (chr == ' ');
-                }
-                // If we are still possibly looking at tags, and we find a non-numeric
-                // character, then we probably have v3Tags
-                if (!endOfTags && (chr < '0' || chr > '9')) {
-                    hasV3Tags = true;
+        while (true) {
+            if (position == limit) {
+                final int read = stream.read(buffer, 0, buffer.length);
+                if (read == -1) {
+                    // Hit the end of the stream
+                    return null;
                 }
-            } else if (offset == 0 && chr == '@') {
-                hasTags = true;
-            } else if (offset == 0) {
-                endOfTags = true;
+                position = 0;
+                limit = read;
             }
 
-            line[offset++] = (byte) chr;
+            position += framer.feed(buffer, position, limit - position);
 
-            if (lastChr == ' ' && chr == ':' && paramOffset == -1) {
-                // We've found the last param
-                if (!hasV3Tags || foundFirstSpace) {
-                    paramOffset = offset;
-                } else if (hasV3Tags) {
-                    foundFirstSpace = true;
-                }
+            if (framer.isComplete()) {
+                final ReadLine line = processLine(framer.getLine(), framer.getLength(),
+                        framer.getParamOffset());
+                framer.reset();
+                return line;
             }
-
-            lastChr = chr;
         }
-
-        if (chr == -1) {
-            // Hit the end of the stream
-            return null;
-        }
-
-        return processLine(line, offset, paramOffset);
     }
 
     /**
@@ -158,68 +128,7 @@ public class IRCReader implements Closeable {
      * @return A corresponding {@link ReadLine} instance
      */
     private ReadLine processLine(final byte[] line, final int length, final int paramOffset) {
-        try {
-            final String firstPart = this.decoder.decode(ByteBuffer.wrap(line,
-                    0, paramOffset == -1 ? length : paramOffset - 2)).toString();
-
-            final String[] firstTokens = firstPart.split("[ ]+");
-
-            final String[] tokens;
-            if (paramOffset > -1) {
-                final String source = getSource(firstTokens);
-                final String destination = getDestination(firstTokens);
-
-                final String lastPart = encoder.encode(source, destination,
-                        line, paramOffset, length - paramOffset);
-                tokens = new String[firstTokens.length + 1];
-                System.arraycopy(firstTokens, 0, tokens, 0, firstTokens.length);
-                tokens[firstTokens.length] = lastPart;
-            } else {
-                tokens = firstTokens;
-            }
-
-            return new ReadLine(new String(line, 0, length), tokens);
-        } catch (CharacterCodingException ex) {
-            // Shouldn't happen, as we're replacing errors.
-            return null;
-        }
-    }
-
-    /**
-     * Determines the 'source' of a line made up of the specified tokens. A
-     * source is described by the first token if and only if that token starts
-     * with a colon.
-     *
-     * @param tokens The tokens to extract a source from
-     * @return The relevant source or null if none specified
-     */
-    private String getSource(final String... tokens) {
-        if (tokens.length > 0 && tokens[0].length() > 1 && tokens[0].charAt(0) == ':') {
-            return tokens[0].substring(1);
-        }
-
-        return null;
-    }
-
-    /**
-     * Determines the 'destination' of a line made up of the specified tokens.
-     * A destination exists only if a source exists
-     * (see {@link #getSource(java.lang.String[])}), and is contained within
-     * the third argument for non-numeric lines, and fourth for numerics.
-     *
-     * @param tokens The tokens to extract a destination from
-     * @return The relevant destination or null if none specified
-     */
-    private String getDestination(final String... tokens) {
-        if (tokens.length > 0 && tokens[0].length() >= 3 && tokens[0].charAt(0) == ':') {
-            final int target = tokens[1].matches("^[0-9]+$") ? 3 : 2;
-
-            if (tokens.length > target) {
-                return tokens[target];
-            }
-        }
-
-        return null;
+        return new ReadLine(Arrays.copyOf(line, length), paramOffset, charset, encoder);
     }
 
     @Override
@@ -230,15 +139,44 @@ public class IRCReader implements Closeable {
     /**
      * Represents a line that has been read from the IRC server and encoded
      * appropriately.
+     *
+     * <p>Lines read from the server are backed by the raw bytes that were received, along with
+     * a table of token offsets. Individual tokens are only decoded into strings when they are
+     * requested, and the debug representation of the line is built on demand.
      */
     public static class ReadLine {
 
+        /** The raw bytes of the line, or null if the line was created from tokens. */
+        private final byte[] data;
+        /** The charset used to decode protocol-level tokens. */
+        private final Charset charset;
+        /**
+         * Offsets and lengths of the tokens preceding the trailing parameter, stored as
+         * consecutive pairs. Only populated if the line is backed by raw bytes.
+         */
+        private final int[] bounds;
+        /** The index of the first pair in {@link #bounds} that is a token of the line. */
+        private final int firstBound;
         /** A representation of the read-line using a default encoding. */
-        private final String line;
-        /** The tokens found in the line, individually encoded as appropriate. */
+        private String line;
+        /**
+         * The tokens found in the line, individually encoded as appropriate. For lines backed
+         * by raw bytes, entries are populated the first time they are requested.
+         */
         private final String[] tokens;
-        /** The tags (if any) found in the line, individually encoded as appropriate. */
-        private final Map<String,String> tags = new HashMap<>();
+        /**
+         * The tags (if any) found in the line, individually encoded as appropriate. For lines
+         * backed by raw bytes, this is only populated the first time all tags are requested.
+         */
+        private Map<String,String> tags;
+        /** The offset of the message tags within {@link #data}, or -1 if there are none. */
+        private int tagsOffset = -1;
+        /** The length of the message tags within {@link #data}. */
+        private int tagsLength;
+        /** The offset of the TSIRC timestamp within {@link #data}, or -1 if there is none. */
+        private int tsircOffset = -1;
+        /** The length of the TSIRC timestamp within {@link #data}. */
+        private int tsircLength;
 
         /**
          * Creates a new instance of {@link ReadLine} with the specified line
@@ -249,6 +187,11 @@ public class IRCReader implements Closeable {
          */
         public ReadLine(final String line, final String... lineTokens) {
             this.line = line;
+            this.data = null;
+            this.charset = null;
+            this.bounds = null;
+            this.firstBound = 0;
+            this.tags = new HashMap<>();
 
             // In the case where TSIRC and message tags are used, the TSIRC tag can appear in 1 of 2 places depending
             // on interpretation of the spec - Either right at the start of the line, or as part of the actual message.
@@ -264,6 +207,212 @@ public class IRCReader implements Closeable {
             this.tokens = checkTSIRC(checkMessageTags(checkTSIRC(lineTokens)));
         }
 
+        /**
+         * Creates a new instance of {@link ReadLine} backed by the given raw line.
+         *
+         * @param data The line as read from the wire, excluding any line terminators
+         * @param paramOffset The offset of the first byte of the trailing parameter, or -1 if
+         * no such parameter exists
+         * @param charset The charset to use for protocol-level elements
+         * @param encoder The encoder to use to encode the trailing parameter
+         */
+        ReadLine(final byte[] data, final int paramOffset, final Charset charset,
+                final Encoder encoder) {
+            this.data = data;
+            this.charset = charset;
+
+            final int headLength = paramOffset == -1 ? data.length : paramOffset - 2;
+            int[] headBounds = tokenise(data, headLength);
+            int first = 0;
+
+            // See the String-based constructor for details of the order of these checks.
+            checkTSIRC(headBounds, first);
+            if (first < headBounds.length && headBounds[first + 1] > 0
+                    && data[headBounds[first]] == '@') {
+                tagsOffset = headBounds[first] + 1;
+                tagsLength = headBounds[first + 1] - 1;
+                first += 2;
+                if (first == headBounds.length && paramOffset == -1) {
+                    // The line consisted solely of tags.
+                    headBounds = new int[]{data.length, 0};
+                    first = 0;
+                }
+                checkTSIRC(headBounds, first);
+            }
+
+            this.bounds = headBounds;
+            this.firstBound = first;
+
+            final int headCount = (headBounds.length - first) / 2;
+            if (paramOffset == -1) {
+                tokens = new String[headCount];
+            } else {
+                tokens = new String[headCount + 1];
+                tokens[headCount] = encoder.encode(getSource(headCount),
+                        getDestination(headCount), data, paramOffset,
+                        data.length - paramOffset);
+            }
+        }
+
+        /**
+         * Splits the first {@code length} bytes of the given line into space-separated tokens.
+         * Runs of spaces are treated as a single separator; a leading space results in an
+         * initial empty token. If no tokens are found, a single empty token is returned.
+         *
+         * @param data The line to be tokenised
+         * @param length The number of bytes to consider
+         * @return An array containing pairs of token offsets and lengths
+         */
+        private static int[] tokenise(final byte[] data, final int length) {
+            int count = length > 0 && data[0] == ' ' ? 1 : 0;
+            for (int i = 0; i < length; i++) {
+                if (data[i] != ' ' && (i == 0 || data[i - 1] == ' ')) {
+                    count++;
+                }
+            }
+
+            if (count == 0) {
+                return new int[]{0, 0};
+            }
+
+            final int[] result = new int[count * 2];
+            int index = 0;
+            if (data[0] == ' ') {
+                index += 2;
+            }
+
+            int start = -1;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || data[i] == ' ') {
+                    if (start > -1) {
+                        result[index++] = start;
+                        result[index++] = i - start;
+                        start = -1;
+                    }
+                } else if (start == -1) {
+                    start = i;
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Look for a TSIRC Timestamp at the start of the token described by the given bounds,
+         * and if found records it and strips it from the token.
+         *
+         * @param headBounds The bounds of the tokens in the line
+         * @param index The index in the bounds array of the token to check
+         */
+        private void checkTSIRC(final int[] headBounds, final int index) {
+            if (index >= headBounds.length) {
+                return;
+            }
+
+            final int offset = headBounds[index];
+            final int end = offset + headBounds[index + 1];
+            if (offset < end && data[offset] == '@') {
+                for (int i = offset + 1; i < end; i++) {
+                    if (data[i] == '@') {
+                        if (isNumber(offset + 1, i)) {
+                            tsircOffset = offset + 1;
+                            tsircLength = i - offset - 1;
+                            headBounds[index] = i + 1;
+                            headBounds[index + 1] = end - i - 1;
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Determines whether the specified section of the line contains a number that may be
+         * parsed as a long.
+         *
+         * @param start The offset of the first byte to check
+         * @param end The offset after the last byte to check
+         * @return True if the section is numeric, false otherwise
+         */
+        private boolean isNumber(final int start, final int end) {
+            int offset = start;
+            if (offset < end && (data[offset] == '-' || data[offset] == '+')) {
+                offset++;
+            }
+            if (offset == end || end - offset > 18) {
+                return false;
+            }
+            for (int i = offset; i < end; i++) {
+                if (data[i] < '0' || data[i] > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Determines the 'source' of the line. A source is described by the
+         * first token if and only if that token starts with a colon.
+         *
+         * @param headCount The number of tokens preceding the trailing parameter
+         * @return The relevant source or null if none specified
+         */
+        private String getSource(final int headCount) {
+            if (headCount > 0 && bounds[firstBound + 1] > 1 && data[bounds[firstBound]] == ':') {
+                return decode(bounds[firstBound] + 1, bounds[firstBound + 1] - 1);
+            }
+
+            return null;
+        }
+
+        /**
+         * Determines the 'destination' of the line. A destination exists only if a source
+         * exists (see {@link #getSource(int)}), and is contained within the third argument
+         * for non-numeric lines, and fourth for numerics.
+         *
+         * @param headCount The number of tokens preceding the trailing parameter
+         * @return The relevant destination or null if none specified
+         */
+        private String getDestination(final int headCount) {
+            if (headCount > 1 && bounds[firstBound + 1] >= 3 && data[bounds[firstBound]] == ':') {
+                final int target = isDigits(1) ? 3 : 2;
+
+                if (headCount > target) {
+                    return getToken(target);
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Determines whether the specified token consists entirely of digits.
+         *
+         * @param index The index of the token to check
+         * @return True if the token is non-empty and contains only digits
+         */
+        private boolean isDigits(final int index) {
+            final int offset = bounds[firstBound + index * 2];
+            final int length = bounds[firstBound + index * 2 + 1];
+            for (int i = offset; i < offset + length; i++) {
+                if (data[i] < '0' || data[i] > '9') {
+                    return false;
+                }
+            }
+            return length > 0;
+        }
+
+        /**
+         * Decodes the specified section of the line using the protocol charset.
+         *
+         * @param offset The offset of the first byte to decode
+         * @param length The number of bytes to decode
+         * @return The decoded string
+         */
+        private String decode(final int offset, final int length) {
+            return new String(data, offset, length, charset);
+        }
+
         /**
          * Look for TSIRC Timestamp.
          *
@@ -278,7 +427,7 @@ public class IRCReader implements Closeable {
                 if (tsEnd > -1) {
                     try {
                         final long ts = Long.parseLong(tokens[0].substring(1, tsEnd));
-                        tags.put("tsirc date", tokens[0].substring(1, tsEnd));
+                        tags.put(IrcConstants.TAG_TSIRC_DATE, tokens[0].substring(1, tsEnd));
                         tokens[0] = tokens[0].substring(tsEnd + 1);
                     } catch (final NumberFormatException nfe) { /* Not a timestamp. */ }
                 }
@@ -301,7 +450,8 @@ public class IRCReader implements Closeable {
                 for (final String keyVal : lineTags) {
                     if (!keyVal.isEmpty()) {
                         final String[] keyValue = keyVal.split("=", 2);
-                        tags.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+                        tags.put(keyValue[0],
+                                keyValue.length > 1 ? MessageTags.unescape(keyValue[1]) : "");
                     }
                 }
 
@@ -321,6 +471,9 @@ public class IRCReader implements Closeable {
          * @return A string representation of the line
          */
         public String getLine() {
+            if (line == null) {
+                line = new String(data);
+            }
             return line;
         }
 
@@ -331,16 +484,159 @@ public class IRCReader implements Closeable {
          * @return The line's tokens
          */
         public String[] getTokens() {
+            for (int i = 0; i < tokens.length; i++) {
+                if (tokens[i] == null) {
+                    getToken(i);
+                }
+            }
             return tokens;
         }
 
+        /**
+         * Retrieves the number of tokens in the line.
+         *
+         * @return The number of tokens in the line
+         */
+        public int getTokenCount() {
+            return tokens.length;
+        }
+
+        /**
+         * Retrieves a single token from the line, without decoding any other tokens.
+         *
+         * @param index The index of the token to retrieve
+         * @return The token at the specified index
+         */
+        public String getToken(final int index) {
+            String token = tokens[index];
+            if (token == null) {
+                token = decode(bounds[firstBound + index * 2], bounds[firstBound + index * 2 + 1]);
+                tokens[index] = token;
+            }
+            return token;
+        }
+
         /**
          * Retrieves a map of tags extracted from the specified line.
          *
+         * <p>For lines read from the server, the tags are parsed the first time this method is
+         * called. Where only specific tags are of interest, {@link #getTag(String)} and the
+         * typed accessors should be preferred.
+         *
          * @return The line's tags
          */
         public Map<String,String> getTags() {
+            if (tags == null) {
+                if (tagsOffset == -1 && tsircOffset == -1) {
+                    tags = Collections.emptyMap();
+                } else {
+                    final Map<String, String> lineTags = new HashMap<>();
+                    if (tsircOffset > -1) {
+                        lineTags.put(IrcConstants.TAG_TSIRC_DATE, decode(tsircOffset, tsircLength));
+                    }
+                    if (tagsOffset > -1) {
+                        MessageTags.parse(data, tagsOffset, tagsLength, charset, lineTags);
+                    }
+                    tags = lineTags;
+                }
+            }
             return tags;
         }
+
+        /**
+         * Retrieves the value of a single tag, without parsing any other tags.
+         *
+         * @param key The key of the tag to retrieve
+         * @return The (unescaped) value of the tag, or null if the line does not have the tag
+         */
+        public String getTag(final String key) {
+            if (tags != null) {
+                return tags.get(key);
+            } else if (IrcConstants.TAG_TSIRC_DATE.equals(key)) {
+                return tsircOffset == -1 ? null : decode(tsircOffset, tsircLength);
+            } else if (tagsOffset == -1) {
+                return null;
+            } else {
+                return MessageTags.find(data, tagsOffset, tagsLength, charset, key);
+            }
+        }
+
+        /**
+         * Determines whether the line has the specified tag.
+         *
+         * @param key The key of the tag to look for
+         * @return True if the tag is present, false otherwise
+         */
+        public boolean hasTag(final String key) {
+            return getTag(key) != null;
+        }
+
+        /**
+         * Retrieves the time the line was sent at, according to the IRCv3 server-time tag.
+         *
+         * @return The time as milliseconds since the epoch, or -1 if the line doesn't have a
+         * valid server-time tag
+         */
+        public long getServerTime() {
+            long time = TimestampParser.INVALID;
+            if (tags == null && tagsOffset > -1) {
+                final long position = MessageTags.locate(data, tagsOffset, tagsLength,
+                        IrcConstants.TAG_SERVER_TIME);
+                if (position == -1) {
+                    return -1;
+                }
+                final int start = MessageTags.getStart(position);
+                time = TimestampParser.parseServerTime(data, start,
+                        MessageTags.getEnd(position) - start);
+            }
+            if (time == TimestampParser.INVALID) {
+                // Unusual format (or a line created from tokens); use the slow path.
+                final String value = getTag(IrcConstants.TAG_SERVER_TIME);
+                if (value != null) {
+                    time = TimestampParser.parseServerTime(value);
+                }
+            }
+            return time == TimestampParser.INVALID ? -1 : time;
+        }
+
+        /**
+         * Retrieves the time the line was sent at, according to the TSIRC timestamp.
+         *
+         * @return The time as milliseconds since the epoch (according to the server's clock),
+         * or -1 if the line doesn't have a TSIRC timestamp
+         */
+        public long getTsircDate() {
+            final long time;
+            if (tags == null && data != null) {
+                time = tsircOffset == -1 ? TimestampParser.INVALID
+                        : TimestampParser.parseLong(data, tsircOffset, tsircLength);
+            } else {
+                final String value = getTag(IrcConstants.TAG_TSIRC_DATE);
+                // Lines created from tokens don't have a charset, but the value is ASCII anyway
+                final byte[] bytes = value == null ? null
+                        : value.getBytes(charset == null ? StandardCharsets.UTF_8 : charset);
+                time = bytes == null ? TimestampParser.INVALID
+                        : TimestampParser.parseLong(bytes, 0, bytes.length);
+            }
+            return time == TimestampParser.INVALID ? -1 : time;
+        }
+
+        /**
+         * Retrieves the ID of the message, according to the IRCv3 msgid tag.
+         *
+         * @return The ID of the message, or null if not specified
+         */
+        public String getMessageId() {
+            return getTag(IrcConstants.TAG_MESSAGE_ID);
+        }
+
+        /**
+         * Retrieves the account name of the sender, according to the IRCv3 account-tag tag.
+         *
+         * @return The account name of the sender, or null if not specified
+         */
+        public String getAccount() {
+            return getTag(IrcConstants.TAG_ACCOUNT);
+        }
     }
 }
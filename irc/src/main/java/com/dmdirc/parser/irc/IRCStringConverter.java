@@ -78,28 +78,41 @@ public class IRCStringConverter implements StringConverter {
 
     @Override
     public String toLowerCase(final String input) {
-        final char[] result = input.toCharArray();
+        return convert(input, lowercase);
+    }
+
+    @Override
+    public String toUpperCase(final String input) {
+        return convert(input, uppercase);
+    }
 
-        for (int i = 0; i < input.length(); ++i) {
-            if (result[i] >= 0 && result[i] < lowercase.length) {
-                result[i] = lowercase[result[i]];
-            } else {
-                result[i] = result[i];
+    /**
+     * Converts a string using the given table. If no characters are changed by the conversion,
+     * the input string is returned as-is.
+     *
+     * @param input The string to convert
+     * @param table The table to look characters up in
+     * @return The converted string
+     */
+    private static String convert(final String input, final char[] table) {
+        final int length = input.length();
+        int index = 0;
+        while (index < length) {
+            final char c = input.charAt(index);
+            if (c < table.length && table[c] != c) {
+                break;
             }
+            index++;
         }
 
-        return new String(result);
-    }
+        if (index == length) {
+            return input;
+        }
 
-    @Override
-    public String toUpperCase(final String input) {
         final char[] result = input.toCharArray();
-
-        for (int i = 0; i < input.length(); ++i) {
-            if (result[i] >= 0 && result[i] < uppercase.length) {
-                result[i] = uppercase[result[i]];
-            } else {
-                result[i] = result[i];
+        for (int i = index; i < length; ++i) {
+            if (result[i] < table.length) {
+                result[i] = table[result[i]];
             }
         }
 
@@ -108,33 +121,67 @@ public class IRCStringConverter implements StringConverter {
 
     @Override
     public boolean equalsIgnoreCase(final String first, final String second) {
-        if (first == null && second == null) {
-            return true;
+        if (first == null || second == null) {
+            return first == second;
         }
 
-        if (first == null || second == null) {
-            return false;
+        return first.length() == second.length()
+                && regionMatches(first, 0, second, 0, first.length());
+    }
+
+    @Override
+    public int compareIgnoreCase(final String first, final String second) {
+        final int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; ++i) {
+            final char firstChar = first.charAt(i);
+            final char secondChar = second.charAt(i);
+            if (firstChar != secondChar) {
+                final int difference = toLowerCase(firstChar) - toLowerCase(secondChar);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
         }
 
-        boolean result = first.length() == second.length();
+        return first.length() - second.length();
+    }
 
-        if (result) {
-            final char[] firstChar = first.toCharArray();
-            final char[] secondChar = second.toCharArray();
+    @Override
+    public int hashCodeIgnoreCase(final CharSequence input, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + toLowerCase(input.charAt(i));
+        }
+        return hash;
+    }
 
-            for (int i = 0; i < first.length(); ++i) {
-                if (firstChar[i] < lowercase.length && secondChar[i] < lowercase.length) {
-                    result = lowercase[firstChar[i]] == lowercase[secondChar[i]];
-                } else {
-                    result = firstChar[i] == secondChar[i];
-                }
+    @Override
+    public boolean regionMatches(final CharSequence first, final int firstOffset,
+            final CharSequence second, final int secondOffset, final int length) {
+        if (firstOffset < 0 || secondOffset < 0 || length < 0
+                || firstOffset + length > first.length()
+                || secondOffset + length > second.length()) {
+            return false;
+        }
 
-                if (!result) {
-                    break;
-                }
+        for (int i = 0; i < length; ++i) {
+            final char firstChar = first.charAt(firstOffset + i);
+            final char secondChar = second.charAt(secondOffset + i);
+            if (firstChar != secondChar && toLowerCase(firstChar) != toLowerCase(secondChar)) {
+                return false;
             }
         }
 
-        return result;
+        return true;
+    }
+
+    /**
+     * Gets the lowercase version of a character.
+     *
+     * @param input The character to convert
+     * @return The converted character
+     */
+    private char toLowerCase(final char input) {
+        return input < lowercase.length ? lowercase[input] : input;
     }
 }
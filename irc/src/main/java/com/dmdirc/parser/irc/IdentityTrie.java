@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable map which compares keys by identity.
+ *
+ * <p>Entries are held in a {@link PersistentTrie}, so adding or removing an entry creates a new
+ * map which shares all but the changed path with this one. The entries are flattened into an
+ * array the first time {@link #keys()} or {@link #values()} is used, and the resulting lists are
+ * shared by later callers.
+ *
+ * @param <K> The type of key in the map.
+ * @param <V> The type of value in the map.
+ */
+final class IdentityTrie<K, V> {
+
+    /** The empty map. */
+    private static final IdentityTrie<?, ?> EMPTY = new IdentityTrie<>(null, 0);
+    /** Compares keys by identity. */
+    private static final BiPredicate<Object, Object> IDENTITY = (a, b) -> a == b;
+
+    /** The root of the trie, or null if the map is empty. */
+    @Nullable
+    private final Object root;
+    /** The number of entries. */
+    private final int size;
+    /** The leaves of the trie, in iteration order, once they have been needed. */
+    private volatile Object[] leaves;
+
+    private IdentityTrie(@Nullable final Object root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Gets the empty map.
+     *
+     * @param <K> The type of key in the map.
+     * @param <V> The type of value in the map.
+     * @return An empty map.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> IdentityTrie<K, V> empty() {
+        return (IdentityTrie<K, V>) EMPTY;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key to look up.
+     * @return The value, or null if the key isn't in the map.
+     */
+    @Nullable
+    V get(final Object key) {
+        final Object node = PersistentTrie.locate(root, System.identityHashCode(key));
+        for (int i = 0; i < PersistentTrie.getLeafCount(node); i++) {
+            final PersistentTrie.Leaf<K, V> leaf = PersistentTrie.getLeaf(node, i);
+            if (leaf.getKey() == key) {
+                return leaf.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a map with an entry added or replaced.
+     *
+     * @param key The key to add.
+     * @param value The value for the key.
+     * @return The new map.
+     */
+    IdentityTrie<K, V> with(final K key, final V value) {
+        final PersistentTrie.Change<K, V> change = new PersistentTrie.Change<>();
+        final Object newRoot = PersistentTrie.insert(root, 0,
+                new PersistentTrie.Leaf<>(System.identityHashCode(key), key, value), IDENTITY,
+                change);
+        return new IdentityTrie<>(newRoot, change.getPrevious() == null ? size + 1 : size);
+    }
+
+    /**
+     * Creates a map without the given key.
+     *
+     * @param key The key to remove.
+     * @return The new map, or this map if the key wasn't present.
+     */
+    IdentityTrie<K, V> without(final Object key) {
+        final Object newRoot = PersistentTrie.delete(root, 0, System.identityHashCode(key), key,
+                IDENTITY, new PersistentTrie.Change<>());
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new IdentityTrie<>(newRoot, size - 1);
+    }
+
+    /**
+     * Gets the keys in the map, as an immutable list.
+     *
+     * @return The keys in the map.
+     */
+    List<K> keys() {
+        final Object[] all = getLeaves();
+        return new AbstractList<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public K get(final int index) {
+                return ((Map.Entry<K, V>) all[index]).getKey();
+            }
+
+            @Override
+            public int size() {
+                return all.length;
+            }
+        };
+    }
+
+    /**
+     * Gets the values in the map, as an immutable list in the same order as {@link #keys()}.
+     *
+     * @return The values in the map.
+     */
+    List<V> values() {
+        final Object[] all = getLeaves();
+        return new AbstractList<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public V get(final int index) {
+                return ((Map.Entry<K, V>) all[index]).getValue();
+            }
+
+            @Override
+            public int size() {
+                return all.length;
+            }
+        };
+    }
+
+    /**
+     * Gets the leaves of the trie, flattening it the first time this is called.
+     *
+     * @return The leaves of the trie.
+     */
+    private Object[] getLeaves() {
+        Object[] result = leaves;
+        if (result == null) {
+            result = new Object[size];
+            final Iterator<Map.Entry<K, V>> iterator = new PersistentTrie.LeafIterator<>(root);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = iterator.next();
+            }
+            leaves = result;
+        }
+        return result;
+    }
+
+}
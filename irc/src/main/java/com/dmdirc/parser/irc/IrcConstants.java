@@ -37,6 +37,17 @@ public final class IrcConstants {
     public static final String ISUPPORT_USER_CHANNEL_MODES = "USERCHANMODES";
     public static final String ISUPPORT_USER_MODES = "USERMODES";
     public static final String ISUPPORT_TOPIC_LENGTH = "TOPICLEN";
+    public static final String ISUPPORT_TARGET_MAXIMUMS = "TARGMAX";
+    public static final String ISUPPORT_MAXIMUM_TARGETS = "MAXTARGETS";
+    public static final String ISUPPORT_CHANNEL_LIMIT = "CHANLIMIT";
+    public static final String ISUPPORT_MAXIMUM_CHANNELS = "MAXCHANNELS";
+
+    public static final String TAG_ACCOUNT = "account";
+    public static final String TAG_BATCH = "batch";
+    public static final String TAG_LABEL = "label";
+    public static final String TAG_MESSAGE_ID = "msgid";
+    public static final String TAG_SERVER_TIME = "time";
+    public static final String TAG_TSIRC_DATE = "tsirc date";
 
     public static final int NUMERIC_ERROR_NICKNAME_IN_USE = 433;
     public static final int NUMERIC_ERROR_PASSWORD_MISMATCH = 464;
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.ParserError;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends JOINs for large numbers of channels without flooding the server.
+ *
+ * <p>Channels are packed into JOIN lines that fit within the maximum line length in bytes. The
+ * first line is sent straight away. After that, one line is sent at a time, and the next is
+ * only sent once the output queue has drained, so a long autojoin list is paced by whatever
+ * rate limit the output queue applies. Channels which would
+ * take us over the server's CHANLIMIT are not joined. List mode requests for joined channels are
+ * deferred until all of the JOINs have been sent.
+ */
+final class JoinScheduler {
+
+    /** How long to wait between JOIN lines, in milliseconds. */
+    private static final long STEP_INTERVAL = 1000;
+
+    /** The parser to send JOINs with. */
+    private final IRCParser parser;
+    /** Channels waiting to be joined. */
+    private final Deque<ChannelJoinRequest> pending = new ArrayDeque<>();
+    /** Lower-cased names of channels JOINs have been sent for during this burst. */
+    private final Set<String> sent = new HashSet<>();
+    /** Channels whose list modes will be requested once the burst is over. */
+    private final List<IRCChannelInfo> deferred = new ArrayList<>();
+    /** Whether a step is scheduled on the parser's timer. */
+    private boolean scheduled;
+
+    /**
+     * Creates a new join scheduler.
+     *
+     * @param parser The parser to send JOINs with.
+     */
+    JoinScheduler(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Queues the given channels to be joined. If no other JOINs are waiting, the first line is
+     * sent immediately, even if the output queue is busy.
+     *
+     * @param channels The channels to join. Names must already be valid channel names.
+     */
+    void join(final Collection<ChannelJoinRequest> channels) {
+        synchronized (this) {
+            pending.addAll(channels);
+            if (scheduled) {
+                return;
+            }
+        }
+        step(true);
+    }
+
+    /**
+     * Defers a list mode request for the given channel if JOINs are still waiting to be sent.
+     *
+     * @param channel The channel to request list modes for.
+     * @return True if the request was deferred, false if it should be made now.
+     */
+    synchronized boolean deferListModes(final IRCChannelInfo channel) {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        deferred.add(channel);
+        return true;
+    }
+
+    /**
+     * Determines whether any JOINs are waiting to be sent.
+     *
+     * @return True if there are pending JOINs.
+     */
+    synchronized boolean isBusy() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Discards all pending JOINs and deferred list mode requests.
+     */
+    synchronized void clear() {
+        pending.clear();
+        sent.clear();
+        deferred.clear();
+    }
+
+    /**
+     * Sends the next JOIN line if the output queue has drained, and schedules the next step.
+     *
+     * @param first True if this is the first line of a burst, which is sent without waiting for
+     * the output queue to drain.
+     */
+    private void step(final boolean first) {
+        final String line;
+        final List<IRCChannelInfo> ready;
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) {
+                line = null;
+            } else if (!first && parser.getOutputQueue().queueCount() > 0) {
+                line = null;
+                scheduleStep();
+            } else {
+                line = nextLine();
+            }
+
+            if (pending.isEmpty()) {
+                sent.clear();
+                ready = new ArrayList<>(deferred);
+                deferred.clear();
+            } else {
+                ready = new ArrayList<>();
+                scheduleStep();
+            }
+        }
+
+        if (line != null) {
+            parser.sendString(line);
+        }
+        for (IRCChannelInfo channel : ready) {
+            parser.requestListModes(channel);
+        }
+    }
+
+    /**
+     * Schedules the next step, if one isn't already scheduled.
+     */
+    private void scheduleStep() {
+        if (!scheduled) {
+            scheduled = true;
+            parser.schedule(() -> step(false), STEP_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes as many pending channels as will fit into one JOIN line. Channels with keys are
+     * placed first, so that the keys line up with their channels.
+     *
+     * @return The JOIN line to send, or null if none of the pending channels can be joined.
+     */
+    private String nextLine() {
+        final ChannelLimits limits = new ChannelLimits(
+                parser.h005Info.get(IrcConstants.ISUPPORT_CHANNEL_LIMIT),
+                parser.h005Info.get(IrcConstants.ISUPPORT_MAXIMUM_CHANNELS));
+        sent.forEach(limits::count);
+        for (IRCChannelInfo channel : parser.getChannels()) {
+            final String name = parser.getStringConverter().toLowerCase(channel.getName());
+            if (!sent.contains(name)) {
+                limits.count(name);
+            }
+        }
+
+        final Charset charset = parser.getOutputQueue().getCharset();
+        final List<String> keyedChannels = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        final List<String> channels = new ArrayList<>();
+        // "JOIN " plus the channels and keys, each followed by a comma or space
+        int length = "JOIN ".length() - 1;
+        int keysLength = 0;
+        while (!pending.isEmpty()) {
+            final ChannelJoinRequest request = pending.peekFirst();
+            final String name = request.getName();
+            final String key = request.getPassword() == null ? "" : request.getPassword();
+            final int nameLength = TargetPacker.getByteLength(name, charset);
+            final int keyLength = key.isEmpty() ? 0 : TargetPacker.getByteLength(key, charset) + 1;
+            if (length + nameLength + 1 + keysLength + keyLength > IRCParser.MAX_LINELENGTH
+                    && length > "JOIN ".length() - 1) {
+                break;
+            }
+            pending.pollFirst();
+
+            final String lowerName = parser.getStringConverter().toLowerCase(name);
+            if (sent.contains(lowerName)) {
+                continue;
+            }
+            if (!limits.allows(lowerName)) {
+                parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING,
+                        "Not joining " + name + ": channel limit reached", ""));
+                continue;
+            }
+            limits.count(lowerName);
+            sent.add(lowerName);
+
+            length += nameLength + 1;
+            keysLength += keyLength;
+            if (key.isEmpty()) {
+                channels.add(name);
+            } else {
+                keyedChannels.add(name);
+                keys.add(key);
+            }
+        }
+
+        if (keyedChannels.isEmpty() && channels.isEmpty()) {
+            return null;
+        }
+        keyedChannels.addAll(channels);
+        return "JOIN " + String.join(",", keyedChannels)
+                + (keys.isEmpty() ? "" : ' ' + String.join(",", keys));
+    }
+
+    /**
+     * Tracks how many channels we are in against the limits advertised by the server.
+     */
+    private static final class ChannelLimits {
+
+        /** The prefixes each limit applies to. */
+        private final List<String> prefixes = new ArrayList<>();
+        /** The limit for each group of prefixes. */
+        private final List<Integer> limits = new ArrayList<>();
+        /** The number of channels counted against each limit. */
+        private final List<Integer> counts = new ArrayList<>();
+
+        /**
+         * Creates a new set of limits.
+         *
+         * @param chanlimit The CHANLIMIT value (e.g. "#&:100,+:10"), or null.
+         * @param maxchannels The MAXCHANNELS value, used if there is no CHANLIMIT, or null.
+         */
+        ChannelLimits(final String chanlimit, final String maxchannels) {
+            if (chanlimit != null) {
+                for (String bit : chanlimit.split(",")) {
+                    final String[] parts = bit.split(":", 2);
+                    if (parts.length == 2 && !parts[1].isEmpty()) {
+                        addLimit(parts[0], parts[1]);
+                    }
+                }
+            } else if (maxchannels != null) {
+                addLimit("", maxchannels);
+            }
+        }
+
+        private void addLimit(final String prefixes, final String limit) {
+            try {
+                limits.add(Integer.parseInt(limit));
+                this.prefixes.add(prefixes);
+                counts.add(0);
+            } catch (NumberFormatException ex) {
+                // Ignore invalid limits
+            }
+        }
+
+        /**
+         * Determines whether joining a channel would keep us within the limits.
+         *
+         * @param channel The channel to check.
+         * @return True if the channel can be joined.
+         */
+        boolean allows(final String channel) {
+            final int index = indexOf(channel);
+            return index == -1 || counts.get(index) < limits.get(index);
+        }
+
+        /**
+         * Counts a channel against the limits.
+         *
+         * @param channel The channel to count.
+         */
+        void count(final String channel) {
+            final int index = indexOf(channel);
+            if (index != -1) {
+                counts.set(index, counts.get(index) + 1);
+            }
+        }
+
+        private int indexOf(final String channel) {
+            for (int i = 0; i < prefixes.size(); i++) {
+                final String group = prefixes.get(i);
+                if (group.isEmpty() || !channel.isEmpty() && group.indexOf(channel.charAt(0)) > -1) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of recent server lag measurements.
+ *
+ * <p>The most recent samples are kept in a rolling window, from which the minimum, maximum and
+ * percentiles are calculated. An exponentially weighted moving average is kept over all samples.
+ * All values are measured in nanoseconds, and are 0 until a sample has been recorded.
+ */
+public class LagStatistics {
+
+    /** The number of samples kept in the rolling window. */
+    private static final int WINDOW_SIZE = 128;
+    /** The weight given to each new sample in the moving average. */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /** The most recent samples. */
+    private final long[] window = new long[WINDOW_SIZE];
+    /** The total number of samples recorded. */
+    private long count;
+    /** The most recent sample. */
+    private long latest;
+    /** The moving average of all samples. */
+    private double average;
+
+    /**
+     * Records a new lag measurement.
+     *
+     * @param nanos The measured lag, in nanoseconds
+     */
+    synchronized void record(final long nanos) {
+        window[(int) (count % WINDOW_SIZE)] = nanos;
+        average = count == 0 ? nanos : average + EWMA_WEIGHT * (nanos - average);
+        latest = nanos;
+        count++;
+    }
+
+    /**
+     * Gets the total number of samples recorded.
+     *
+     * @return The number of samples recorded
+     */
+    public synchronized long getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Gets the most recent lag measurement.
+     *
+     * @param unit The unit to return the value in
+     * @return The most recent lag
+     */
+    public synchronized long getLatest(final TimeUnit unit) {
+        return unit.convert(latest, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the exponentially weighted moving average of the lag.
+     *
+     * @param unit The unit to return the value in
+     * @return The average lag
+     */
+    public synchronized long getAverage(final TimeUnit unit) {
+        return unit.convert(Math.round(average), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the smallest lag in the rolling window.
+     *
+     * @param unit The unit to return the value in
+     * @return The minimum recent lag
+     */
+    public long getMinimum(final TimeUnit unit) {
+        return getPercentile(0, unit);
+    }
+
+    /**
+     * Gets the largest lag in the rolling window.
+     *
+     * @param unit The unit to return the value in
+     * @return The maximum recent lag
+     */
+    public long getMaximum(final TimeUnit unit) {
+        return getPercentile(100, unit);
+    }
+
+    /**
+     * Gets the given percentile of the lag in the rolling window, using the nearest-rank method.
+     *
+     * @param percentile The percentile to get, between 0 and 100
+     * @param unit The unit to return the value in
+     * @return The lag at the given percentile
+     */
+    public long getPercentile(final double percentile, final TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        final long[] samples = getSamples();
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        final int rank = (int) Math.ceil(percentile / 100 * samples.length);
+        return unit.convert(samples[Math.max(0, rank - 1)], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the samples in the rolling window, oldest first.
+     *
+     * @return A copy of the recent lag samples, in nanoseconds
+     */
+    public synchronized long[] getSamples() {
+        final int size = (int) Math.min(count, WINDOW_SIZE);
+        final long[] samples = new long[size];
+        final int start = (int) ((count - size) % WINDOW_SIZE);
+        for (int i = 0; i < size; i++) {
+            samples[i] = window[(start + i) % WINDOW_SIZE];
+        }
+        return samples;
+    }
+
+}
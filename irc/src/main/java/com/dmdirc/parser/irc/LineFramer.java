@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+/**
+ * Splits a stream of bytes received from an IRC server into individual lines.
+ *
+ * <p>Bytes are supplied in arbitrarily sized chunks using {@link #feed(byte[], int, int)}, and
+ * are copied into a single reusable line buffer. The framer keeps track of where the trailing
+ * parameter of the line starts, taking into account TSIRC timestamps and IRCv3 message tags, so
+ * that callers do not need to rescan the line.
+ *
+ * <p>Once {@link #isComplete()} returns true the line may be inspected, and must then be
+ * released with {@link #reset()} before any further bytes are fed in. The contents of the line
+ * buffer are only valid until the next call to {@link #reset()}.
+ */
+class LineFramer {
+
+    /** Maximum length for an IRC line in bytes. */
+    static final int LINE_LENGTH = 1024;
+    /** The buffer that the current line is assembled in. */
+    private final byte[] line = new byte[LINE_LENGTH];
+    /** The number of bytes of the current line that have been read. */
+    private int length;
+    /** Offset of the trailing parameter in the current line, or -1 if not found. */
+    private int paramOffset = -1;
+    /** The last byte added to the current line. */
+    private int lastChr;
+    /** Whether the current line is complete. */
+    private boolean complete;
+
+    /** Whether the current line starts with tags. */
+    private boolean hasTags;
+    /** Whether we've reached the end of the tags. */
+    private boolean endOfTags;
+    /** Whether the tags are IRCv3 message tags (as opposed to a TSIRC timestamp). */
+    private boolean hasV3Tags;
+    /** Whether we've seen the space that separates IRCv3 tags from the line. */
+    private boolean foundFirstSpace;
+
+    /**
+     * Feeds a chunk of bytes into the framer. Bytes are consumed until the end of the chunk is
+     * reached or a line is completed, whichever comes first.
+     *
+     * @param data The array containing the bytes to be read
+     * @param offset The offset of the first byte to read
+     * @param count The number of bytes available to read
+     * @return The number of bytes that were consumed
+     */
+    int feed(final byte[] data, final int offset, final int count) {
+        final int limit = offset + count;
+
+        for (int i = offset; i < limit; i++) {
+            if (length >= LINE_LENGTH) {
+                // Over-long lines are split, and the remainder is treated as a new line
+                complete = true;
+                return i - offset;
+            }
+
+            final int chr = data[i] & 0xFF;
+            if (chr == '\r') {
+                continue;
+            } else if (chr == '\n') {
+                complete = true;
+                return i - offset + 1;
+            }
+
+            if (hasTags && !endOfTags) {
+                // Tags end either at the first @ for non-v3 tags or space for v3
+                if (length > 0 && (chr == '@' && !hasV3Tags || chr == ' ')) {
+                    endOfTags = true;
+                    hasV3Tags = chr == ' ';
+                }
+                // If we are still possibly looking at tags, and we find a non-numeric
+                // character, then we probably have v3Tags
+                if (!endOfTags && (chr < '0' || chr > '9')) {
+                    hasV3Tags = true;
+                }
+            } else if (length == 0 && chr == '@') {
+                hasTags = true;
+            } else if (length == 0) {
+                endOfTags = true;
+            }
+
+            line[length++] = (byte) chr;
+
+            if (lastChr == ' ' && chr == ':' && paramOffset == -1) {
+                // We've found the last param
+                if (!hasV3Tags || foundFirstSpace) {
+                    paramOffset = length;
+                } else {
+                    foundFirstSpace = true;
+                }
+            }
+
+            lastChr = chr;
+        }
+
+        if (length >= LINE_LENGTH) {
+            complete = true;
+        }
+        return count;
+    }
+
+    /**
+     * Determines whether a full line has been read.
+     *
+     * @return True if a line is available, false if more bytes are needed
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the buffer containing the current line. Only the first {@link #getLength()} bytes
+     * are part of the line.
+     *
+     * @return The (shared) line buffer
+     */
+    byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the length of the current line, excluding any line terminators.
+     *
+     * @return The length of the line in bytes
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the offset of the first byte of the trailing parameter (i.e., the first byte
+     * following the ASCII sequence ' :').
+     *
+     * @return The offset of the trailing parameter, or -1 if no such parameter exists
+     */
+    int getParamOffset() {
+        return paramOffset;
+    }
+
+    /**
+     * Discards the current line and prepares to read the next one.
+     */
+    void reset() {
+        length = 0;
+        paramOffset = -1;
+        lastChr = 0;
+        complete = false;
+        hasTags = false;
+        endOfTags = false;
+        hasV3Tags = false;
+        foundFirstSpace = false;
+    }
+
+}
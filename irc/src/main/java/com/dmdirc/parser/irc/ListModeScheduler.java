@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.HashedWheelTimer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules requests for channels' list modes, so that only a few channels' lists are being
+ * fetched at any one time.
+ *
+ * <p>Channels are fetched in the order they were requested, except that a channel whose lists
+ * are read with {@link IRCChannelInfo#getListMode(char)} while it is waiting is moved to the
+ * front. In lazy mode, channels aren't fetched when joined at all; instead their lists are
+ * fetched the first time they are read, and are then kept up to date from MODE changes.
+ *
+ * <p>A channel is finished with once an end of list reply (or a refusal) has been received for
+ * each list mode that was requested, or after a timeout if the server doesn't reply.
+ */
+public class ListModeScheduler {
+
+    /** The default maximum number of channels being fetched at once. */
+    private static final int DEFAULT_MAX_OUTSTANDING = 2;
+    /** How long to wait for a channel's lists before giving up on it, in seconds. */
+    private static final long REQUEST_TIMEOUT = 30;
+
+    /** The parser to request list modes with. */
+    private final IRCParser parser;
+    /** Channels waiting to be fetched, in the order they will be fetched. */
+    private final Deque<IRCChannelInfo> waiting = new ArrayDeque<>();
+    /** Channels currently being fetched, and their requests. */
+    private final Map<IRCChannelInfo, Request> outstanding = new HashMap<>();
+    /** The maximum number of channels being fetched at once. */
+    private int maxOutstanding = DEFAULT_MAX_OUTSTANDING;
+    /** Whether lists are only fetched when first read. */
+    private boolean lazy;
+
+    /**
+     * Creates a new list mode scheduler.
+     *
+     * @param parser The parser to request list modes with.
+     */
+    ListModeScheduler(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Gets the maximum number of channels whose lists are fetched at once.
+     *
+     * @return The maximum number of outstanding channels.
+     */
+    public synchronized int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    /**
+     * Sets the maximum number of channels whose lists are fetched at once.
+     *
+     * @param maxOutstanding The maximum number of outstanding channels (at least 1).
+     */
+    public void setMaxOutstanding(final int maxOutstanding) {
+        synchronized (this) {
+            this.maxOutstanding = Math.max(1, maxOutstanding);
+        }
+        pump();
+    }
+
+    /**
+     * Determines whether lists are only fetched when they are first read.
+     *
+     * @return True if lazy fetching is enabled.
+     */
+    public synchronized boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets whether lists are only fetched when they are first read, instead of when channels
+     * are joined.
+     *
+     * @param lazy True to enable lazy fetching.
+     */
+    public synchronized void setLazy(final boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Gets the number of channels waiting for their lists to be fetched.
+     *
+     * @return The number of waiting channels.
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Gets the number of channels whose lists are currently being fetched.
+     *
+     * @return The number of outstanding channels.
+     */
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * Queues a channel to have its list modes fetched.
+     *
+     * @param channel The channel to fetch.
+     */
+    public void request(final IRCChannelInfo channel) {
+        synchronized (this) {
+            if (!waiting.contains(channel) && !outstanding.containsKey(channel)) {
+                waiting.addLast(channel);
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Called when a channel's list modes are read. Moves the channel to the front of the queue
+     * if it is waiting, or queues it at the front if lazy fetching is enabled and its lists
+     * haven't been requested yet.
+     *
+     * @param channel The channel being read.
+     */
+    void accessed(final IRCChannelInfo channel) {
+        synchronized (this) {
+            if (waiting.remove(channel)) {
+                waiting.addFirst(channel);
+            } else if (lazy && !channel.hasAskedForListModes()
+                    && !outstanding.containsKey(channel)) {
+                waiting.addFirst(channel);
+            } else {
+                return;
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Called when all of a channel's list modes have been received, or the server has refused
+     * to send them. The next waiting channel is then fetched.
+     *
+     * @param channel The channel which has been fetched.
+     */
+    public void complete(final IRCChannelInfo channel) {
+        final Request request;
+        synchronized (this) {
+            request = outstanding.get(channel);
+        }
+        if (request != null) {
+            finish(request);
+        }
+    }
+
+    /**
+     * Called when the end of one of a channel's lists has been received. Once every requested
+     * list has ended, the next waiting channel is fetched.
+     *
+     * @param channel The channel whose list has ended.
+     * @param mode The mode of the list which has ended.
+     */
+    public void listEnded(final IRCChannelInfo channel, final char mode) {
+        final Request request;
+        synchronized (this) {
+            request = outstanding.get(channel);
+            if (request == null) {
+                return;
+            }
+            // Some servers send several lists with the same numerics, so an unexpected mode
+            // is counted against the oldest list still outstanding.
+            final boolean removed = request.modes.remove(mode)
+                    || request.modes.pollFirst() != null;
+            if (!removed || !request.modes.isEmpty()) {
+                return;
+            }
+        }
+        finish(request);
+    }
+
+    /**
+     * Called when the server has refused to send one of a channel's lists. This is counted
+     * against the oldest list still outstanding for the channel.
+     *
+     * @param channel The channel whose list was refused.
+     */
+    public void listRefused(final IRCChannelInfo channel) {
+        final Request request;
+        synchronized (this) {
+            request = outstanding.get(channel);
+            if (request == null || request.modes.pollFirst() == null
+                    || !request.modes.isEmpty()) {
+                return;
+            }
+        }
+        finish(request);
+    }
+
+    /**
+     * Discards all waiting and outstanding requests.
+     */
+    public synchronized void clear() {
+        outstanding.values().forEach(request -> request.timeout.cancel());
+        outstanding.clear();
+        waiting.clear();
+    }
+
+    /**
+     * Finishes with a request, if it is still outstanding, and fetches the next waiting
+     * channel.
+     *
+     * @param request The request which has finished.
+     */
+    private void finish(final Request request) {
+        synchronized (this) {
+            if (!outstanding.remove(request.channel, request)) {
+                return;
+            }
+            request.timeout.cancel();
+        }
+        pump();
+    }
+
+    /**
+     * Requests list modes for as many waiting channels as the limit allows.
+     */
+    private void pump() {
+        final List<Request> ready = new ArrayList<>();
+        synchronized (this) {
+            while (outstanding.size() < maxOutstanding && !waiting.isEmpty()) {
+                final IRCChannelInfo channel = waiting.pollFirst();
+                if (parser.getChannel(channel.getName()) == channel) {
+                    final Request request = new Request(channel);
+                    request.timeout = parser.schedule(() -> finish(request),
+                            REQUEST_TIMEOUT, TimeUnit.SECONDS);
+                    outstanding.put(channel, request);
+                    ready.add(request);
+                }
+            }
+        }
+
+        for (Request request : ready) {
+            request.channel.requestListModes(request.modes);
+            if (request.modes.isEmpty()) {
+                // Nothing was requested (or everything has already been received).
+                finish(request);
+            }
+        }
+    }
+
+    /**
+     * A request for a channel's list modes.
+     */
+    private static class Request {
+
+        /** The channel being fetched. */
+        private final IRCChannelInfo channel;
+        /** The list modes that have been requested, and have not yet ended. */
+        private final Deque<Character> modes = new ConcurrentLinkedDeque<>();
+        /** The timeout after which the request is abandoned. */
+        private HashedWheelTimer.Timeout timeout;
+
+        /**
+         * Creates a new request.
+         *
+         * @param channel The channel being fetched.
+         */
+        Request(final IRCChannelInfo channel) {
+            this.channel = channel;
+        }
+
+    }
+
+}
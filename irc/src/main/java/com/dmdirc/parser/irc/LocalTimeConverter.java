@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Converts epoch-based timestamps into {@link LocalDateTime}s in a fixed time zone.
+ *
+ * <p>The zone's offset is cached along with the period for which it is valid, so converting
+ * a timestamp normally only needs a range check rather than a lookup in the zone rules.
+ */
+class LocalTimeConverter {
+
+    /** The rules of the zone to convert times into. */
+    private final ZoneRules rules;
+    /** The offset that applies between {@link #validFrom} and {@link #validUntil}. */
+    private ZoneOffset offset;
+    /** The first epoch millisecond that the cached offset applies to (inclusive). */
+    private long validFrom = Long.MAX_VALUE;
+    /** The last epoch millisecond that the cached offset applies to (exclusive). */
+    private long validUntil = Long.MIN_VALUE;
+
+    /**
+     * Creates a new converter for the given zone.
+     *
+     * @param zone The zone to convert times into
+     */
+    LocalTimeConverter(final ZoneId zone) {
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * Converts the given time into a local date and time.
+     *
+     * @param epochMillis The time in milliseconds since the epoch
+     * @return The corresponding local date and time
+     */
+    LocalDateTime toLocalDateTime(final long epochMillis) {
+        final ZoneOffset zoneOffset = getOffset(epochMillis);
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000L),
+                (int) Math.floorMod(epochMillis, 1000L) * 1000000, zoneOffset);
+    }
+
+    /**
+     * Gets the current local date and time.
+     *
+     * @return The current local date and time
+     */
+    LocalDateTime now() {
+        return toLocalDateTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the offset that applies at the given time, updating the cache if required.
+     *
+     * @param epochMillis The time in milliseconds since the epoch
+     * @return The zone offset at that time
+     */
+    private synchronized ZoneOffset getOffset(final long epochMillis) {
+        if (epochMillis < validFrom || epochMillis >= validUntil) {
+            if (rules.isFixedOffset()) {
+                offset = rules.getOffset(Instant.EPOCH);
+                validFrom = Long.MIN_VALUE;
+                validUntil = Long.MAX_VALUE;
+            } else {
+                final Instant instant = Instant.ofEpochMilli(epochMillis);
+                final ZoneOffsetTransition previous = getTransitionAtOrBefore(instant);
+                final ZoneOffsetTransition next = rules.nextTransition(instant);
+                offset = rules.getOffset(instant);
+                validFrom = previous == null ? Long.MIN_VALUE
+                        : previous.getInstant().toEpochMilli();
+                validUntil = next == null ? Long.MAX_VALUE : next.getInstant().toEpochMilli();
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the last transition at or before the given instant. Unlike
+     * {@link ZoneRules#previousTransition(Instant)}, this includes a transition at exactly the
+     * given instant.
+     *
+     * @param instant The instant to check
+     * @return The transition, or null if there is none
+     */
+    private ZoneOffsetTransition getTransitionAtOrBefore(final Instant instant) {
+        final ZoneOffsetTransition next = rules.nextTransition(instant.minusMillis(1));
+        if (next != null && !next.getInstant().isAfter(instant)) {
+            return next;
+        }
+        return rules.previousTransition(instant);
+    }
+
+}
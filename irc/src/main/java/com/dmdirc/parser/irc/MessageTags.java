@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Utility methods for reading IRCv3 message tags directly from the bytes of a received line.
+ *
+ * <p>Tags are expected in the form {@code key=value;key2;key3=value3} (without the leading
+ * '@'). Values are unescaped as described in the IRCv3 message-tags specification, and the
+ * names of commonly used tags are interned so that parsing them does not allocate new keys.
+ */
+final class MessageTags {
+
+    /** Well-known tag keys, which are reused rather than decoded for every line. */
+    private static final String[] KNOWN_KEYS = {
+        IrcConstants.TAG_SERVER_TIME,
+        IrcConstants.TAG_MESSAGE_ID,
+        IrcConstants.TAG_ACCOUNT,
+        IrcConstants.TAG_BATCH,
+        IrcConstants.TAG_LABEL,
+    };
+
+    private MessageTags() {
+        // Shouldn't be instantiated.
+    }
+
+    /**
+     * Parses all tags in the given section of a line into the given map.
+     *
+     * @param data The line containing the tags
+     * @param offset The offset of the first byte of the tags
+     * @param length The length of the tags in bytes
+     * @param charset The charset to decode keys and values with
+     * @param tags The map to add the tags to
+     */
+    static void parse(final byte[] data, final int offset, final int length,
+            final Charset charset, final Map<String, String> tags) {
+        final int end = offset + length;
+        int start = offset;
+        int equals = -1;
+        for (int i = offset; i <= end; i++) {
+            if (i == end || data[i] == ';') {
+                if (i > start) {
+                    final int keyEnd = equals == -1 ? i : equals;
+                    tags.put(getKey(data, start, keyEnd, charset),
+                            equals == -1 ? "" : getValue(data, equals + 1, i, charset));
+                }
+                start = i + 1;
+                equals = -1;
+            } else if (data[i] == '=' && equals == -1) {
+                equals = i;
+            }
+        }
+    }
+
+    /**
+     * Finds the value of a single tag in the given section of a line, without parsing any
+     * other tags.
+     *
+     * @param data The line containing the tags
+     * @param offset The offset of the first byte of the tags
+     * @param length The length of the tags in bytes
+     * @param charset The charset to decode the value with
+     * @param key The key of the tag to find
+     * @return The value of the tag (which may be empty), or null if the tag isn't present
+     */
+    static String find(final byte[] data, final int offset, final int length,
+            final Charset charset, final String key) {
+        final long position = locate(data, offset, length, key);
+        return position == -1 ? null
+                : getValue(data, getStart(position), getEnd(position), charset);
+    }
+
+    /**
+     * Finds the raw (still escaped) value of a single tag in the given section of a line.
+     *
+     * @param data The line containing the tags
+     * @param offset The offset of the first byte of the tags
+     * @param length The length of the tags in bytes
+     * @param key The key of the tag to find
+     * @return The start and end offsets of the value, packed into a long for use with
+     * {@link #getStart(long)} and {@link #getEnd(long)}, or -1 if the tag isn't present
+     */
+    static long locate(final byte[] data, final int offset, final int length,
+            final String key) {
+        final int end = offset + length;
+        long result = -1;
+        int start = offset;
+        while (start < end) {
+            int next = start;
+            while (next < end && data[next] != ';') {
+                next++;
+            }
+
+            final int keyEnd = start + key.length();
+            if (keyEnd <= next && (keyEnd == next || data[keyEnd] == '=')
+                    && matches(data, start, key)) {
+                // Keep looking in case the key is repeated; the last value wins.
+                final int valueStart = keyEnd == next ? next : keyEnd + 1;
+                result = (long) valueStart << 32 | next;
+            }
+            start = next + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the start offset from a position returned by {@link #locate}.
+     *
+     * @param position The packed position of a value
+     * @return The offset of the first byte of the value
+     */
+    static int getStart(final long position) {
+        return (int) (position >>> 32);
+    }
+
+    /**
+     * Gets the end offset from a position returned by {@link #locate}.
+     *
+     * @param position The packed position of a value
+     * @return The offset after the last byte of the value
+     */
+    static int getEnd(final long position) {
+        return (int) position;
+    }
+
+    /**
+     * Unescapes a tag value according to the IRCv3 message-tags specification.
+     *
+     * @param value The escaped value
+     * @return The unescaped value
+     */
+    static String unescape(final String value) {
+        final int first = value.indexOf('\\');
+        if (first == -1) {
+            return value;
+        }
+
+        final StringBuilder builder = new StringBuilder(value.length());
+        builder.append(value, 0, first);
+        for (int i = first; i < value.length(); i++) {
+            final char chr = value.charAt(i);
+            if (chr != '\\') {
+                builder.append(chr);
+            } else if (++i < value.length()) {
+                final char escaped = value.charAt(i);
+                switch (escaped) {
+                    case ':':
+                        builder.append(';');
+                        break;
+                    case 's':
+                        builder.append(' ');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    default:
+                        // Includes '\\', and any invalid escapes which just drop the slash.
+                        builder.append(escaped);
+                        break;
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the key in the given range, reusing a well-known instance if possible.
+     */
+    private static String getKey(final byte[] data, final int start, final int end,
+            final Charset charset) {
+        for (String known : KNOWN_KEYS) {
+            if (known.length() == end - start && matches(data, start, known)) {
+                return known;
+            }
+        }
+        return new String(data, start, end - start, charset);
+    }
+
+    /**
+     * Decodes and unescapes the value in the given range.
+     */
+    private static String getValue(final byte[] data, final int start, final int end,
+            final Charset charset) {
+        return unescape(new String(data, start, end - start, charset));
+    }
+
+    /**
+     * Determines whether the bytes at the given offset match the given (ASCII) string.
+     */
+    private static boolean matches(final byte[] data, final int offset, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (data[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
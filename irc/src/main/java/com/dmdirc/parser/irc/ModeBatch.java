@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Accumulates mode changes for a target and sends them in as few MODE lines as possible.
+ *
+ * <p>Changes are packed up to the server's MODES limit and the maximum line length in bytes. A
+ * change that reverses one already waiting to be sent cancels it out, and a change that is
+ * already waiting is ignored. Pending changes are sent when a full line has been accumulated, when
+ * {@link #flush()} is called, or after the parser's mode flush delay if one is set.
+ */
+final class ModeBatch {
+
+    /** The parser to send modes with. */
+    private final IRCParser parser;
+    /** The target of the mode changes. */
+    private final String target;
+    /** Pending changes, keyed by mode and parameter, in the order they were made. */
+    private final Map<String, Change> changes = new LinkedHashMap<>();
+    /** The MODES value that {@link #modesPerLine} was parsed from. */
+    @Nullable private String lastModes;
+    /** The maximum number of mode changes per line, with or without parameters. */
+    private int modesPerLine = 1;
+    /** Whether a timed flush is scheduled. */
+    private boolean flushScheduled;
+
+    /**
+     * Creates a new mode batch.
+     *
+     * @param parser The parser to send modes with.
+     * @param target The target of the mode changes.
+     */
+    ModeBatch(final IRCParser parser, final String target) {
+        this.parser = parser;
+        this.target = target;
+    }
+
+    /**
+     * Adds a mode change to the batch.
+     *
+     * @param add Whether the mode is being added or removed.
+     * @param mode The mode being changed.
+     * @param parameter The parameter for the mode, or null if it doesn't take one.
+     */
+    void add(final boolean add, final char mode, @Nullable final String parameter) {
+        final List<String> lines;
+        synchronized (this) {
+            final String key = parameter == null ? String.valueOf(mode)
+                    : mode + " " + parser.getStringConverter().toLowerCase(parameter);
+            final Change existing = changes.get(key);
+            if (existing != null) {
+                if (existing.add != add) {
+                    changes.remove(key);
+                }
+                return;
+            }
+
+            parser.callDebugInfo(IRCParser.DEBUG_INFO, "Queueing mode: %s%s%s", add ? '+' : '-',
+                    mode, parameter == null ? "" : ' ' + parameter);
+            changes.put(key, new Change(add, mode, parameter));
+            if (changes.size() >= getModesPerLine()) {
+                lines = drain();
+            } else {
+                scheduleFlush();
+                lines = Collections.emptyList();
+            }
+        }
+        send(lines);
+    }
+
+    /**
+     * Sends all pending changes.
+     */
+    void flush() {
+        final List<String> lines;
+        synchronized (this) {
+            lines = drain();
+        }
+        send(lines);
+    }
+
+    /**
+     * Discards all pending changes without sending them.
+     */
+    synchronized void clear() {
+        changes.clear();
+    }
+
+    /**
+     * Gets the number of pending changes.
+     *
+     * @return The number of changes waiting to be sent.
+     */
+    synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * Gets the maximum number of modes per line, re-parsing the MODES 005 token only if it has
+     * changed.
+     *
+     * @return The maximum number of modes per line.
+     */
+    private int getModesPerLine() {
+        final String modes = parser.h005Info.get("MODES");
+        if (modes != lastModes) {
+            lastModes = modes;
+            modesPerLine = 1;
+            if (modes != null) {
+                try {
+                    modesPerLine = Math.max(1, Integer.parseInt(modes));
+                } catch (NumberFormatException e) {
+                    if (parser.getServerType() == ServerType.OTHERNET) {
+                        modesPerLine = 6;
+                    }
+                }
+            }
+        }
+        return modesPerLine;
+    }
+
+    /**
+     * Schedules a flush after the parser's mode flush delay, if one is set and a flush isn't
+     * already scheduled.
+     */
+    private void scheduleFlush() {
+        final long delay = parser.getModeFlushDelay();
+        if (delay > 0 && !flushScheduled) {
+            flushScheduled = true;
+            parser.schedule(this::timedFlush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called when a scheduled flush is due.
+     */
+    private void timedFlush() {
+        synchronized (this) {
+            flushScheduled = false;
+        }
+        flush();
+    }
+
+    /**
+     * Removes all pending changes and packs them into lines.
+     *
+     * @return The mode strings to send, without the "MODE target" prefix.
+     */
+    private List<String> drain() {
+        if (changes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final int maxModes = getModesPerLine();
+        final Charset charset = parser.getOutputQueue().getCharset();
+        final int maxLength = IRCParser.MAX_LINELENGTH - "MODE ".length()
+                - TargetPacker.getByteLength(target, charset) - 1;
+        final List<String> lines = new ArrayList<>();
+        final Line line = new Line(charset);
+        final Iterator<Change> iterator = changes.values().iterator();
+        while (iterator.hasNext()) {
+            final Change change = iterator.next();
+            if (line.count > 0 && (line.count >= maxModes
+                    || line.getLengthWith(change) > maxLength)) {
+                lines.add(line.toString());
+                line.reset();
+            }
+            line.add(change);
+            iterator.remove();
+        }
+        lines.add(line.toString());
+        return lines;
+    }
+
+    /**
+     * Sends the given mode strings.
+     *
+     * @param lines The mode strings to send.
+     */
+    private void send(final List<String> lines) {
+        for (String line : lines) {
+            parser.callDebugInfo(IRCParser.DEBUG_INFO, "Sending mode: %s", line);
+            parser.sendRawMessage("MODE " + target + ' ' + line);
+        }
+    }
+
+    /**
+     * A single mode change.
+     */
+    private static final class Change {
+
+        /** Whether the mode is being added. */
+        private final boolean add;
+        /** The mode being changed. */
+        private final char mode;
+        /** The mode's parameter, if any. */
+        @Nullable private final String parameter;
+
+        Change(final boolean add, final char mode, @Nullable final String parameter) {
+            this.add = add;
+            this.mode = mode;
+            this.parameter = parameter;
+        }
+
+    }
+
+    /**
+     * A mode line being built, with removals before additions.
+     */
+    private static final class Line {
+
+        /** The charset the line will be encoded with. */
+        private final Charset charset;
+        private final StringBuilder negativeModes = new StringBuilder();
+        private final StringBuilder negativeParams = new StringBuilder();
+        private final StringBuilder positiveModes = new StringBuilder();
+        private final StringBuilder positiveParams = new StringBuilder();
+        /** The encoded length of the parameters, including their separating spaces. */
+        private int paramLength;
+        /** The number of changes on the line. */
+        private int count;
+
+        Line(final Charset charset) {
+            this.charset = charset;
+        }
+
+        void add(final Change change) {
+            (change.add ? positiveModes : negativeModes).append(change.mode);
+            if (change.parameter != null) {
+                (change.add ? positiveParams : negativeParams).append(' ').append(change.parameter);
+                paramLength += getParameterLength(change);
+            }
+            count++;
+        }
+
+        /**
+         * Gets the encoded length the line would have if the given change were added.
+         *
+         * @param change The change that may be added.
+         * @return The encoded length of the line, in bytes.
+         */
+        int getLengthWith(final Change change) {
+            int length = negativeModes.length() + positiveModes.length() + paramLength + 1;
+            if (negativeModes.length() > 0 || !change.add) {
+                length++;
+            }
+            if (positiveModes.length() > 0 || change.add) {
+                length++;
+            }
+            if (change.parameter != null) {
+                length += getParameterLength(change);
+            }
+            return length;
+        }
+
+        /**
+         * Gets the encoded length of a change's parameter, including the space before it.
+         */
+        private int getParameterLength(final Change change) {
+            return TargetPacker.getByteLength(change.parameter, charset) + 1;
+        }
+
+        void reset() {
+            negativeModes.setLength(0);
+            negativeParams.setLength(0);
+            positiveModes.setLength(0);
+            positiveParams.setLength(0);
+            paramLength = 0;
+            count = 0;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            if (negativeModes.length() > 0) {
+                builder.append('-').append(negativeModes);
+            }
+            if (positiveModes.length() > 0) {
+                builder.append('+').append(positiveModes);
+            }
+            return builder.append(negativeParams).append(positiveParams).toString();
+        }
+
+    }
+
+}
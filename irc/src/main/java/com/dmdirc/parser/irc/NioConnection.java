@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.interfaces.Encoder;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * A non-blocking connection to an IRC server, serviced by a {@link SelectorPool}.
+ *
+ * <p>Data read from the channel is (optionally) decrypted, framed into lines with a
+ * {@link LineFramer}, and handed to the owning {@link IRCParser}'s task executor, so the
+ * selector thread never waits for lines to be processed. If too many lines are waiting to be
+ * processed, the connection stops reading until the parser catches up.
+ *
+ * <p>Data written to the connection's {@link #getOutputStream() output stream} is written
+ * immediately if the socket can accept it, and otherwise buffered until the selector reports
+ * that it is writable. Once too much data is buffered, the connection reports that it is
+ * {@link #isWritable() not writable} so that the parser's output queue holds back further
+ * lines, and writes beyond a hard limit fail.
+ */
+class NioConnection {
+
+    /** Size of the buffers used for reading from the channel. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /** Empty buffer used when wrapping handshake data. */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    /** Number of received events waiting to be handled at which reading is paused. */
+    private static final int MAX_RECEIVED = 1024;
+    /** Number of received events waiting to be handled at which reading is resumed. */
+    private static final int RESUME_RECEIVED = MAX_RECEIVED / 2;
+    /** Maximum number of received events to handle in a single parser task. */
+    private static final int RECEIVE_BATCH_SIZE = 64;
+    /** Number of buffered bytes above which the connection is not writable. */
+    private static final int MAX_WRITABLE_BYTES = 64 * 1024;
+    /** Number of buffered bytes above which writes fail. */
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    /** The parser that owns this connection. */
+    private final IRCParser parser;
+    /** The channel to the server. */
+    private final SocketChannel channel;
+    /** The engine used to encrypt the connection, or null for plaintext connections. */
+    @Nullable private final SSLEngine engine;
+    /** The framer used to split incoming data into lines. */
+    private final LineFramer framer = new LineFramer();
+    /** The encoder to use to encode lines. */
+    private final Encoder encoder;
+    /** Charset to use for parts not handled by the encoder. */
+    private final Charset charset;
+    /** Lock used for writing to the channel, wrapping data and updating interest ops. */
+    private final Object writeLock = new Object();
+    /** Buffers waiting to be written to the channel. */
+    private final Deque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    /** Total number of bytes remaining in {@link #pendingWrites}. */
+    private volatile int pendingBytes;
+    /** Lines and other events waiting to be handled by the parser, in the order received. */
+    private final Queue<Runnable> received = new ConcurrentLinkedQueue<>();
+    /** Number of events in {@link #received}. */
+    private final AtomicInteger receivedCount = new AtomicInteger();
+    /** Whether a task to handle {@link #received} events is queued or running. */
+    private final AtomicBoolean handling = new AtomicBoolean();
+    /** Whether reading has been paused until the parser catches up. */
+    private volatile boolean readPaused;
+    /** Stream that writes to this connection. */
+    private final OutputStream outputStream = new ConnectionOutputStream();
+    /** Data read from the channel, which may still need to be decrypted. */
+    private ByteBuffer netIn;
+    /** Decrypted data read from the channel. */
+    private ByteBuffer appIn;
+    /** Buffer used to hold data encrypted by the SSL engine. */
+    private ByteBuffer netOut;
+    /** The key registered with the selector. */
+    private volatile SelectionKey key;
+    /** Whether the connection has been established (including any SSL handshake). */
+    private boolean connected;
+    /** Whether the connection has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new connection.
+     *
+     * @param parser The parser that owns this connection
+     * @param channel The (unconnected) channel to the server
+     * @param engine The SSL engine to use, or null for a plaintext connection
+     * @param encoder The encoder to use to encode lines
+     * @param charset The charset to use for protocol-level elements
+     */
+    NioConnection(final IRCParser parser, final SocketChannel channel,
+            @Nullable final SSLEngine engine, final Encoder encoder, final Charset charset) {
+        this.parser = parser;
+        this.channel = channel;
+        this.engine = engine;
+        this.encoder = encoder;
+        this.charset = charset;
+
+        if (engine == null) {
+            netIn = ByteBuffer.allocate(BUFFER_SIZE);
+            appIn = netIn;
+        } else {
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(Math.max(BUFFER_SIZE,
+                    engine.getSession().getApplicationBufferSize()));
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    /**
+     * Starts connecting to the given address.
+     *
+     * @param pool The selector pool to service the connection
+     * @param address The address to connect to
+     * @throws IOException If the connection can't be started
+     */
+    void connect(final SelectorPool pool, final InetSocketAddress address) throws IOException {
+        channel.configureBlocking(false);
+        if (channel.connect(address)) {
+            pool.register(this, channel, SelectionKey.OP_READ);
+            finishConnect();
+        } else {
+            pool.register(this, channel, SelectionKey.OP_CONNECT);
+        }
+    }
+
+    /**
+     * Sets the key registered for this connection. Called on the selector thread.
+     *
+     * @param key The registered key
+     */
+    void setKey(final SelectionKey key) {
+        this.key = key;
+        if (closed) {
+            key.cancel();
+        }
+    }
+
+    /**
+     * Gets a stream which can be used to write to this connection.
+     *
+     * @return An output stream for this connection
+     */
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Determines whether the connection can accept more data without buffering too much.
+     *
+     * @return True if more data may be written
+     */
+    boolean isWritable() {
+        return pendingBytes < MAX_WRITABLE_BYTES;
+    }
+
+    /**
+     * Handles the channel becoming ready. Called on the selector thread.
+     *
+     * @param readyOps The operations the channel is ready for
+     * @throws IOException If an error occurs
+     */
+    void handleReady(final int readyOps) throws IOException {
+        if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            finishConnect();
+        }
+        if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+            final boolean wasWritable = isWritable();
+            flush();
+            if (!wasWritable && isWritable()) {
+                parser.handleWritable();
+            }
+        }
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+            read();
+        }
+    }
+
+    /**
+     * Handles an error on the connection by closing it and informing the parser.
+     *
+     * @param error The error that occurred
+     */
+    void handleError(final Exception error) {
+        if (closed) {
+            return;
+        }
+        close();
+        if (connected) {
+            deliver(() -> parser.handleConnectionLost(error));
+        } else {
+            deliver(() -> parser.handleConnectionFailed(error));
+        }
+    }
+
+    /**
+     * Closes the connection without informing the parser.
+     */
+    void close() {
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Nothing more we can do.
+        }
+    }
+
+    /**
+     * Called once the TCP connection is established, to start any SSL handshake.
+     */
+    private void finishConnect() throws IOException {
+        if (engine == null) {
+            handshakeComplete();
+        } else {
+            engine.beginHandshake();
+            handshake();
+        }
+    }
+
+    /**
+     * Progresses the SSL handshake as far as possible without reading more data.
+     */
+    private void handshake() throws IOException {
+        while (!connected) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    write(EMPTY);
+                    break;
+                case NEED_UNWRAP:
+                    return;
+                default:
+                    handshakeComplete();
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Called once the connection is ready to use.
+     */
+    private void handshakeComplete() {
+        connected = true;
+        deliver(() -> parser.handleConnected(outputStream));
+    }
+
+    /**
+     * Reads whatever data is available from the channel and processes it.
+     */
+    private void read() throws IOException {
+        final int read = channel.read(netIn);
+        if (read == -1) {
+            close();
+            deliver(parser::handleEndOfStream);
+            return;
+        }
+
+        if (engine == null) {
+            netIn.flip();
+        } else {
+            unwrap();
+            if (closed) {
+                return;
+            }
+            appIn.flip();
+        }
+
+        while (appIn.hasRemaining()) {
+            final int consumed = framer.feed(appIn.array(), appIn.arrayOffset() + appIn.position(),
+                    appIn.remaining());
+            appIn.position(appIn.position() + consumed);
+            if (framer.isComplete()) {
+                final ReadLine line = new ReadLine(
+                        Arrays.copyOf(framer.getLine(), framer.getLength()),
+                        framer.getParamOffset(), charset, encoder);
+                framer.reset();
+                deliver(() -> parser.handleLine(line));
+            }
+        }
+        appIn.clear();
+
+        if (receivedCount.get() >= MAX_RECEIVED) {
+            synchronized (writeLock) {
+                if (receivedCount.get() >= MAX_RECEIVED) {
+                    readPaused = true;
+                    updateInterestOps();
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues an event to be handled by the parser, after any events received before it.
+     *
+     * @param event The event to handle
+     */
+    private void deliver(final Runnable event) {
+        received.add(event);
+        receivedCount.incrementAndGet();
+        if (handling.compareAndSet(false, true)) {
+            submitHandler();
+        }
+    }
+
+    /**
+     * Submits a task to handle received events to the parser's executor. If its queue is
+     * full, the task is left for the parser's timer to submit once there is space.
+     */
+    private void submitHandler() {
+        if (!parser.tryExecute(this::handleReceived)) {
+            parser.schedule(this::handleReceived, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Handles a batch of received events. Called on the parser's executor.
+     */
+    private void handleReceived() {
+        try {
+            Runnable event;
+            for (int i = 0; i < RECEIVE_BATCH_SIZE && (event = received.poll()) != null; i++) {
+                receivedCount.decrementAndGet();
+                event.run();
+            }
+        } finally {
+            if (readPaused && receivedCount.get() <= RESUME_RECEIVED) {
+                resumeReading();
+            }
+            handling.set(false);
+            if (!received.isEmpty() && handling.compareAndSet(false, true)) {
+                submitHandler();
+            }
+        }
+    }
+
+    /**
+     * Resumes reading from the channel once the parser has caught up.
+     */
+    private void resumeReading() {
+        synchronized (writeLock) {
+            if (readPaused && receivedCount.get() <= RESUME_RECEIVED) {
+                readPaused = false;
+                updateInterestOps();
+            }
+        }
+    }
+
+    /**
+     * Decrypts as much of the data in {@link #netIn} as possible into {@link #appIn}.
+     */
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                final SSLEngineResult result = engine.unwrap(netIn, appIn);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    // The rest of the record hasn't arrived yet
+                    break;
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    close();
+                    deliver(parser::handleEndOfStream);
+                    return;
+                }
+
+                if (!connected) {
+                    handshake();
+                }
+            }
+        } finally {
+            netIn.compact();
+            if (!netIn.hasRemaining()) {
+                // A partial record fills the whole buffer, so make room for the rest of it
+                netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+            }
+        }
+    }
+
+    /**
+     * Writes (and encrypts, if necessary) the given data to the channel, buffering it if the
+     * channel can't currently accept it.
+     *
+     * @param data The data to write
+     * @throws IOException If the data can't be written, or too much data is already buffered
+     */
+    private void write(final ByteBuffer data) throws IOException {
+        synchronized (writeLock) {
+            if (pendingBytes > MAX_PENDING_BYTES) {
+                throw new IOException("Too much data waiting to be sent");
+            }
+            if (engine == null) {
+                pendingWrites.add(data);
+                pendingBytes += data.remaining();
+            } else {
+                do {
+                    final SSLEngineResult result = engine.wrap(data, netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                        continue;
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("SSL engine closed");
+                    }
+                    netOut.flip();
+                    if (netOut.hasRemaining()) {
+                        final ByteBuffer buffer = ByteBuffer.allocate(netOut.remaining());
+                        buffer.put(netOut).flip();
+                        pendingWrites.add(buffer);
+                        pendingBytes += buffer.remaining();
+                    }
+                    netOut.clear();
+                } while (data.hasRemaining());
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Writes as much pending data as possible to the channel, and updates the selector's
+     * interest in writability accordingly.
+     */
+    private void flush() throws IOException {
+        synchronized (writeLock) {
+            while (!pendingWrites.isEmpty()) {
+                final ByteBuffer buffer = pendingWrites.peek();
+                pendingBytes -= channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                pendingWrites.poll();
+            }
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Updates the selector's interest in readability and writability to match the current
+     * state. Must be called with {@link #writeLock} held.
+     */
+    private void updateInterestOps() {
+        final SelectionKey selectionKey = key;
+        if (selectionKey != null && selectionKey.isValid()) {
+            final int ops = (readPaused ? 0 : SelectionKey.OP_READ)
+                    | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+            if (selectionKey.interestOps() != ops) {
+                selectionKey.interestOps(ops);
+                selectionKey.selector().wakeup();
+            }
+        }
+    }
+
+    /**
+     * Creates a larger copy of the given buffer, which is assumed to be in write mode.
+     */
+    private static ByteBuffer enlarge(final ByteBuffer buffer, final int minimum) {
+        final ByteBuffer result = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimum));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+
+    /**
+     * Output stream that writes data to the connection.
+     */
+    private class ConnectionOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Connection is closed");
+            }
+            try {
+                NioConnection.this.write(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+            } catch (IOException ex) {
+                handleError(ex);
+                throw ex;
+            }
+        }
+
+    }
+
+}
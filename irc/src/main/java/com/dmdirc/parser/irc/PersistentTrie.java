@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * Operations on an immutable hash array mapped trie, shared by {@link CaseMappedMap} and
+ * {@link IdentityTrie}.
+ *
+ * <p>A trie is represented by its root node: a {@link Leaf}, a collision of leaves with the same
+ * hash, a branch, or null if it is empty. Adding or removing a leaf builds a new trie that shares
+ * all but the changed path with the old one. Callers choose how keys are hashed, and pass in the
+ * equivalence used to decide whether two keys are the same.
+ */
+final class PersistentTrie {
+
+    /** The number of hash bits used at each level of the trie. */
+    private static final int BITS = 5;
+    /** Mask to extract a level's bits from a hash. */
+    private static final int MASK = (1 << BITS) - 1;
+
+    private PersistentTrie() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Finds the node a hash leads to.
+     *
+     * @param root The root of the trie.
+     * @param hash The hash of the key being looked for.
+     * @return The leaf or collision for the hash, to be checked with {@link #getLeafCount} and
+     * {@link #getLeaf}, or null if there is none.
+     */
+    @Nullable
+    static Object locate(@Nullable final Object root, final int hash) {
+        Object current = root;
+        int shift = 0;
+        while (current instanceof Branch) {
+            final Branch branch = (Branch) current;
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            current = branch.slots[branch.index(bit)];
+            shift += BITS;
+        }
+        return current;
+    }
+
+    /**
+     * Gets the number of leaves in a node returned by {@link #locate}.
+     *
+     * @param node The located node, or null.
+     * @return The number of leaves in the node.
+     */
+    static int getLeafCount(@Nullable final Object node) {
+        if (node instanceof Leaf) {
+            return 1;
+        }
+        return node == null ? 0 : ((Collision) node).leaves.length;
+    }
+
+    /**
+     * Gets one of the leaves in a node returned by {@link #locate}.
+     *
+     * @param node The located node.
+     * @param index The index of the leaf, less than {@link #getLeafCount}.
+     * @param <K> The type of key in the trie.
+     * @param <V> The type of value in the trie.
+     * @return The leaf.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> Leaf<K, V> getLeaf(final Object node, final int index) {
+        return (Leaf<K, V>) (node instanceof Leaf ? node : ((Collision) node).leaves[index]);
+    }
+
+    /**
+     * Adds a leaf to a trie. If the trie already has a leaf with an equivalent key, its value is
+     * replaced but the key is kept as it was.
+     *
+     * @param node The root of the trie, or null if it is empty.
+     * @param shift The number of hash bits used by the levels above this one.
+     * @param leaf The leaf to add.
+     * @param equivalence Decides whether two keys with the same hash are the same key.
+     * @param change Records the leaf that was replaced, if any.
+     * @param <K> The type of key in the trie.
+     * @param <V> The type of value in the trie.
+     * @return The root of the new trie.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> Object insert(@Nullable final Object node, final int shift,
+            final Leaf<K, V> leaf, final BiPredicate<? super K, ? super K> equivalence,
+            final Change<K, V> change) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Leaf) {
+            final Leaf<K, V> existing = (Leaf<K, V>) node;
+            if (existing.hash == leaf.hash && equivalence.test(existing.key, leaf.key)) {
+                change.previous = existing;
+                return existing.withValue(leaf.value);
+            }
+            if (existing.hash == leaf.hash) {
+                return new Collision(leaf.hash, new Object[]{existing, leaf});
+            }
+            return merge(existing, existing.hash, leaf, shift);
+        }
+        if (node instanceof Collision) {
+            final Collision collision = (Collision) node;
+            if (collision.hash != leaf.hash) {
+                return merge(collision, collision.hash, leaf, shift);
+            }
+            final Object[] leaves = collision.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                final Leaf<K, V> existing = (Leaf<K, V>) leaves[i];
+                if (equivalence.test(existing.key, leaf.key)) {
+                    change.previous = existing;
+                    final Object[] replaced = leaves.clone();
+                    replaced[i] = existing.withValue(leaf.value);
+                    return new Collision(leaf.hash, replaced);
+                }
+            }
+            final Object[] added = new Object[leaves.length + 1];
+            System.arraycopy(leaves, 0, added, 0, leaves.length);
+            added[leaves.length] = leaf;
+            return new Collision(leaf.hash, added);
+        }
+        final Branch branch = (Branch) node;
+        final int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        final int index = branch.index(bit);
+        if ((branch.bitmap & bit) == 0) {
+            final Object[] slots = new Object[branch.slots.length + 1];
+            System.arraycopy(branch.slots, 0, slots, 0, index);
+            slots[index] = leaf;
+            System.arraycopy(branch.slots, index, slots, index + 1, branch.slots.length - index);
+            return new Branch(branch.bitmap | bit, slots);
+        }
+        final Object[] slots = branch.slots.clone();
+        slots[index] = insert(slots[index], shift + BITS, leaf, equivalence, change);
+        return new Branch(branch.bitmap, slots);
+    }
+
+    /**
+     * Creates the smallest subtrie holding an existing node and a leaf with a different hash.
+     *
+     * @param existing The existing leaf or collision.
+     * @param existingHash The hash of the existing node.
+     * @param leaf The leaf to add.
+     * @param shift The number of hash bits used by the levels above this one.
+     * @return The new subtrie.
+     */
+    private static Object merge(final Object existing, final int existingHash,
+            final Leaf<?, ?> leaf, final int shift) {
+        final int existingIndex = (existingHash >>> shift) & MASK;
+        final int leafIndex = (leaf.hash >>> shift) & MASK;
+        if (existingIndex == leafIndex) {
+            return new Branch(1 << existingIndex,
+                    new Object[]{merge(existing, existingHash, leaf, shift + BITS)});
+        }
+        return new Branch((1 << existingIndex) | (1 << leafIndex), existingIndex < leafIndex
+                ? new Object[]{existing, leaf} : new Object[]{leaf, existing});
+    }
+
+    /**
+     * Removes a key from a trie.
+     *
+     * @param node The root of the trie, or null if it is empty.
+     * @param shift The number of hash bits used by the levels above this one.
+     * @param hash The hash of the key.
+     * @param key The key to remove.
+     * @param equivalence Decides whether two keys with the same hash are the same key.
+     * @param change Records the leaf that was removed, if any.
+     * @param <K> The type of key in the trie.
+     * @param <V> The type of value in the trie.
+     * @return The root of the new trie, which is the given node if the key wasn't found.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static <K, V> Object delete(@Nullable final Object node, final int shift, final int hash,
+            final K key, final BiPredicate<? super K, ? super K> equivalence,
+            final Change<K, V> change) {
+        if (node instanceof Leaf) {
+            final Leaf<K, V> leaf = (Leaf<K, V>) node;
+            if (leaf.hash == hash && equivalence.test(leaf.key, key)) {
+                change.previous = leaf;
+                return null;
+            }
+            return node;
+        }
+        if (node instanceof Collision) {
+            final Collision collision = (Collision) node;
+            if (collision.hash != hash) {
+                return node;
+            }
+            final Object[] leaves = collision.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                final Leaf<K, V> leaf = (Leaf<K, V>) leaves[i];
+                if (equivalence.test(leaf.key, key)) {
+                    change.previous = leaf;
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    return new Collision(hash, without(leaves, i));
+                }
+            }
+            return node;
+        }
+        if (node == null) {
+            return null;
+        }
+        final Branch branch = (Branch) node;
+        final int bit = 1 << ((hash >>> shift) & MASK);
+        if ((branch.bitmap & bit) == 0) {
+            return node;
+        }
+        final int index = branch.index(bit);
+        final Object child = branch.slots[index];
+        final Object replacement = delete(child, shift + BITS, hash, key, equivalence, change);
+        if (replacement == child) {
+            return node;
+        }
+        if (replacement == null) {
+            if (branch.slots.length == 1) {
+                return null;
+            }
+            if (branch.slots.length == 2 && !(branch.slots[1 - index] instanceof Branch)) {
+                // Leaves and collisions are found by their hash, so can move up the trie
+                return branch.slots[1 - index];
+            }
+            return new Branch(branch.bitmap & ~bit, without(branch.slots, index));
+        }
+        if (branch.slots.length == 1 && !(replacement instanceof Branch)) {
+            return replacement;
+        }
+        final Object[] slots = branch.slots.clone();
+        slots[index] = replacement;
+        return new Branch(branch.bitmap, slots);
+    }
+
+    /**
+     * Copies an array without one of its elements.
+     *
+     * @param array The array to copy.
+     * @param index The index of the element to leave out.
+     * @return The new array.
+     */
+    private static Object[] without(final Object[] array, final int index) {
+        final Object[] result = new Object[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    /**
+     * An entry in a trie.
+     *
+     * @param <K> The type of the key.
+     * @param <V> The type of the value.
+     */
+    static final class Leaf<K, V> implements Map.Entry<K, V> {
+
+        /** The hash of the key. */
+        private final int hash;
+        /** The key, as it was given. */
+        private final K key;
+        /** The value. */
+        private final V value;
+
+        Leaf(final int hash, final K key, final V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Gets the hash of this leaf's key.
+         *
+         * @return The hash the leaf was added with.
+         */
+        int getHash() {
+            return hash;
+        }
+
+        /**
+         * Creates a copy of this leaf with a different value.
+         *
+         * @param newValue The value for the new leaf.
+         * @return A new leaf with the same key and hash.
+         */
+        Leaf<K, V> withValue(final V newValue) {
+            return new Leaf<>(hash, key, newValue);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(final V newValue) {
+            throw new UnsupportedOperationException("Entries are immutable");
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return key.equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+    }
+
+    /**
+     * A level of the trie, holding a leaf, collision or branch for each bit set in its bitmap.
+     */
+    private static final class Branch {
+
+        /** The hash values, at this level, which have a slot. */
+        private final int bitmap;
+        /** The slots, in order of their bit. */
+        private final Object[] slots;
+
+        Branch(final int bitmap, final Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        /**
+         * Gets the index in {@link #slots} for a bit.
+         *
+         * @param bit The bit for the hash value at this level.
+         * @return The index the slot is (or would be) at.
+         */
+        int index(final int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+    }
+
+    /**
+     * Leaves whose keys are different but have the same hash.
+     */
+    private static final class Collision {
+
+        /** The hash all of the leaves share. */
+        private final int hash;
+        /** The leaves. */
+        private final Object[] leaves;
+
+        Collision(final int hash, final Object[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+    }
+
+    /**
+     * Records the leaf replaced or removed by a change to a trie.
+     *
+     * @param <K> The type of key in the trie.
+     * @param <V> The type of value in the trie.
+     */
+    static final class Change<K, V> {
+
+        /** The leaf that was replaced or removed, if any. */
+        @Nullable
+        private Leaf<K, V> previous;
+
+        /**
+         * Gets the leaf that was replaced or removed.
+         *
+         * @return The previous leaf, or null if nothing was replaced or removed.
+         */
+        @Nullable
+        Leaf<K, V> getPrevious() {
+            return previous;
+        }
+
+    }
+
+    /**
+     * Iterates depth-first over the leaves of a trie.
+     *
+     * @param <K> The type of key in the trie.
+     * @param <V> The type of value in the trie.
+     */
+    static final class LeafIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        /** The deepest a trie can be: one branch per level, a collision, and the root. */
+        private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS + 2;
+
+        /** The slots being iterated at each depth. */
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        /** The next index to look at for each depth. */
+        private final int[] positions = new int[MAX_DEPTH];
+        /** The current depth. */
+        private int depth;
+        /** The next leaf to return. */
+        private Leaf<K, V> next;
+
+        LeafIterator(@Nullable final Object root) {
+            stack[0] = root == null ? new Object[0] : new Object[]{root};
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] == stack[depth].length) {
+                    depth--;
+                    continue;
+                }
+                final Object node = stack[depth][positions[depth]++];
+                if (node instanceof Leaf) {
+                    next = (Leaf<K, V>) node;
+                    return;
+                }
+                depth++;
+                stack[depth] = node instanceof Branch
+                        ? ((Branch) node).slots : ((Collision) node).leaves;
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Leaf<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Leaf<K, V> result = next;
+            advance();
+            return result;
+        }
+
+    }
+
+}
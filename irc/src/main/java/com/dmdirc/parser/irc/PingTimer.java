@@ -22,34 +22,68 @@
 
 package com.dmdirc.parser.irc;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import com.dmdirc.parser.common.HashedWheelTimer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Used by the parser to ping the server at a set interval to check that the
  * server is still alive.
  */
-public class PingTimer extends TimerTask {
+public class PingTimer implements Runnable {
 
     /** Owning Parser. */
     private final IRCParser parser;
-    /** The Timer that owns this task. */
-    private final Timer timer;
+    /** Handle for this task's schedule, once started. */
+    private volatile HashedWheelTimer.Timeout timeout;
+    /** Whether a run has been handed to the parser and not yet finished. */
+    private final AtomicBoolean running = new AtomicBoolean();
 
     /**
      * Create the PingTimer.
      *
-     * @param parser IRCParser that owns this TimerTask.
-     * @param timer Timer that owns this TimerTask.
+     * @param parser IRCParser that owns this task.
      */
-    public PingTimer(final IRCParser parser, final Timer timer) {
+    public PingTimer(final IRCParser parser) {
         this.parser = parser;
-        this.timer = timer;
+    }
+
+    /**
+     * Starts running this task at the given interval.
+     *
+     * @param timer The timer to schedule this task on.
+     * @param interval The interval between runs, in milliseconds.
+     */
+    public void start(final HashedWheelTimer timer, final long interval) {
+        timeout = timer.scheduleAtFixedRate(this, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops running this task. */
+    public void cancel() {
+        final HashedWheelTimer.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
     }
 
     /** Timer has been executed. */
     @Override
     public void run() {
-        parser.pingTimerTask(timer);
+        // The timer thread is shared by every parser, so only hand the work over here, without
+        // waiting for space in the parser's queue. If the last run is still going (e.g. a slow
+        // event handler), or the queue is full, skip this one.
+        if (running.compareAndSet(false, true) && !parser.tryExecute(this::ping)) {
+            running.set(false);
+        }
+    }
+
+    /** Checks the server is still responding, and sends a new ping if needed. */
+    private void ping() {
+        try {
+            parser.pingTimerTask(this);
+        } finally {
+            running.set(false);
+        }
     }
 }
@@ -24,10 +24,12 @@ package com.dmdirc.parser.irc;
 
 import com.dmdirc.parser.common.ParserError;
 import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
 import com.dmdirc.parser.irc.processors.IRCProcessor;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -36,13 +38,23 @@ import javax.inject.Inject;
 /**
  * IRC Parser Processing Manager.
  * Manages adding/removing/calling processing stuff.
+ *
+ * <p>Registered processors are compiled into a {@link DispatchTable}, which is rebuilt whenever
+ * a processor is added or removed. Looking up the processor for a line then needs no case
+ * conversion or allocation: numerics index directly into an array, and other commands are
+ * found in a small open-addressed table using a case-insensitive hash.
  */
 public class ProcessingManager {
 
+    /** Value returned by {@link #getNumeric(String)} for commands that aren't numerics. */
+    public static final int NOT_NUMERIC = -1;
+
     /** Reference to the parser object that owns this ProcessingManager. */
     private final IRCParser parser;
     /** Hashtable used to store the different types of IRCProcessor known. */
     private final Map<String, IRCProcessor> processHash = new HashMap<>();
+    /** Table used to look up processors, rebuilt from {@link #processHash} on changes. */
+    private volatile DispatchTable dispatchTable = new DispatchTable(processHash);
 
     /**
      * Constructor to create a ProcessingManager.
@@ -80,17 +92,15 @@ public class ProcessingManager {
      * @param processor IRCProcessor subclass for the processor.
      * @param handles String Array of tokens to add this processor as a hadler for
      */
-    public void addProcessor(final String[] handles, final IRCProcessor processor) {
+    public synchronized void addProcessor(final String[] handles, final IRCProcessor processor) {
         doDebug("Adding processor: " + processor.getName());
 
         for (String handle : handles) {
-            if (processHash.containsKey(handle.toLowerCase())) {
-                // New Processors take priority over old ones
-                processHash.remove(handle.toLowerCase());
-            }
+            // New Processors take priority over old ones
             doDebug("\t Added handler for: " + handle);
             processHash.put(handle.toLowerCase(), processor);
         }
+        dispatchTable = new DispatchTable(processHash);
     }
 
     /**
@@ -98,16 +108,18 @@ public class ProcessingManager {
      *
      * @param processor IRCProcessor subclass for the processor.
      */
-    public void delProcessor(final IRCProcessor processor) {
+    public synchronized void delProcessor(final IRCProcessor processor) {
         doDebug("Deleting processor: " + processor.getName());
-        for (String elementName : processHash.keySet()) {
-            doDebug("\t Checking handler for: " + elementName);
-            final IRCProcessor testProcessor = processHash.get(elementName);
-            if (testProcessor.getName().equalsIgnoreCase(processor.getName())) {
-                doDebug("\t Removed handler for: " + elementName);
-                processHash.remove(elementName);
+        final Iterator<Map.Entry<String, IRCProcessor>> it = processHash.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, IRCProcessor> entry = it.next();
+            doDebug("\t Checking handler for: " + entry.getKey());
+            if (entry.getValue().getName().equalsIgnoreCase(processor.getName())) {
+                doDebug("\t Removed handler for: " + entry.getKey());
+                it.remove();
             }
         }
+        dispatchTable = new DispatchTable(processHash);
     }
 
     /**
@@ -118,11 +130,11 @@ public class ProcessingManager {
      * @throws ProcessorNotFoundException if no processer exists for the param
      */
     public IRCProcessor getProcessor(final String sParam) throws ProcessorNotFoundException {
-        if (processHash.containsKey(sParam.toLowerCase())) {
-            return processHash.get(sParam.toLowerCase());
-        } else {
+        final IRCProcessor processor = dispatchTable.get(sParam, getNumeric(sParam));
+        if (processor == null) {
             throw new ProcessorNotFoundException("No processors will handle " + sParam);
         }
+        return processor;
     }
 
     /**
@@ -135,12 +147,28 @@ public class ProcessingManager {
      */
     public void process(final LocalDateTime date, final String sParam, final String... token)
             throws ProcessorNotFoundException {
-        IRCProcessor messageProcessor = null;
+        if (!tryProcess(date, sParam, token)) {
+            throw new ProcessorNotFoundException("No processors will handle " + sParam);
+        }
+    }
+
+    /**
+     * Process a Line, if there is a processor for it. Numeric events are raised for numeric
+     * lines regardless of whether a processor handles them.
+     *
+     * @param date Date of line.
+     * @param sParam Type of line to process ("005", "PRIVMSG" etc)
+     * @param token IRCTokenised line to process
+     * @return True if a processor handled the line, false if no processor exists for it
+     */
+    public boolean tryProcess(final LocalDateTime date, final String sParam,
+            final String... token) {
+        final int numeric = getNumeric(sParam);
+        final IRCProcessor messageProcessor = dispatchTable.get(sParam, numeric);
         try {
-            messageProcessor = getProcessor(sParam);
-            messageProcessor.process(date, sParam, token);
-        } catch (ProcessorNotFoundException p) {
-            throw p;
+            if (messageProcessor != null) {
+                messageProcessor.process(date, sParam, token);
+            }
         } catch (Exception e) {
             final ParserError ei = new ParserError(ParserError.ERROR_ERROR,
                     "Exception in Processor. [" + messageProcessor + "]: "
@@ -148,13 +176,64 @@ public class ProcessingManager {
             ei.setException(e);
             parser.callErrorInfo(ei);
         } finally {
-            // Try to call callNumeric. We don't want this to work if sParam is a non
-            // integer param, hence the empty catch
-            try {
-                callNumeric(date, Integer.parseInt(sParam), token);
-            } catch (NumberFormatException e) {
+            if (numeric != NOT_NUMERIC) {
+                callNumeric(date, numeric, token);
             }
         }
+        return messageProcessor != null;
+    }
+
+    /**
+     * Process a line read from the server. The line's tokens are only decoded if there is a
+     * processor for it, or it is a numeric.
+     *
+     * @param date Date of line.
+     * @param sParam Type of line to process ("005", "PRIVMSG" etc)
+     * @param line The line to process
+     * @throws ProcessorNotFoundException exception if no processors exists to handle the line
+     */
+    public void process(final LocalDateTime date, final String sParam, final ReadLine line)
+            throws ProcessorNotFoundException {
+        if (!tryProcess(date, sParam, line)) {
+            throw new ProcessorNotFoundException("No processors will handle " + sParam);
+        }
+    }
+
+    /**
+     * Process a line read from the server, if there is a processor for it. The line's tokens
+     * are only decoded if there is a processor for it, or it is a numeric.
+     *
+     * @param date Date of line.
+     * @param sParam Type of line to process ("005", "PRIVMSG" etc)
+     * @param line The line to process
+     * @return True if a processor handled the line, false if no processor exists for it
+     */
+    public boolean tryProcess(final LocalDateTime date, final String sParam, final ReadLine line) {
+        final int numeric = getNumeric(sParam);
+        if (numeric == NOT_NUMERIC && dispatchTable.get(sParam, numeric) == null) {
+            return false;
+        }
+        return tryProcess(date, sParam, line.getTokens());
+    }
+
+    /**
+     * Gets the numeric represented by the given command.
+     *
+     * @param sParam Type of line ("005", "PRIVMSG" etc)
+     * @return The numeric (0-999) if the command consists of exactly three digits,
+     * {@link #NOT_NUMERIC} otherwise
+     */
+    public static int getNumeric(final String sParam) {
+        if (sParam.length() != 3) {
+            return NOT_NUMERIC;
+        }
+        final int hundreds = sParam.charAt(0) - '0';
+        final int tens = sParam.charAt(1) - '0';
+        final int units = sParam.charAt(2) - '0';
+        if (hundreds < 0 || hundreds > 9 || tens < 0 || tens > 9 || units < 0 || units > 9) {
+            return NOT_NUMERIC;
+        }
+        return hundreds * 100 + tens * 10 + units;
     }
 
     /**
@@ -167,4 +246,86 @@ public class ProcessingManager {
         parser.getCallbackManager().publish(new NumericEvent(parser, time, numeric,
                 token));
     }
+
+    /**
+     * An immutable lookup table mapping commands to processors.
+     */
+    private static final class DispatchTable {
+
+        /** Processors for each numeric, indexed by the numeric. */
+        private final IRCProcessor[] numerics = new IRCProcessor[1000];
+        /** Lower-cased non-numeric commands, in slots determined by their hash. */
+        private final String[] commands;
+        /** Processors for the commands in the corresponding slots of {@link #commands}. */
+        private final IRCProcessor[] processors;
+        /** Mask applied to hashes to find a slot. */
+        private final int mask;
+
+        /**
+         * Creates a new table containing the given processors.
+         *
+         * @param processHash Map of lower-cased commands to their processors
+         */
+        DispatchTable(final Map<String, IRCProcessor> processHash) {
+            int size = 16;
+            while (size < processHash.size() * 4) {
+                size <<= 1;
+            }
+            commands = new String[size];
+            processors = new IRCProcessor[size];
+            mask = size - 1;
+
+            for (Map.Entry<String, IRCProcessor> entry : processHash.entrySet()) {
+                final String command = entry.getKey();
+                final int numeric = getNumeric(command);
+                if (numeric == NOT_NUMERIC) {
+                    int slot = hash(command) & mask;
+                    while (commands[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    commands[slot] = command;
+                    processors[slot] = entry.getValue();
+                } else {
+                    numerics[numeric] = entry.getValue();
+                }
+            }
+        }
+
+        /**
+         * Gets the processor for the given command.
+         *
+         * @param command The command to look up, in any case
+         * @param numeric The numeric value of the command, as given by {@link #getNumeric}
+         * @return The processor for the command, or null if there is none
+         */
+        IRCProcessor get(final String command, final int numeric) {
+            if (numeric != NOT_NUMERIC) {
+                return numerics[numeric];
+            }
+
+            int slot = hash(command) & mask;
+            while (commands[slot] != null) {
+                final String candidate = commands[slot];
+                if (candidate.length() == command.length()
+                        && candidate.regionMatches(true, 0, command, 0, command.length())) {
+                    return processors[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Calculates a case-insensitive hash of the given command.
+         */
+        private static int hash(final String command) {
+            int hash = 0;
+            for (int i = 0; i < command.length(); i++) {
+                hash = 31 * hash + Character.toLowerCase(command.charAt(i));
+            }
+            return hash ^ hash >>> 16;
+        }
+
+    }
+
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.events.IRCDataInEvent;
+import com.dmdirc.parser.irc.events.IRCDataOutEvent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which raw lines are published as {@link IRCDataInEvent}s and {@link IRCDataOutEvent}s.
+ *
+ * <p>Raw traffic events are only built when something is subscribed to them. Those that do
+ * want raw traffic can additionally restrict it to certain commands, and/or only receive a
+ * sample of the lines.
+ */
+public class RawTrafficTap {
+
+    /** Whether anything is subscribed to incoming data events. */
+    private volatile boolean dataInSubscribed;
+    /** Whether anything is subscribed to outgoing data events. */
+    private volatile boolean dataOutSubscribed;
+    /** Publish one in every this many lines. */
+    private volatile int sampleRate = 1;
+    /** The commands to publish lines for, or null for all commands. */
+    private volatile String[] commands;
+    /** Number of incoming lines that have passed the command filter. */
+    private final AtomicLong dataInCount = new AtomicLong();
+    /** Number of outgoing lines that have passed the command filter. */
+    private final AtomicLong dataOutCount = new AtomicLong();
+
+    /**
+     * Updates the tap to reflect the subscribers of the given callback manager.
+     *
+     * @param callbackManager The callback manager that data events are published on
+     */
+    void update(final CallbackManager callbackManager) {
+        dataInSubscribed = callbackManager.hasSubscribers(IRCDataInEvent.class);
+        dataOutSubscribed = callbackManager.hasSubscribers(IRCDataOutEvent.class);
+    }
+
+    /**
+     * Sets the sampling rate for raw traffic.
+     *
+     * @param sampleRate Publish one in every this many lines (1 to publish all lines)
+     */
+    public void setSampleRate(final int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Gets the sampling rate for raw traffic.
+     *
+     * @return The number of lines for each one that is published
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Restricts raw traffic to lines with the given commands (e.g. "PRIVMSG" or "001").
+     * Commands are matched case-insensitively.
+     *
+     * @param commands The commands to publish lines for, or none to publish all lines
+     */
+    public void setCommands(final String... commands) {
+        this.commands = commands.length == 0 ? null : Arrays.copyOf(commands, commands.length);
+    }
+
+    /**
+     * Gets the commands that raw traffic is restricted to.
+     *
+     * @return The commands lines are published for, or an empty array if all are published
+     */
+    public String[] getCommands() {
+        final String[] filter = commands;
+        return filter == null ? new String[0] : Arrays.copyOf(filter, filter.length);
+    }
+
+    /**
+     * Determines whether an event should be published for the given incoming line.
+     *
+     * @param line The line that was received
+     * @return True if an {@link IRCDataInEvent} should be published
+     */
+    boolean shouldPublish(final ReadLine line) {
+        if (!dataInSubscribed) {
+            return false;
+        }
+
+        final String[] filter = commands;
+        if (filter != null) {
+            String command = line.getToken(0);
+            if (!command.isEmpty() && command.charAt(0) == ':' && line.getTokenCount() > 1) {
+                command = line.getToken(1);
+            }
+            if (!matches(filter, command, 0, command.length())) {
+                return false;
+            }
+        }
+        return sample(dataInCount);
+    }
+
+    /**
+     * Determines whether an event should be published for the given outgoing line.
+     *
+     * @param line The line that is being sent
+     * @return True if an {@link IRCDataOutEvent} should be published
+     */
+    boolean shouldPublish(final String line) {
+        if (!dataOutSubscribed) {
+            return false;
+        }
+
+        final String[] filter = commands;
+        if (filter != null) {
+            final int end = line.indexOf(' ');
+            if (!matches(filter, line, 0, end == -1 ? line.length() : end)) {
+                return false;
+            }
+        }
+        return sample(dataOutCount);
+    }
+
+    /**
+     * Determines whether the next line passing the filter should be published.
+     */
+    private boolean sample(final AtomicLong counter) {
+        final int rate = sampleRate;
+        return rate == 1 || counter.getAndIncrement() % rate == 0;
+    }
+
+    /**
+     * Determines whether the given region of a string matches one of the filtered commands.
+     */
+    private static boolean matches(final String[] filter, final String value, final int offset,
+            final int end) {
+        for (String command : filter) {
+            if (command.length() == end - offset
+                    && command.regionMatches(true, 0, value, offset, command.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
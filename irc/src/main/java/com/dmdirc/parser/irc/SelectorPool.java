@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of selector threads that can service the connections of many
+ * {@link IRCParser}s using non-blocking I/O.
+ *
+ * <p>Parsers using a selector pool do not have a thread of their own for reading from the
+ * server: incoming data is read, framed into lines and processed by one of the pool's
+ * threads. Handlers for parser events must therefore not block for long periods, as doing so
+ * will delay every other connection serviced by the same thread.
+ *
+ * @see IRCParser#setSelectorPool(SelectorPool)
+ */
+public class SelectorPool {
+
+    /** The reactors in this pool. */
+    private final Reactor[] reactors;
+    /** Counter used to assign connections to reactors. */
+    private final AtomicInteger nextReactor = new AtomicInteger();
+
+    /**
+     * Creates a new selector pool.
+     *
+     * @param threads The number of selector threads to use
+     * @throws IOException If a selector could not be opened
+     */
+    public SelectorPool(final int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Must have at least one thread");
+        }
+        reactors = new Reactor[threads];
+        for (int i = 0; i < threads; i++) {
+            reactors[i] = new Reactor(Selector.open(), "IRC Parser selector " + (i + 1));
+            reactors[i].thread.start();
+        }
+    }
+
+    /**
+     * Registers a connection with one of the pool's selectors.
+     *
+     * @param connection The connection to register
+     * @param channel The channel to register
+     * @param ops The initial interest set
+     */
+    void register(final NioConnection connection, final SelectableChannel channel,
+            final int ops) {
+        final Reactor reactor =
+                reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+        reactor.execute(() -> {
+            try {
+                connection.setKey(channel.register(reactor.selector, ops, connection));
+            } catch (IOException ex) {
+                connection.handleError(ex);
+            }
+        });
+    }
+
+    /**
+     * Gets the number of selector threads in this pool.
+     *
+     * @return The number of threads
+     */
+    public int getThreads() {
+        return reactors.length;
+    }
+
+    /**
+     * Stops all of the pool's threads. Any connections still registered are closed.
+     */
+    public void shutdown() {
+        for (Reactor reactor : reactors) {
+            reactor.running = false;
+            reactor.selector.wakeup();
+        }
+    }
+
+    /**
+     * A single selector and the thread that services it.
+     */
+    private static class Reactor implements Runnable {
+
+        /** The selector used by this reactor. */
+        private final Selector selector;
+        /** The thread running this reactor. */
+        private final Thread thread;
+        /** Tasks to run on the reactor's thread. */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** Whether the reactor should keep running. */
+        private volatile boolean running = true;
+
+        Reactor(final Selector selector, final String name) {
+            this.selector = selector;
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Runs a task on this reactor's thread.
+         *
+         * @param task The task to run
+         */
+        void execute(final Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    runTask(task);
+                }
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    final NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        connection.handleReady(key.readyOps());
+                    } catch (CancelledKeyException ex) {
+                        // Connection was closed while we were processing it.
+                    } catch (IOException | RuntimeException ex) {
+                        handleError(connection, ex);
+                    }
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                handleError((NioConnection) key.attachment(),
+                        new IOException("Selector pool has been shut down"));
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // Nothing more we can do.
+            }
+        }
+
+        /**
+         * Runs a task, making sure that a failure does not stop this reactor.
+         *
+         * @param task The task to run
+         */
+        private void runTask(final Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                reportUncaught(ex);
+            }
+        }
+
+        /**
+         * Passes an error to a connection, making sure that a failure in the parser's handling
+         * of it does not stop this reactor.
+         *
+         * @param connection The connection that failed
+         * @param error The error that occurred
+         */
+        private void handleError(final NioConnection connection, final Exception error) {
+            try {
+                connection.handleError(error);
+            } catch (RuntimeException ex) {
+                reportUncaught(ex);
+            }
+        }
+
+        /**
+         * Passes an exception to this thread's uncaught exception handler.
+         *
+         * @param ex The exception to report
+         */
+        private void reportUncaught(final RuntimeException ex) {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        }
+
+    }
+
+}
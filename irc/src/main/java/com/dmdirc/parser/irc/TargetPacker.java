@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Packs a command sent to many targets into as few lines as possible, by joining the targets
+ * with commas.
+ */
+final class TargetPacker {
+
+    private TargetPacker() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Packs the given targets into lines of the form {@code command target1,target2 :argument}.
+     *
+     * <p>Each line contains at most {@code maxTargets} targets and, unless a single target is too
+     * long on its own, at most {@code maxLength} bytes once encoded.
+     *
+     * @param command The command, including any parameters before the targets.
+     * @param targets The targets to send the command to.
+     * @param argument The trailing argument, or an empty string for none.
+     * @param maxTargets The maximum number of targets on each line.
+     * @param maxLength The maximum length of each line, in bytes.
+     * @param charset The charset lines will be encoded with.
+     * @return The lines to send, in order.
+     */
+    static List<String> pack(final String command, final Collection<String> targets,
+            final String argument, final int maxTargets, final int maxLength,
+            final Charset charset) {
+        final List<String> lines = new ArrayList<>();
+        final String suffix = argument.isEmpty() ? "" : " :" + argument;
+        final int fixedLength = getByteLength(command, charset) + 1
+                + getByteLength(suffix, charset);
+        final StringBuilder builder = new StringBuilder();
+        int length = 0;
+        int count = 0;
+        for (String target : targets) {
+            if (target.isEmpty()) {
+                continue;
+            }
+            final int targetLength = getByteLength(target, charset);
+            if (count > 0 && (count >= maxTargets
+                    || fixedLength + length + 1 + targetLength > maxLength)) {
+                lines.add(command + ' ' + builder + suffix);
+                builder.setLength(0);
+                length = 0;
+                count = 0;
+            }
+            if (count > 0) {
+                builder.append(',');
+                length++;
+            }
+            builder.append(target);
+            length += targetLength;
+            count++;
+        }
+        if (count > 0) {
+            lines.add(command + ' ' + builder + suffix);
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the number of bytes a string takes up once encoded.
+     *
+     * @param value The string to measure.
+     * @param charset The charset the string will be encoded with.
+     * @return The encoded length of the string.
+     */
+    static int getByteLength(final String value, final Charset charset) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.getBytes(charset).length;
+            }
+        }
+        return value.length();
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parses the timestamps that servers and bouncers attach to lines.
+ *
+ * <p>IRCv3 server-time values almost always use the fixed format
+ * {@code YYYY-MM-DDThh:mm:ss.sssZ}, so they are parsed directly from the received bytes into
+ * milliseconds since the epoch without creating any intermediate objects. Anything the fast
+ * path doesn't understand is handed to a {@link DateTimeFormatter}.
+ */
+final class TimestampParser {
+
+    /** Value returned when a timestamp could not be parsed. */
+    static final long INVALID = Long.MIN_VALUE;
+
+    /** server-time time format */
+    private static final DateTimeFormatter SERVER_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+
+    /** Length of the shortest timestamp the fast path accepts ("YYYY-MM-DDThh:mm:ssZ"). */
+    private static final int MIN_LENGTH = 20;
+
+    private TimestampParser() {
+        // Shouldn't be instantiated.
+    }
+
+    /**
+     * Parses an ISO-8601 server-time value from the given bytes.
+     *
+     * @param data The array containing the timestamp
+     * @param offset The offset of the first byte of the timestamp
+     * @param length The length of the timestamp in bytes
+     * @return The time in milliseconds since the epoch, or {@link #INVALID} if the bytes are
+     * not in the common fixed format
+     */
+    static long parseServerTime(final byte[] data, final int offset, final int length) {
+        if (length < MIN_LENGTH || data[offset + 4] != '-' || data[offset + 7] != '-'
+                || data[offset + 10] != 'T' || data[offset + 13] != ':'
+                || data[offset + 16] != ':') {
+            return INVALID;
+        }
+
+        final int year = digits(data, offset, 4);
+        final int month = digits(data, offset + 5, 2);
+        final int day = digits(data, offset + 8, 2);
+        final int hour = digits(data, offset + 11, 2);
+        final int minute = digits(data, offset + 14, 2);
+        final int second = digits(data, offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            return INVALID;
+        }
+
+        final int end = offset + length;
+        int pos = offset + 19;
+        int millis = 0;
+        if (data[pos] == '.') {
+            pos++;
+            int scale = 100;
+            final int start = pos;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+                millis += (data[pos] - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                return INVALID;
+            }
+        }
+
+        final int offsetSeconds = parseOffset(data, pos, end - pos);
+        if (offsetSeconds == Integer.MIN_VALUE) {
+            return INVALID;
+        }
+
+        final long epochSecond = daysFromCivil(year, month, day) * 86400L
+                + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return epochSecond * 1000L + millis;
+    }
+
+    /**
+     * Parses an ISO-8601 server-time value from the given string. This supports more formats
+     * than {@link #parseServerTime(byte[], int, int)}, at the cost of speed.
+     *
+     * @param value The timestamp to parse
+     * @return The time in milliseconds since the epoch, or {@link #INVALID} if the value could
+     * not be parsed
+     */
+    static long parseServerTime(final String value) {
+        try {
+            return OffsetDateTime.parse(value, SERVER_TIME_FORMAT).toInstant().toEpochMilli();
+        } catch (final DateTimeParseException ex) {
+            try {
+                return OffsetDateTime.parse(value, DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                        .toInstant().toEpochMilli();
+            } catch (final DateTimeParseException ex2) {
+                return INVALID;
+            }
+        }
+    }
+
+    /**
+     * Parses a decimal number (such as a TSIRC timestamp) from the given bytes.
+     *
+     * @param data The array containing the number
+     * @param offset The offset of the first byte of the number
+     * @param length The length of the number in bytes
+     * @return The parsed number, or {@link #INVALID} if the bytes are not a number that fits
+     * in a long
+     */
+    static long parseLong(final byte[] data, final int offset, final int length) {
+        final int end = offset + length;
+        int pos = offset;
+        final boolean negative = pos < end && data[pos] == '-';
+        if (pos < end && (data[pos] == '-' || data[pos] == '+')) {
+            pos++;
+        }
+        if (pos == end || end - pos > 18) {
+            return INVALID;
+        }
+
+        long result = 0;
+        for (; pos < end; pos++) {
+            if (data[pos] < '0' || data[pos] > '9') {
+                return INVALID;
+            }
+            result = result * 10 + data[pos] - '0';
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a zone offset ("Z", "+hh", "+hhmm" or "+hh:mm").
+     *
+     * @return The offset in seconds, or {@link Integer#MIN_VALUE} if invalid
+     */
+    private static int parseOffset(final byte[] data, final int offset, final int length) {
+        if (length == 1 && (data[offset] == 'Z' || data[offset] == 'z')) {
+            return 0;
+        }
+        if (length != 3 && length != 5 && length != 6
+                || data[offset] != '+' && data[offset] != '-') {
+            return Integer.MIN_VALUE;
+        }
+
+        final int hours = digits(data, offset + 1, 2);
+        final int minutes;
+        if (length == 3) {
+            minutes = 0;
+        } else if (length == 5) {
+            minutes = digits(data, offset + 3, 2);
+        } else if (data[offset + 3] == ':') {
+            minutes = digits(data, offset + 4, 2);
+        } else {
+            return Integer.MIN_VALUE;
+        }
+
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+            return Integer.MIN_VALUE;
+        }
+        final int seconds = hours * 3600 + minutes * 60;
+        return data[offset] == '-' ? -seconds : seconds;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits.
+     *
+     * @return The parsed value, or -1 if any of the bytes are not digits
+     */
+    private static int digits(final byte[] data, final int offset, final int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            result = result * 10 + data[i] - '0';
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of days in the given month of the given (proleptic Gregorian) year.
+     */
+    private static int daysInMonth(final int year, final int month) {
+        switch (month) {
+            case 2:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Gets the number of days between the epoch and the given date.
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+}
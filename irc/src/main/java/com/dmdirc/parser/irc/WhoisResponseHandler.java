@@ -31,21 +31,26 @@ import com.dmdirc.parser.interfaces.Parser;
 import java.time.LocalDateTime;
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
-import net.engio.mbassy.listener.Handler;
-
 /**
  * Monitors for whois responses and raises a {@link UserInfoEvent} with the results.
  */
 public class WhoisResponseHandler {
 
+    /** The numerics handled by {@link #handleNumeric(NumericEvent)}. */
+    private static final int[] NUMERICS = {301, 311, 312, 313, 317, 318, 319, 330, 378, 671};
+
     private final Parser parser;
     private final CallbackManager manager;
 
     private final Map<UserInfoType, String> info = new EnumMap<>(UserInfoType.class);
 
+    /** Handler subscribed to each of the {@link #NUMERICS}. */
+    private final Consumer<NumericEvent> handler = this::handleNumeric;
+
     @Nullable private String client;
 
     public WhoisResponseHandler(final Parser parser, final CallbackManager manager) {
@@ -54,14 +59,54 @@ public class WhoisResponseHandler {
     }
 
     public void start() {
-        manager.subscribe(this);
+        for (int numeric : NUMERICS) {
+            manager.subscribeNumeric(numeric, handler);
+        }
     }
 
     public void stop() {
-        manager.unsubscribe(this);
+        for (int numeric : NUMERICS) {
+            manager.unsubscribeNumeric(numeric, handler);
+        }
+    }
+
+    void handleNumeric(final NumericEvent event) {
+        switch (event.getNumeric()) {
+            case 301:
+                handleAwayMessage(event);
+                break;
+            case 311:
+                handleStartOfWhois(event);
+                break;
+            case 312:
+                handleServerInfo(event);
+                break;
+            case 313:
+                handleUserPrivileges(event);
+                break;
+            case 317:
+                handleIdleTime(event);
+                break;
+            case 318:
+                handleEndOfWhois(event);
+                break;
+            case 319:
+                handleChannelList(event);
+                break;
+            case 330:
+                handleAccount(event);
+                break;
+            case 378:
+                handleConnectingFrom(event);
+                break;
+            case 671:
+                handleSecureConnection(event);
+                break;
+            default:
+                break;
+        }
     }
 
-    @Handler(condition = "msg.numeric == 311")
     void handleStartOfWhois(final NumericEvent event) {
         client = event.getToken()[3];
         info.clear();
@@ -72,7 +117,6 @@ public class WhoisResponseHandler {
         info.put(UserInfoType.REAL_NAME, event.getToken()[7]);
     }
 
-    @Handler(condition = "msg.numeric == 318")
     void handleEndOfWhois(final NumericEvent event) {
         if (client != null) {
             sendEvent();
@@ -80,26 +124,22 @@ public class WhoisResponseHandler {
         }
     }
 
-    @Handler(condition = "msg.numeric == 301")
     void handleAwayMessage(final NumericEvent event) {
         // :server 301 DMDirc User :away message
         info.put(UserInfoType.AWAY_MESSAGE, event.getToken()[4]);
     }
 
-    @Handler(condition = "msg.numeric == 312")
     void handleServerInfo(final NumericEvent event) {
         // :server 312 DMDirc User *.quakenet.org :QuakeNet IRC Server
         info.put(UserInfoType.SERVER_NAME, event.getToken()[4]);
         info.put(UserInfoType.SERVER_INFO, event.getToken()[5]);
     }
 
-    @Handler(condition = "msg.numeric == 313")
     void handleUserPrivileges(final NumericEvent event) {
         // :server 313 DMDirc User :is an IRC Operator
         info.put(UserInfoType.SERVER_OPER, event.getToken()[4]);
     }
 
-    @Handler(condition = "msg.numeric == 378")
     void handleConnectingFrom(final NumericEvent event) {
         // :server 378 DMDirc User :is connecting from *@hostname.tld xx.xx.xx.xx
         if (client.equalsIgnoreCase(event.getToken()[3])) {
@@ -107,26 +147,22 @@ public class WhoisResponseHandler {
         }
     }
 
-    @Handler(condition = "msg.numeric == 671")
     void handleSecureConnection(final NumericEvent event) {
         // :server 671 DMDirc User :is using a secure connection
         info.put(UserInfoType.CONNECTION_SECURITY, event.getToken()[4]);
     }
 
-    @Handler(condition = "msg.numeric == 319")
     void handleChannelList(final NumericEvent event) {
         // :server 319 DMDirc User :@#channel1 +#channel2 ...
         info.put(UserInfoType.GROUP_CHAT_LIST, event.getToken()[4]);
     }
 
-    @Handler(condition = "msg.numeric == 317")
     void handleIdleTime(final NumericEvent event) {
         // :server 317 DMDirc User 305 1422561556 :seconds idle, signon time
         info.put(UserInfoType.IDLE_TIME, event.getToken()[4]);
         info.put(UserInfoType.CONNECTION_TIME, event.getToken()[5]);
     }
 
-    @Handler(condition = "msg.numeric == 330")
     void handleAccount(final NumericEvent event) {
         // :server 330 DMDirc User Account :is authed as
         info.put(UserInfoType.ACCOUNT_NAME, event.getToken()[4]);
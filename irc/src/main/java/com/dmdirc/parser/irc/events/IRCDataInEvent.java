@@ -22,8 +22,10 @@
 
 package com.dmdirc.parser.irc.events;
 
+import com.dmdirc.parser.events.CommandEvent;
 import com.dmdirc.parser.events.DataInEvent;
 import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ProcessingManager;
 import com.dmdirc.parser.irc.IRCReader.ReadLine;
 
 import java.time.LocalDateTime;
@@ -35,7 +37,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * This extends the standard DataInEvent to provide access to IRC-Specific bits.
  */
-public class IRCDataInEvent extends DataInEvent {
+public class IRCDataInEvent extends DataInEvent implements CommandEvent {
 
     private final ReadLine line;
     private final String[] tokenisedData;
@@ -65,10 +67,8 @@ public class IRCDataInEvent extends DataInEvent {
             action = "";
         }
 
-        int num = -1;
-        try { num = Integer.parseInt(action); } catch (final NumberFormatException e) { }
-        numeric = num;
-        isNumeric = (numeric != -1);
+        numeric = ProcessingManager.getNumeric(action);
+        isNumeric = numeric != ProcessingManager.NOT_NUMERIC;
     }
 
     public String[] getTokenisedData() {
@@ -79,6 +79,7 @@ public class IRCDataInEvent extends DataInEvent {
         return line;
     }
 
+    @Override
     public String getAction() {
         return action;
     }
@@ -22,6 +22,7 @@
 
 package com.dmdirc.parser.irc.events;
 
+import com.dmdirc.parser.events.CommandEvent;
 import com.dmdirc.parser.events.DataOutEvent;
 import com.dmdirc.parser.interfaces.Parser;
 import com.dmdirc.parser.irc.IRCParser;
@@ -35,7 +36,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * This extends the standard DataOutEvent to also pre-tokenise the data.
  */
-public class IRCDataOutEvent extends DataOutEvent {
+public class IRCDataOutEvent extends DataOutEvent implements CommandEvent {
 
     private final String[] tokenisedData;
     private final String action;
@@ -50,6 +51,7 @@ public class IRCDataOutEvent extends DataOutEvent {
         return tokenisedData;
     }
 
+    @Override
     public String getAction() {
         return action;
     }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import com.dmdirc.parser.irc.ServerType;
+
+/**
+ * Flood control settings for a {@link TokenBucketOutputQueue}, modelled on the penalty systems
+ * used by ircds.
+ *
+ * <p>All amounts are in milliseconds of penalty. Each line costs a fixed amount plus an amount
+ * per byte; the bucket refills as time passes, and holds at most the burst amount. The defaults
+ * stay slightly below the limits the ircds enforce, to allow for network jitter.
+ */
+public enum FloodProfile {
+
+    /** The RFC1459 limits: 2 seconds per line, up to 10 seconds ahead. */
+    RFC1459(9000, 1000, 2000, 0),
+    /** ircu and derivatives, which also charge for each 120 bytes of a line. */
+    IRCU(9000, 1000, 2000, 1000.0 / 120),
+    /** Hybrid, ratbox and derivatives, which allow a burst of lines and then one per second. */
+    HYBRID(9000, 1000, 1000, 0),
+    /** InspIRCd, which applies a penalty of about a second per command. */
+    INSPIRCD(8000, 1000, 1000, 0),
+    /** UnrealIRCd, which charges a second per line and a second for each 90 bytes. */
+    UNREAL(9000, 1000, 1000, 1000.0 / 90);
+
+    /** The maximum amount the bucket can hold. */
+    private final double burst;
+    /** The amount added to the bucket each second. */
+    private final double refillRate;
+    /** The fixed cost of each line. */
+    private final double lineCost;
+    /** The additional cost of each byte of a line. */
+    private final double byteCost;
+
+    /**
+     * Creates a new profile.
+     *
+     * @param burst The maximum amount the bucket can hold
+     * @param refillRate The amount added to the bucket each second
+     * @param lineCost The fixed cost of each line
+     * @param byteCost The additional cost of each byte of a line
+     */
+    FloodProfile(final double burst, final double refillRate, final double lineCost,
+            final double byteCost) {
+        this.burst = burst;
+        this.refillRate = refillRate;
+        this.lineCost = lineCost;
+        this.byteCost = byteCost;
+    }
+
+    /**
+     * Gets the maximum amount of allowance the bucket can hold.
+     *
+     * @return The burst size, in milliseconds of penalty
+     */
+    public double getBurst() {
+        return burst;
+    }
+
+    /**
+     * Gets the amount of allowance added to the bucket each second.
+     *
+     * @return The refill rate, in milliseconds of penalty per second
+     */
+    public double getRefillRate() {
+        return refillRate;
+    }
+
+    /**
+     * Gets the fixed cost of each line.
+     *
+     * @return The cost of a line, in milliseconds of penalty
+     */
+    public double getLineCost() {
+        return lineCost;
+    }
+
+    /**
+     * Gets the additional cost of each byte of a line.
+     *
+     * @return The cost of a byte, in milliseconds of penalty
+     */
+    public double getByteCost() {
+        return byteCost;
+    }
+
+    /**
+     * Gets the cost of sending a line of the given length.
+     *
+     * @param bytes The length of the line, in bytes
+     * @return The cost of sending the line
+     */
+    public double getCost(final int bytes) {
+        return lineCost + bytes * byteCost;
+    }
+
+    /**
+     * Gets the default profile for the given type of server.
+     *
+     * @param serverType The type of server
+     * @return The profile to use for that server
+     */
+    public static FloodProfile forServerType(final ServerType serverType) {
+        switch (serverType) {
+            case IRCU2:
+            case IRCU_GENERIC:
+            case IRCHISPANO:
+            case SNIRCD:
+            case ASUKA:
+            case NEFARIOUS:
+            case BIRCD:
+                return IRCU;
+            case HYBRID:
+            case HYBRID7:
+            case OFTC_HYBRID:
+            case SCOUTLINK_HYBRID:
+            case PLEXUS:
+            case IRCD_RIZON:
+            case RATBOX:
+            case CHARYBDIS:
+            case IRCD_SEVEN:
+            case HYPERION:
+            case DANCER:
+            case SHADOW:
+                return HYBRID;
+            case INSPIRCD:
+                return INSPIRCD;
+            case UNREAL:
+            case UNREAL4:
+                return UNREAL;
+            default:
+                return RFC1459;
+        }
+    }
+
+}
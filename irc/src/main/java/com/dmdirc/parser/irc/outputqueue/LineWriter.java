@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes lines to an output stream, coalescing lines sent at the same time into a single write.
+ *
+ * <p>Any number of threads may send lines. Lines are added to a lock-free queue, and whichever
+ * thread finds the writer idle becomes the single writer: it encodes everything pending into
+ * one buffer, which is written and flushed in one go. Lines are always written whole and in the
+ * order they were added to the queue.
+ */
+class LineWriter {
+
+    /** The initial size of the encoding buffer. */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /** The number of bytes after which a batch is written even if more lines are pending. */
+    private static final int MAX_BATCH_SIZE = 64 * 1024;
+    /** The line terminator. */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /** The stream to write to. */
+    private final OutputStream stream;
+    /** The encoder used to encode lines. Only used by the current writer. */
+    private final CharsetEncoder encoder;
+    /** Lines waiting to be written. */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    /** Whether a thread is currently writing. */
+    private final AtomicBoolean writing = new AtomicBoolean();
+    /** Buffer that lines are encoded into, reused for every batch. */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Creates a new line writer.
+     *
+     * @param stream The stream to write to
+     * @param charset The charset to encode lines with
+     */
+    LineWriter(final OutputStream stream, final Charset charset) {
+        this.stream = stream;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Writes a line, adding a line terminator. If another thread is currently writing, the
+     * line is left for that thread to write and this method returns immediately.
+     *
+     * @param line The line to write
+     */
+    void writeLine(final String line) {
+        pending.add(line);
+        while (!pending.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                drain();
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending lines. Must only be called by the current writer.
+     */
+    private void drain() {
+        try {
+            String line;
+            while ((line = pending.poll()) != null) {
+                encode(line);
+                if (buffer.position() >= MAX_BATCH_SIZE) {
+                    write();
+                }
+            }
+            write();
+            stream.flush();
+        } catch (IOException ex) {
+            // Write errors are ignored here, as they always have been. A broken connection
+            // will be noticed (and closed) by the reading side.
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Encodes a line and its terminator into the buffer.
+     *
+     * @param line The line to encode
+     */
+    private void encode(final String line) throws IOException {
+        final int needed = (int) Math.ceil(line.length() * encoder.maxBytesPerChar()) + CRLF.length;
+        if (buffer.remaining() < needed) {
+            write();
+            if (buffer.capacity() < needed) {
+                buffer = ByteBuffer.allocate(needed);
+            }
+        }
+
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(line), buffer, true);
+        encoder.flush(buffer);
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Writes the contents of the buffer to the stream, and clears it.
+     */
+    private void write() throws IOException {
+        if (buffer.position() > 0) {
+            stream.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            buffer.clear();
+        }
+    }
+
+}
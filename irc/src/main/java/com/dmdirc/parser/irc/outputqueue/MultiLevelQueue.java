@@ -0,0 +1,749 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import com.dmdirc.parser.common.QueuePriority;
+
+import java.time.Duration;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * A blocking queue of {@link QueueItem}s with a separate FIFO for each {@link QueuePriority}.
+ *
+ * <p>Items are taken from the highest priority FIFO that isn't empty, so adding and taking items
+ * are constant-time operations. To stop lower priority items being held indefinitely, any item
+ * that has been queued for longer than the starvation threshold is taken first, oldest first,
+ * regardless of its priority. Starvation is checked against the time each item was queued when
+ * it is taken, so the order is always well defined.
+ *
+ * <p>If fair queuing is enabled, items within each priority are further grouped by their target
+ * (the channel or user a {@code PRIVMSG}, {@code NOTICE}, {@code MODE} or {@code KICK} is sent to),
+ * and the groups are served round-robin. A long burst of lines to one target then only delays
+ * lines to other targets by one line each, instead of holding them all back.
+ *
+ * <p>The queue also keeps per-priority metrics about queue depth and waiting times.
+ */
+public class MultiLevelQueue extends AbstractQueue<QueueItem> implements BlockingQueue<QueueItem> {
+
+    /** The number of priority levels. */
+    private static final int LEVELS = QueuePriority.values().length;
+    /** The group used for lines without a target, and for all lines if fair queuing is off. */
+    private static final String NO_TARGET = "";
+    /** Commands whose first parameter is used as the target for fair queuing. */
+    private static final String[] TARGETED_COMMANDS = {"PRIVMSG", "NOTICE", "MODE", "KICK"};
+
+    /** Lock guarding all state. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Condition signalled when an item is added. */
+    private final Condition notEmpty = lock.newCondition();
+    /** Queued entries, indexed by priority. */
+    private final Level[] levels = new Level[LEVELS];
+    /** The number of items taken from each level. */
+    private final long[] taken = new long[LEVELS];
+    /** The total time items taken from each level spent waiting, in nanoseconds. */
+    private final long[] totalWait = new long[LEVELS];
+    /** The longest time an item taken from each level spent waiting, in nanoseconds. */
+    private final long[] maxWait = new long[LEVELS];
+    /** The starvation threshold, in nanoseconds. */
+    private final long threshold;
+    /** Source of the current time, in nanoseconds. */
+    private final LongSupplier clock;
+    /** The entry most recently taken, so that its wait continues if it is put back. */
+    @Nullable private Entry lastTaken;
+    /** How long {@link #lastTaken} waited, in nanoseconds. */
+    private long lastTakenWait;
+    /** The total number of queued items. */
+    private int size;
+    /** Whether items are grouped by target and served round-robin. */
+    private boolean fairQueuing;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param starvationThreshold The time an item must be queued for to be considered starved.
+     */
+    public MultiLevelQueue(final Duration starvationThreshold) {
+        this(starvationThreshold, System::nanoTime);
+    }
+
+    /**
+     * Creates a new queue.
+     *
+     * @param starvationThreshold The time an item must be queued for to be considered starved.
+     * @param clock Source of the current time, in nanoseconds.
+     */
+    MultiLevelQueue(final Duration starvationThreshold, final LongSupplier clock) {
+        this.threshold = starvationThreshold.toNanos();
+        this.clock = clock;
+        for (int i = 0; i < LEVELS; i++) {
+            levels[i] = new Level();
+        }
+    }
+
+    /**
+     * Determines whether fair queuing is enabled.
+     *
+     * @return True if items are grouped by target and served round-robin.
+     */
+    public boolean isFairQueuing() {
+        lock.lock();
+        try {
+            return fairQueuing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets whether items within each priority are grouped by target and served round-robin.
+     * Items already queued are regrouped.
+     *
+     * @param fairQueuing True to enable fair queuing.
+     */
+    public void setFairQueuing(final boolean fairQueuing) {
+        lock.lock();
+        try {
+            if (this.fairQueuing == fairQueuing) {
+                return;
+            }
+            this.fairQueuing = fairQueuing;
+            for (Level level : levels) {
+                final List<Entry> entries = level.getEntries();
+                level.clear();
+                for (Entry entry : entries) {
+                    level.add(entry, getGroup(entry.item), false);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final QueueItem item) {
+        lock.lock();
+        try {
+            final boolean putBack = lastTaken != null && lastTaken.item == item;
+            final Entry entry = putBack ? restoreLastTaken() : new Entry(item, clock.getAsLong());
+            levels[item.getPriority().ordinal()].add(entry, getGroup(item), putBack);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final QueueItem item) {
+        offer(item);
+    }
+
+    @Override
+    public boolean offer(final QueueItem item, final long timeout, final TimeUnit unit) {
+        return offer(item);
+    }
+
+    @Override
+    public QueueItem take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public QueueItem poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public QueueItem poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public QueueItem peek() {
+        lock.lock();
+        try {
+            return size == 0 ? null : next(clock.getAsLong()).item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        lock.lock();
+        try {
+            for (Level level : levels) {
+                for (Entry entry : level.getEntries()) {
+                    if (entry.item.equals(o)) {
+                        level.remove(entry);
+                        size--;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for (Level level : levels) {
+                level.clear();
+            }
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super QueueItem> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super QueueItem> c, final int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (size > 0 && count < maxElements) {
+                c.add(dequeue());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The iterator works on a snapshot of the queue, highest priority first.
+     */
+    @Override
+    public Iterator<QueueItem> iterator() {
+        final List<QueueItem> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Level level : levels) {
+                level.getEntries().forEach(entry -> snapshot.add(entry.item));
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<QueueItem> iterator = snapshot.iterator();
+        return new Iterator<QueueItem>() {
+            private QueueItem current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public QueueItem next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                MultiLevelQueue.this.remove(current);
+            }
+        };
+    }
+
+    /**
+     * Gets the number of items currently queued at the given priority.
+     *
+     * @param priority The priority to check.
+     * @return The number of queued items.
+     */
+    public int getDepth(final QueuePriority priority) {
+        lock.lock();
+        try {
+            return levels[priority.ordinal()].size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of distinct targets with items queued at the given priority. If fair
+     * queuing is disabled, this is at most one.
+     *
+     * @param priority The priority to check.
+     * @return The number of targets with queued items.
+     */
+    public int getTargetCount(final QueuePriority priority) {
+        lock.lock();
+        try {
+            return levels[priority.ordinal()].groups.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of items that have been taken from the queue at the given priority.
+     *
+     * @param priority The priority to check.
+     * @return The number of items taken.
+     */
+    public long getTakenCount(final QueuePriority priority) {
+        lock.lock();
+        try {
+            return taken[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the average time items taken from the queue at the given priority spent waiting.
+     *
+     * @param priority The priority to check.
+     * @param unit The unit to return the time in.
+     * @return The average waiting time, or 0 if no items have been taken.
+     */
+    public long getAverageWait(final QueuePriority priority, final TimeUnit unit) {
+        lock.lock();
+        try {
+            final int index = priority.ordinal();
+            return taken[index] == 0 ? 0
+                    : unit.convert(totalWait[index] / taken[index], TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the longest time an item taken from the queue at the given priority spent waiting.
+     *
+     * @param priority The priority to check.
+     * @param unit The unit to return the time in.
+     * @return The longest waiting time, or 0 if no items have been taken.
+     */
+    public long getMaxWait(final QueuePriority priority, final TimeUnit unit) {
+        lock.lock();
+        try {
+            return unit.convert(maxWait[priority.ordinal()], TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how long the oldest item currently queued at the given priority has been waiting.
+     *
+     * @param priority The priority to check.
+     * @param unit The unit to return the time in.
+     * @return The waiting time of the oldest item, or 0 if there are no items queued.
+     */
+    public long getOldestWait(final QueuePriority priority, final TimeUnit unit) {
+        lock.lock();
+        try {
+            final Entry oldest = levels[priority.ordinal()].getOldest();
+            return oldest == null ? 0
+                    : unit.convert(clock.getAsLong() - oldest.queued, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the target of a line, for the purposes of fair queuing.
+     *
+     * @param line The line to be sent.
+     * @return The lower-cased first parameter of a targeted command, or an empty string.
+     */
+    static String getTarget(final String line) {
+        int start = 0;
+        if (line.startsWith(":")) {
+            start = line.indexOf(' ') + 1;
+            if (start == 0) {
+                return NO_TARGET;
+            }
+        }
+        final int commandEnd = line.indexOf(' ', start);
+        if (commandEnd == -1 || !isTargetedCommand(line, start, commandEnd - start)) {
+            return NO_TARGET;
+        }
+        final int targetEnd = line.indexOf(' ', commandEnd + 1);
+        return line.substring(commandEnd + 1, targetEnd == -1 ? line.length() : targetEnd)
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Determines whether the command at the given position is one of the
+     * {@link #TARGETED_COMMANDS}.
+     */
+    private static boolean isTargetedCommand(final String line, final int offset,
+            final int length) {
+        for (String command : TARGETED_COMMANDS) {
+            if (command.length() == length && line.regionMatches(true, offset, command, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the group an item should be placed in.
+     */
+    private String getGroup(final QueueItem item) {
+        return fairQueuing ? getTarget(item.getLine()) : NO_TARGET;
+    }
+
+    /**
+     * Reinstates the entry most recently taken, which is being put back. It keeps its original
+     * queue time, and isn't counted as having been taken.
+     */
+    private Entry restoreLastTaken() {
+        final Entry entry = lastTaken;
+        final int index = entry.item.getPriority().ordinal();
+        taken[index]--;
+        totalWait[index] -= lastTakenWait;
+        lastTaken = null;
+        return entry;
+    }
+
+    /**
+     * Finds the entry which should be taken next. The lock must be held and the queue must not
+     * be empty.
+     *
+     * @param now The current time, in nanoseconds.
+     * @return The next entry.
+     */
+    private Entry next(final long now) {
+        Entry first = null;
+        Entry starved = null;
+        for (Level level : levels) {
+            if (level.size == 0) {
+                continue;
+            }
+            if (first == null) {
+                first = level.getNext();
+            }
+            final Entry oldest = level.getOldest();
+            if (now - oldest.queued >= threshold && (starved == null
+                    || oldest.item.getItemNumber() < starved.item.getItemNumber())) {
+                starved = oldest;
+            }
+        }
+        return starved == null ? first : starved;
+    }
+
+    /**
+     * Removes and returns the next item, updating the metrics. The lock must be held and the
+     * queue must not be empty.
+     */
+    private QueueItem dequeue() {
+        final long now = clock.getAsLong();
+        final Entry entry = next(now);
+        final int index = entry.item.getPriority().ordinal();
+        levels[index].take(entry);
+        size--;
+
+        final long wait = now - entry.queued;
+        taken[index]++;
+        totalWait[index] += wait;
+        maxWait[index] = Math.max(maxWait[index], wait);
+        lastTaken = entry;
+        lastTakenWait = wait;
+        return entry.item;
+    }
+
+    /**
+     * Inserts an entry into a deque in item number order. New entries are added at the end and
+     * entries that are put back at the start, so only entries regrouped out of order need the
+     * deque to be rebuilt.
+     */
+    private static void insertOrdered(final Deque<Entry> deque, final Entry entry) {
+        final long number = entry.item.getItemNumber();
+        final Entry last = deque.peekLast();
+        if (last == null || last.item.getItemNumber() < number) {
+            deque.addLast(entry);
+        } else if (deque.peekFirst().item.getItemNumber() > number) {
+            // Items that are put back end up here.
+            deque.addFirst(entry);
+        } else {
+            final List<Entry> entries = new ArrayList<>(deque);
+            int index = 0;
+            while (index < entries.size() && entries.get(index).item.getItemNumber() < number) {
+                index++;
+            }
+            entries.add(index, entry);
+            deque.clear();
+            deque.addAll(entries);
+        }
+    }
+
+    /**
+     * The items queued at a single priority.
+     */
+    private static final class Level {
+
+        /**
+         * All entries in queue order, including removed entries not yet discarded. A taken
+         * entry stays in place until it reaches the front, so if it is put back before then it
+         * only needs to be marked as queued again.
+         */
+        private final Deque<Entry> fifo = new ArrayDeque<>();
+        /** Groups of entries, by target. */
+        private final Map<String, Group> groups = new HashMap<>();
+        /** Groups with entries, in the order they will be served. */
+        private final Deque<Group> ring = new ArrayDeque<>();
+        /** The number of entries queued. */
+        private int size;
+
+        /**
+         * Adds an entry to this level.
+         *
+         * @param entry The entry to add.
+         * @param key The group to add it to.
+         * @param putBack Whether the entry is being put back after being taken, in which case
+         * its group is served next.
+         */
+        void add(final Entry entry, final String key, final boolean putBack) {
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(key);
+                groups.put(key, group);
+                ring.addLast(group);
+            }
+            if (putBack && ring.peekFirst() != group) {
+                ring.remove(group);
+                ring.addFirst(group);
+            }
+            entry.group = group;
+            entry.removed = false;
+            insertOrdered(group.entries, entry);
+            if (!entry.inFifo) {
+                insertOrdered(fifo, entry);
+                entry.inFifo = true;
+            }
+            size++;
+        }
+
+        /**
+         * Gets the entry to take next in round-robin order.
+         *
+         * @return The head of the group at the front of the ring.
+         */
+        Entry getNext() {
+            return ring.peekFirst().entries.peekFirst();
+        }
+
+        /**
+         * Gets the oldest entry in this level.
+         *
+         * @return The oldest entry, or null if the level is empty.
+         */
+        @Nullable
+        Entry getOldest() {
+            while (!fifo.isEmpty() && fifo.peekFirst().removed) {
+                fifo.pollFirst().inFifo = false;
+            }
+            return fifo.peekFirst();
+        }
+
+        /**
+         * Takes the given entry, which must be the head of its group, and moves on to the
+         * next group if it was taken in round-robin order.
+         *
+         * @param entry The entry to take.
+         */
+        void take(final Entry entry) {
+            final Group group = entry.group;
+            final boolean inTurn = ring.peekFirst() == group;
+            group.entries.pollFirst();
+            entry.removed = true;
+            size--;
+            if (group.entries.isEmpty()) {
+                groups.remove(group.key);
+                ring.remove(group);
+            } else if (inTurn) {
+                ring.addLast(ring.pollFirst());
+            }
+            getOldest();
+        }
+
+        /**
+         * Removes an arbitrary entry from this level.
+         *
+         * @param entry The entry to remove.
+         */
+        void remove(final Entry entry) {
+            final Group group = entry.group;
+            group.entries.remove(entry);
+            entry.removed = true;
+            size--;
+            if (group.entries.isEmpty()) {
+                groups.remove(group.key);
+                ring.remove(group);
+            }
+        }
+
+        /**
+         * Gets all entries in this level, in queue order.
+         *
+         * @return A list of the queued entries.
+         */
+        List<Entry> getEntries() {
+            final List<Entry> entries = new ArrayList<>(size);
+            for (Entry entry : fifo) {
+                if (!entry.removed) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * Removes all entries from this level.
+         */
+        void clear() {
+            fifo.forEach(entry -> entry.inFifo = false);
+            fifo.clear();
+            groups.clear();
+            ring.clear();
+            size = 0;
+        }
+
+    }
+
+    /**
+     * The queued entries for a single target.
+     */
+    private static final class Group {
+
+        /** The target of the group's entries. */
+        private final String key;
+        /** The queued entries, in queue order. */
+        private final Deque<Entry> entries = new ArrayDeque<>();
+
+        /**
+         * Creates a new group.
+         *
+         * @param key The target of the group's entries.
+         */
+        private Group(final String key) {
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * An item in the queue, along with the time it was queued.
+     */
+    private static final class Entry {
+
+        /** The queued item. */
+        private final QueueItem item;
+        /** The time the item was queued, in nanoseconds. */
+        private final long queued;
+        /** The group the entry is in. */
+        private Group group;
+        /** Whether the entry has been taken or removed from the queue. */
+        private boolean removed;
+        /** Whether the entry is still in its level's FIFO, even if it has been taken. */
+        private boolean inFifo;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param item The queued item.
+         * @param queued The time the item was queued, in nanoseconds.
+         */
+        private Entry(final QueueItem item, final long queued) {
+            this.item = item;
+            this.queued = queued;
+        }
+
+    }
+
+}
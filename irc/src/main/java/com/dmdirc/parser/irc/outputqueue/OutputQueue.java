@@ -22,21 +22,29 @@
 
 package com.dmdirc.parser.irc.outputqueue;
 
+import com.dmdirc.parser.common.HashedWheelTimer;
 import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.irc.ServerType;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.Comparator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.Nullable;
 
 /**
  * This class handles the Parser output Queue.
  */
 public abstract class OutputQueue {
 
-    /** PrintWriter for sending output. */
-    private PrintWriter out;
+    /** Writer for sending output. */
+    private volatile LineWriter out;
+    /** Charset used to encode lines. */
+    private volatile Charset charset = Charset.defaultCharset();
     /** Is queueing enabled? */
     private boolean queueEnabled = true;
     /** Are we discarding all futher input? */
@@ -45,6 +53,14 @@ public abstract class OutputQueue {
     private final BlockingQueue<QueueItem> queue;
     /** The thread on which we will send items. */
     private Thread sendingThread;
+    /** Lock held while sending items without a sending thread. */
+    private final Object sendLock = new Object();
+    /** Timer used to wait for rate limits, or null to send items on a dedicated thread. */
+    @Nullable private volatile HashedWheelTimer sendTimer;
+    /** Check for whether the output stream can currently accept more data. */
+    private volatile BooleanSupplier writable = () -> true;
+    /** The pending timer task that will resume sending, if any. */
+    @Nullable private HashedWheelTimer.Timeout sendTimeout;
 
     /**
      * Creates a new instance of {@link OutputQueue} that will sort items using the given
@@ -53,7 +69,16 @@ public abstract class OutputQueue {
      * @param itemComparator The comparator to use to sort queued items.
      */
     protected OutputQueue(final Comparator<QueueItem> itemComparator) {
-        queue = new PriorityBlockingQueue<>(10, itemComparator);
+        this(new PriorityBlockingQueue<>(10, itemComparator));
+    }
+
+    /**
+     * Creates a new instance of {@link OutputQueue} that will hold items in the given queue.
+     *
+     * @param queue The queue to hold items waiting to be sent.
+     */
+    protected OutputQueue(final BlockingQueue<QueueItem> queue) {
+        this.queue = queue;
     }
 
     /**
@@ -62,7 +87,66 @@ public abstract class OutputQueue {
      * @param outputStream Output Stream to use.
      */
     public void setOutputStream(final OutputStream outputStream) {
-        out = new PrintWriter(outputStream, true);
+        setOutputStream(outputStream, Charset.defaultCharset());
+    }
+
+    /**
+     * Set the output stream for this queue.
+     *
+     * @param outputStream Output Stream to use.
+     * @param charset Charset to encode lines with.
+     */
+    public void setOutputStream(final OutputStream outputStream, final Charset charset) {
+        this.charset = charset;
+        out = new LineWriter(outputStream, charset);
+    }
+
+    /**
+     * Sends queued items using the given timer, instead of starting a dedicated thread. Items
+     * are sent by whichever thread queues them, or by the timer once a rate limit allows; no
+     * thread ever waits. This should only be used with a non-blocking output stream, as it is
+     * written to from the shared timer thread.
+     *
+     * <p>While the given check returns false, items are left in the queue. Once the stream can
+     * accept data again, {@link #resumeSending()} must be called.
+     *
+     * <p>Queues which don't override {@link #sendAvailableItems()} always use a thread.
+     *
+     * @param timer The timer to use, or null to use a dedicated thread.
+     * @param writable Check for whether the output stream can accept more data.
+     */
+    public void setSendTimer(@Nullable final HashedWheelTimer timer,
+            final BooleanSupplier writable) {
+        this.writable = writable;
+        this.sendTimer = timer;
+    }
+
+    /**
+     * Resumes sending items after the output stream was unable to accept more data.
+     */
+    public void resumeSending() {
+        if (sendTimer != null) {
+            pumpQueuedItems();
+        }
+    }
+
+    /**
+     * Gets the charset used to encode lines.
+     *
+     * @return The charset used to encode lines.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Called when the type of server being connected to becomes known. Implementations may use
+     * this to adjust their behaviour to suit the server; by default it is ignored.
+     *
+     * @param serverType The type of the server.
+     */
+    public void setServerType(final ServerType serverType) {
+        // Do nothing by default
     }
 
     /**
@@ -96,10 +180,11 @@ public abstract class OutputQueue {
                 sendingThread.interrupt();
                 sendingThread = null;
             }
+            cancelSendTimeout();
 
             while (!queue.isEmpty()) {
                 try {
-                    out.printf("%s\r\n", queue.take().getLine());
+                    out.writeLine(queue.take().getLine());
                 } catch (InterruptedException ex) {
                     // Do nothing, we'll try again.
                 }
@@ -143,6 +228,7 @@ public abstract class OutputQueue {
             sendingThread.interrupt();
             sendingThread = null;
         }
+        cancelSendTimeout();
         queue.clear();
     }
 
@@ -181,14 +267,79 @@ public abstract class OutputQueue {
 
         if (queueEnabled && priority == QueuePriority.IMMEDIATE) {
             send(line);
+        } else if (sendTimer != null) {
+            enqueue(line, priority);
+            pumpQueuedItems();
         } else {
-            if (sendingThread == null || !sendingThread.isAlive()) {
-                sendingThread = new Thread(this::handleQueuedItems, "IRC Parser queue handler");
-                sendingThread.start();
+            startSendingThread();
+            enqueue(line, priority);
+        }
+    }
+
+    /**
+     * Starts the thread used to send queued items, if it isn't already running.
+     */
+    private void startSendingThread() {
+        if (sendingThread == null || !sendingThread.isAlive()) {
+            sendingThread = new Thread(this::handleQueuedItems, "IRC Parser queue handler");
+            sendingThread.start();
+        }
+    }
+
+    /**
+     * Sends whatever queued items may be sent now, and schedules a timer task to carry on if
+     * the rate limit requires a wait. Does nothing if a timer task is already pending.
+     */
+    private void pumpQueuedItems() {
+        final HashedWheelTimer timer = sendTimer;
+        if (timer == null) {
+            return;
+        }
+
+        synchronized (sendLock) {
+            if (sendTimeout != null) {
+                return;
+            }
+            final long wait = sendAvailableItems();
+            if (wait < 0) {
+                startSendingThread();
+            } else if (wait > 0) {
+                sendTimeout = timer.schedule(this::handleSendTimeout, wait,
+                        TimeUnit.MILLISECONDS);
             }
+        }
+    }
 
-            enqueue(line, priority);
+    /**
+     * Called by the timer once the rate limit may allow more items to be sent.
+     */
+    private void handleSendTimeout() {
+        synchronized (sendLock) {
+            sendTimeout = null;
         }
+        pumpQueuedItems();
+    }
+
+    /**
+     * Cancels any pending timer task that would resume sending.
+     */
+    private void cancelSendTimeout() {
+        synchronized (sendLock) {
+            if (sendTimeout != null) {
+                sendTimeout.cancel();
+                sendTimeout = null;
+            }
+        }
+    }
+
+    /**
+     * Determines whether the output stream can currently accept more data. Implementations
+     * of {@link #sendAvailableItems()} should stop sending when this returns false.
+     *
+     * @return True if more items may be sent.
+     */
+    protected boolean isWritable() {
+        return writable.getAsBoolean();
     }
 
     /**
@@ -198,6 +349,22 @@ public abstract class OutputQueue {
      */
     protected abstract void handleQueuedItems();
 
+    /**
+     * Sends as many queued items as may be sent now, without blocking or waiting. This is
+     * used instead of {@link #handleQueuedItems()} when a send timer has been set, and is
+     * never called concurrently.
+     *
+     * <p>The default implementation sends nothing and returns -1, so that a dedicated thread
+     * is used instead.
+     *
+     * @return 0 if nothing more can be sent until more items are queued or the stream becomes
+     * writable, otherwise the number of milliseconds to wait before calling this again, or -1
+     * if this queue needs a dedicated thread.
+     */
+    protected long sendAvailableItems() {
+        return -1;
+    }
+
     /**
      * Enqueues a new line to be sent.
      *
@@ -211,14 +378,19 @@ public abstract class OutputQueue {
     /**
      * Sends a line immediately to the server.
      *
+     * <p>This may be called from any thread. Lines sent concurrently are written one at a time,
+     * and lines sent while another thread is writing are written by that thread along with its
+     * own, so they reach the server in a single write.
+     *
      * @param line The line to be sent.
      */
     protected void send(final String line) {
-        if (out == null) {
+        final LineWriter writer = out;
+        if (writer == null) {
             throw new IllegalStateException("No output stream has been set.");
         }
 
-        out.printf("%s\r\n", line);
+        writer.writeLine(line);
     }
 
 
@@ -33,7 +33,16 @@ public class PriorityOutputQueue extends OutputQueue {
      * Create a new PriorityOutputQueue.
      */
     public PriorityOutputQueue() {
-        super(QueueComparators.byPriorityThenNumber(Duration.ofSeconds(10)));
+        super(new MultiLevelQueue(Duration.ofSeconds(10)));
+    }
+
+    /**
+     * Gets the queue of items waiting to be sent, which provides per-priority metrics.
+     *
+     * @return This queue's backing queue.
+     */
+    public MultiLevelQueue getMultiLevelQueue() {
+        return (MultiLevelQueue) getQueue();
     }
 
     @Override
@@ -47,4 +56,13 @@ public class PriorityOutputQueue extends OutputQueue {
         }
     }
 
+    @Override
+    protected long sendAvailableItems() {
+        QueueItem item;
+        while (isQueueEnabled() && isWritable() && (item = getQueue().poll()) != null) {
+            send(item.getLine());
+        }
+        return 0;
+    }
+
 }
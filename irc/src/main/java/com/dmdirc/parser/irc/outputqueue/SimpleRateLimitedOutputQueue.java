@@ -207,4 +207,22 @@ public class SimpleRateLimitedOutputQueue extends OutputQueue {
         }
     }
 
+    @Override
+    protected long sendAvailableItems() {
+        QueueItem item;
+        while (isQueueEnabled() && isWritable() && (item = getQueue().poll()) != null) {
+            send(item.getLine());
+
+            synchronized (this) {
+                if (isLimiting) {
+                    if (getQueue().isEmpty()) {
+                        isLimiting = false;
+                    }
+                    return waitTime;
+                }
+            }
+        }
+        return 0;
+    }
+
 }
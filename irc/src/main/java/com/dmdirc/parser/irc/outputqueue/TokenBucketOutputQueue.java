@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.irc.ServerType;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A rate limiting queue which models the penalty-based flood control used by ircds.
+ *
+ * <p>Lines are sent while there is allowance left in a token bucket, which refills over time.
+ * Each line costs a fixed amount plus an amount for each byte, as defined by a
+ * {@link FloodProfile}. Unless a profile is set explicitly, one suitable for the server is chosen
+ * once the server type is known.
+ */
+public class TokenBucketOutputQueue extends OutputQueue {
+
+    /** Lock used to signal the arrival of new items. */
+    private final Lock arrivalLock = new ReentrantLock();
+    /** Condition signalled when new items are queued. */
+    private final Condition arrived = arrivalLock.newCondition();
+    /** The flood profile in use. */
+    private FloodProfile profile;
+    /** Whether the profile was set explicitly, rather than chosen for the server type. */
+    private boolean profileSet;
+    /** The allowance remaining in the bucket. */
+    private double available;
+    /** The time the bucket was last refilled, in nanoseconds. */
+    private long lastRefill;
+    /** Multiplier applied to the profile's refill rate. */
+    private double rateScale = 1;
+    /** The number of times a line has had to wait for allowance. */
+    private long throttledCount;
+
+    /**
+     * Creates a new TokenBucketOutputQueue, which will use the RFC1459 profile until the server
+     * type is known.
+     */
+    public TokenBucketOutputQueue() {
+        this(FloodProfile.RFC1459, false);
+    }
+
+    /**
+     * Creates a new TokenBucketOutputQueue which will always use the given profile.
+     *
+     * @param profile The flood profile to use.
+     */
+    public TokenBucketOutputQueue(final FloodProfile profile) {
+        this(profile, true);
+    }
+
+    /**
+     * Creates a new TokenBucketOutputQueue.
+     *
+     * @param profile The flood profile to use.
+     * @param profileSet Whether the profile was set explicitly.
+     */
+    private TokenBucketOutputQueue(final FloodProfile profile, final boolean profileSet) {
+        super(new MultiLevelQueue(Duration.ofSeconds(10)));
+        this.profile = profile;
+        this.profileSet = profileSet;
+        this.available = profile.getBurst();
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Gets the queue of items waiting to be sent, which provides per-priority metrics.
+     *
+     * @return This queue's backing queue.
+     */
+    public MultiLevelQueue getMultiLevelQueue() {
+        return (MultiLevelQueue) getQueue();
+    }
+
+    /**
+     * Gets the flood profile in use.
+     *
+     * @return The current flood profile.
+     */
+    public synchronized FloodProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the flood profile to use. Once set, the profile is no longer changed to suit the
+     * server type.
+     *
+     * @param profile The flood profile to use.
+     */
+    public synchronized void setProfile(final FloodProfile profile) {
+        this.profileSet = true;
+        changeProfile(profile);
+    }
+
+    @Override
+    public synchronized void setServerType(final ServerType serverType) {
+        if (!profileSet) {
+            changeProfile(FloodProfile.forServerType(serverType));
+        }
+    }
+
+    /**
+     * Gets the multiplier applied to the profile's refill rate.
+     *
+     * @return The current rate multiplier.
+     */
+    public synchronized double getRateScale() {
+        return rateScale;
+    }
+
+    /**
+     * Sets a multiplier to apply to the profile's refill rate, allowing the rate to be tuned at
+     * runtime without changing the profile.
+     *
+     * @param rateScale The new rate multiplier, which must be positive.
+     */
+    public synchronized void setRateScale(final double rateScale) {
+        if (rateScale <= 0) {
+            throw new IllegalArgumentException("Rate scale must be positive");
+        }
+        refill(System.nanoTime());
+        this.rateScale = rateScale;
+    }
+
+    /**
+     * Gets the effective refill rate, after applying the rate multiplier.
+     *
+     * @return The refill rate, in milliseconds of penalty per second.
+     */
+    public synchronized double getRefillRate() {
+        return profile.getRefillRate() * rateScale;
+    }
+
+    /**
+     * Empties the bucket, so that nothing further is sent until it has refilled.
+     */
+    public synchronized void clearAllowance() {
+        refill(System.nanoTime());
+        available = Math.min(available, 0);
+    }
+
+    /**
+     * Gets the number of times a line has had to wait for allowance. A count that keeps rising
+     * means lines are being queued faster than the rate limit allows.
+     *
+     * @return The number of times the queue has waited for allowance.
+     */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Gets the allowance currently remaining in the bucket.
+     *
+     * @return The remaining allowance, in milliseconds of penalty.
+     */
+    public synchronized double getAvailable() {
+        refill(System.nanoTime());
+        return available;
+    }
+
+    @Override
+    protected void enqueue(final String line, final QueuePriority priority) {
+        super.enqueue(line, priority);
+
+        arrivalLock.lock();
+        try {
+            arrived.signalAll();
+        } finally {
+            arrivalLock.unlock();
+        }
+    }
+
+    @Override
+    protected void handleQueuedItems() {
+        try {
+            while (isQueueEnabled()) {
+                final QueueItem item = getQueue().take();
+                final long wait = reserve(getByteLength(item.getLine()), System.nanoTime());
+                if (wait == 0) {
+                    send(item.getLine());
+                    continue;
+                }
+
+                // Put the item back so that anything more urgent queued while we wait for
+                // allowance can overtake it, and wait until either there's enough allowance or
+                // a new item arrives.
+                arrivalLock.lock();
+                try {
+                    getQueue().add(item);
+                    arrived.await(wait, TimeUnit.MILLISECONDS);
+                } finally {
+                    arrivalLock.unlock();
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Do nothing
+        }
+    }
+
+    @Override
+    protected long sendAvailableItems() {
+        QueueItem item;
+        while (isQueueEnabled() && isWritable() && (item = getQueue().poll()) != null) {
+            final long wait = reserve(getByteLength(item.getLine()), System.nanoTime());
+            if (wait != 0) {
+                getQueue().add(item);
+                return wait;
+            }
+            send(item.getLine());
+        }
+        return 0;
+    }
+
+    /**
+     * Attempts to take allowance for sending a line from the bucket.
+     *
+     * <p>A line that costs more than the burst size is sent once the bucket is full, leaving the
+     * bucket in debt.
+     *
+     * @param bytes The length of the line, in bytes.
+     * @param now The current time, in nanoseconds.
+     * @return 0 if the allowance was taken and the line may be sent, otherwise the number of
+     * milliseconds until there will be enough allowance.
+     */
+    synchronized long reserve(final int bytes, final long now) {
+        refill(now);
+        final double cost = profile.getCost(bytes);
+        final double needed = Math.min(cost, profile.getBurst());
+        if (available >= needed) {
+            available -= cost;
+            return 0;
+        }
+        throttledCount++;
+        return Math.max(1, (long) Math.ceil((needed - available) * 1000 / getRefillRate()));
+    }
+
+    /**
+     * Adds the allowance accumulated since the last refill to the bucket.
+     *
+     * @param now The current time, in nanoseconds.
+     */
+    private void refill(final long now) {
+        final double elapsed = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+        if (elapsed > 0) {
+            available = Math.min(profile.getBurst(), available + elapsed * getRefillRate());
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Switches to a new profile, keeping as much of the current allowance as the new burst size
+     * permits.
+     *
+     * @param newProfile The new profile.
+     */
+    private void changeProfile(final FloodProfile newProfile) {
+        refill(System.nanoTime());
+        profile = newProfile;
+        available = Math.min(available, newProfile.getBurst());
+    }
+
+    /**
+     * Gets the number of bytes that will be sent for the given line, including the line
+     * terminator.
+     *
+     * @param line The line to be sent.
+     * @return The encoded length of the line.
+     */
+    private int getByteLength(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) >= 0x80) {
+                return line.getBytes(getCharset()).length + 2;
+            }
+        }
+        return line.length() + 2;
+    }
+
+}
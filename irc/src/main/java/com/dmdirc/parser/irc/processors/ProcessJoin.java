@@ -36,8 +36,6 @@ import com.dmdirc.parser.irc.IRCParser;
 import com.dmdirc.parser.irc.ModeManager;
 import com.dmdirc.parser.irc.PrefixModeManager;
 import com.dmdirc.parser.irc.ProcessorNotFoundException;
-import com.dmdirc.parser.irc.events.IRCDataOutEvent;
-import net.engio.mbassy.listener.Handler;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
@@ -78,7 +76,7 @@ public class ProcessJoin extends IRCProcessor {
         this.userModeManager = userModeManager;
         this.chanModeManager = chanModeManager;
 
-        getCallbackManager().subscribe(this);
+        parser.addOutgoingLineHandler("JOIN", this::handleDataOut);
     }
 
     /**
@@ -90,7 +88,8 @@ public class ProcessJoin extends IRCProcessor {
      */
     @Override
     public void process(final LocalDateTime date, final String sParam, final String... token) {
-        callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: %s | %s", sParam, Arrays.toString(token));
+        callDebugInfo(IRCParser.DEBUG_INFO,
+                () -> "processJoin: " + sParam + " | " + Arrays.toString(token));
 
         if ("329".equals(sParam)) {
             if (token.length < 5) {
@@ -204,13 +203,16 @@ public class ProcessJoin extends IRCProcessor {
         }
     }
 
-    @Handler(condition = "msg.action == 'JOIN'")
-    public void handleDataOut(final IRCDataOutEvent event) {
+    /**
+     * Handles an outgoing JOIN line, recording the keys used for each channel.
+     *
+     * @param newLine The tokenised line being sent
+     */
+    private void handleDataOut(final String... newLine) {
         // As long as this is called before the resulting DataIn
         // Processors fire then this will work, otherwise we'll end
         // up with an out-of-sync pendingJoins list.
 
-        final String[] newLine = event.getTokenisedData();
         if (newLine.length > 1) {
             final Queue<String> keys = new LinkedList<>();
 
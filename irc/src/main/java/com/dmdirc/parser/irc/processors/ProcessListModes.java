@@ -140,6 +140,11 @@ public class ProcessListModes extends IRCProcessor {
             isCleverMode = true;
         }
 
+        if ("482".equals(sParam)) {
+            // Permission denied, possibly for one of the lists we asked for.
+            parser.getListModeScheduler().listRefused(channel);
+        }
+
         // Unknown mode.
         if (mode == ' ') {
             parser.callDebugInfo(IRCParser.DEBUG_LMQ, "Unknown mode line: " + Arrays.toString(token));
@@ -155,7 +160,7 @@ public class ProcessListModes extends IRCProcessor {
                 if (listModeQueue.peek() != null) {
                     final Character oldMode = mode;
                     mode = listModeQueue.peek();
-                    parser.callDebugInfo(IRCParser.DEBUG_LMQ, "LMQ says this is " + mode);
+                    parser.callDebugInfo(IRCParser.DEBUG_LMQ, "LMQ says this is %s", mode);
 
                     boolean error = true;
 
@@ -216,7 +221,7 @@ public class ProcessListModes extends IRCProcessor {
 
             if (!channel.getAddState(mode)) {
                 callDebugInfo(IRCParser.DEBUG_INFO, "New List Mode Batch (" + mode + "): Clearing!");
-                final Collection<ChannelListModeItem> list = channel.getListMode(mode);
+                final Collection<ChannelListModeItem> list = channel.getListModeInternal(mode);
                 if (list == null) {
                     parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got list mode: '" + mode + "' - but channel object doesn't agree.", parser.getLastLine()));
                 } else {
@@ -227,7 +232,7 @@ public class ProcessListModes extends IRCProcessor {
 
                         if (!channel.getAddState(otherMode)) {
                             callDebugInfo(IRCParser.DEBUG_INFO, "New List Mode Batch (" + mode + "): Clearing!");
-                            final Collection<ChannelListModeItem> otherList = channel.getListMode(otherMode);
+                            final Collection<ChannelListModeItem> otherList = channel.getListModeInternal(otherMode);
                             if (otherList == null) {
                                 parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got list mode: '" + otherMode + "' - but channel object doesn't agree.", parser.getLastLine()));
                             } else {
@@ -263,6 +268,11 @@ public class ProcessListModes extends IRCProcessor {
         } else {
             callDebugInfo(IRCParser.DEBUG_INFO, "List Mode Batch over");
             channel.resetAddState();
+            if (isCleverMode) {
+                parser.getListModeScheduler().complete(channel);
+            } else {
+                parser.getListModeScheduler().listEnded(channel, mode);
+            }
             if (isCleverMode || listModeQueue == null || listModeQueue.isEmpty()) {
                 callDebugInfo(IRCParser.DEBUG_INFO, "Calling GotListModes");
                 channel.setHasGotListModes(true);
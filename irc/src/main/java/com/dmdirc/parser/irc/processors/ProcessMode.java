@@ -192,8 +192,8 @@ public class ProcessMode extends IRCProcessor {
                                 " Ignoring (%s)", sModeParam);
                         continue;
                     }
-                    callDebugInfo(IRCParser.DEBUG_INFO, "\tOld Mode Value: %s",
-                            iChannelClientInfo.getAllModes());
+                    callDebugInfo(IRCParser.DEBUG_INFO,
+                            () -> "\tOld Mode Value: " + iChannelClientInfo.getAllModes());
                     if (bPositive) {
                         iChannelClientInfo.addMode(cMode);
                     } else {
@@ -86,8 +86,9 @@ public class ProcessNames extends IRCProcessor {
             callChannelGotNames(time, iChannel);
 
             if (!iChannel.hasAskedForListModes()
-                    && parser.getAutoListMode()) {
-                iChannel.requestListModes();
+                    && parser.getAutoListMode()
+                    && !parser.getListModeScheduler().isLazy()) {
+                parser.requestListModes(iChannel);
             }
         } else {
             // Names
@@ -122,8 +123,7 @@ public class ProcessNames extends IRCProcessor {
                         break;
                     }
                 }
-                callDebugInfo(IRCParser.DEBUG_INFO, "Name: %s Modes: \"%s\"", sName,
-                        sModes.toString());
+                callDebugInfo(IRCParser.DEBUG_INFO, "Name: %s Modes: \"%s\"", sName, sModes);
 
                 IRCClientInfo iClient = getClientInfo(sName);
                 if (iClient == null) {
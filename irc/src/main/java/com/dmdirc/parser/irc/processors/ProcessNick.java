@@ -66,7 +66,7 @@ public class ProcessNick extends IRCProcessor {
         if (iClient == null) {
             return;
         }
-        final String oldNickname = parser.getStringConverter().toLowerCase(iClient.getNickname());
+        final String oldNickname = iClient.getNickname();
         // Remove the client from the known clients list
         final boolean isSameNick = parser.getStringConverter().equalsIgnoreCase(oldNickname, token[token.length - 1]);
 
@@ -83,7 +83,7 @@ public class ProcessNick extends IRCProcessor {
                 parser.addClient(iClient);
             }
 
-            for (IRCChannelInfo iChannel : parser.getChannels()) {
+            for (IRCChannelInfo iChannel : iClient.getChannels()) {
                 // Find the user (using the old nickname)
                 final IRCChannelClientInfo iChannelClient = iChannel.getChannelClient(oldNickname);
                 if (iChannelClient != null) {
@@ -33,7 +33,6 @@ import com.dmdirc.parser.irc.IRCClientInfo;
 import com.dmdirc.parser.irc.IRCParser;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 
 import javax.inject.Inject;
 
@@ -81,8 +80,7 @@ public class ProcessQuit extends IRCProcessor {
             sReason = token[token.length - 1];
         }
 
-        final Iterable<IRCChannelInfo> channelList = new ArrayList<>(parser.getChannels());
-        for (IRCChannelInfo iChannel : channelList) {
+        for (IRCChannelInfo iChannel : iClient.getChannels()) {
             final IRCChannelClientInfo iChannelClient = iChannel.getChannelClient(iClient);
             if (iChannelClient != null) {
                 if (parser.getRemoveAfterCallback()) {
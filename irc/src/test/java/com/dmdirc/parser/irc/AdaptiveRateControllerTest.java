@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.events.ServerErrorEvent;
+import com.dmdirc.parser.events.ServerNoticeEvent;
+import com.dmdirc.parser.irc.outputqueue.FloodProfile;
+import com.dmdirc.parser.irc.outputqueue.TokenBucketOutputQueue;
+
+import java.time.LocalDateTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveRateControllerTest {
+
+    private IRCParser parser;
+    private TokenBucketOutputQueue queue;
+    private AdaptiveRateController controller;
+
+    @Before
+    public void setUp() {
+        parser = new IRCParser();
+        queue = new TokenBucketOutputQueue(FloodProfile.HYBRID);
+        controller = new AdaptiveRateController(parser, queue);
+        controller.start();
+    }
+
+    @After
+    public void tearDown() {
+        controller.stop();
+    }
+
+    @Test
+    public void testFloodErrorHalvesRate() {
+        parser.getCallbackManager().publish(new ServerErrorEvent(parser, LocalDateTime.now(),
+                "Closing Link: example.com (Excess Flood)"));
+        assertEquals(0.5, controller.getRateScale(), 0.001);
+        assertEquals(0.5, controller.getEstimatedRate(), 0.001);
+        assertEquals(1, controller.getDecreaseCount());
+    }
+
+    @Test
+    public void testUnrelatedErrorIgnored() {
+        parser.getCallbackManager().publish(new ServerErrorEvent(parser, LocalDateTime.now(),
+                "Closing Link: example.com (Quit: bye)"));
+        assertEquals(1, controller.getRateScale(), 0.001);
+    }
+
+    @Test
+    public void testThrottleNoticeHalvesRate() {
+        parser.getCallbackManager().publish(new ServerNoticeEvent(parser, LocalDateTime.now(),
+                "*** Message to #channel throttled due to flooding", "irc.example.com"));
+        assertEquals(0.5, controller.getRateScale(), 0.001);
+    }
+
+    @Test
+    public void testOtherFloodNoticesIgnored() {
+        parser.getCallbackManager().publish(new ServerNoticeEvent(parser, LocalDateTime.now(),
+                "*** Notice -- Possible Flooder nick[user@host] on irc.example.com target: #c",
+                "irc.example.com"));
+        parser.getCallbackManager().publish(new ServerNoticeEvent(parser, LocalDateTime.now(),
+                "*** Flood -- nick!user@host (2) exceeds 20 lines/2 seconds",
+                "irc.example.com"));
+        parser.getCallbackManager().publish(new ServerNoticeEvent(parser, LocalDateTime.now(),
+                "This network has flood protection enabled, please don't paste",
+                "irc.example.com"));
+        assertEquals(1, controller.getRateScale(), 0.001);
+        assertEquals(0, controller.getDecreaseCount());
+    }
+
+    @Test
+    public void testTryAgainNumericHalvesRate() {
+        parser.getCallbackManager().publish(new NumericEvent(parser, LocalDateTime.now(), 263,
+                new String[]{":server", "263", "nick", "LIST", "Please wait a while"}));
+        assertEquals(0.5, controller.getRateScale(), 0.001);
+    }
+
+    @Test
+    public void testRepeatedSignalsOnlyDecreaseOnce() {
+        controller.decrease();
+        controller.decrease();
+        assertEquals(0.5, controller.getRateScale(), 0.001);
+        assertEquals(1, controller.getDecreaseCount());
+    }
+
+    @Test
+    public void testIncreasesWhenSaturated() {
+        final TokenBucketOutputQueue mockQueue = mock(TokenBucketOutputQueue.class);
+        when(mockQueue.getRateScale()).thenReturn(0.5);
+        when(mockQueue.getThrottledCount()).thenReturn(0L, 5L);
+        final AdaptiveRateController mockController = new AdaptiveRateController(parser,
+                mockQueue);
+        parser.currentSocketState = SocketState.OPEN;
+
+        mockController.start();
+        mockController.review();
+        mockController.stop();
+
+        verify(mockQueue).setRateScale(0.55);
+    }
+
+    @Test
+    public void testDoesNotIncreaseBeyondProfile() {
+        final TokenBucketOutputQueue mockQueue = mock(TokenBucketOutputQueue.class);
+        when(mockQueue.getRateScale()).thenReturn(1.0);
+        when(mockQueue.getThrottledCount()).thenReturn(0L, 5L);
+        final AdaptiveRateController mockController = new AdaptiveRateController(parser,
+                mockQueue);
+        parser.currentSocketState = SocketState.OPEN;
+
+        mockController.start();
+        mockController.review();
+        mockController.stop();
+
+        verify(mockQueue).setRateScale(1.0);
+        controller.setRateScale(2);
+        assertEquals(1, controller.getRateScale(), 0.001);
+    }
+
+    @Test
+    public void testDoesNotIncreaseWhenIdle() {
+        final TokenBucketOutputQueue mockQueue = mock(TokenBucketOutputQueue.class);
+        when(mockQueue.getThrottledCount()).thenReturn(3L);
+        final AdaptiveRateController mockController = new AdaptiveRateController(parser,
+                mockQueue);
+        parser.currentSocketState = SocketState.OPEN;
+
+        mockController.start();
+        mockController.review();
+        mockController.stop();
+
+        verify(mockQueue, never()).setRateScale(anyDouble());
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CaseMappedMapTest {
+
+    private final AtomicReference<IRCStringConverter> converter =
+            new AtomicReference<>(new IRCStringConverter(IRCEncoding.RFC1459));
+    private final CaseMappedMap<String> map = new CaseMappedMap<>(converter::get);
+
+    @Test
+    public void testLookupIgnoresCase() {
+        map.put("Nick[Away]", "value");
+        assertEquals("value", map.get("nick{away}"));
+        assertEquals("value", map.get("NICK[AWAY]"));
+        assertTrue(map.containsKey("nick{AWAY}"));
+        assertNull(map.get("other"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testPutReplacesExistingKey() {
+        assertNull(map.put("Nick", "one"));
+        assertEquals("one", map.put("NICK", "two"));
+        assertEquals(1, map.size());
+        assertEquals("Nick", map.keySet().iterator().next());
+        assertEquals("two", map.get("nick"));
+    }
+
+    @Test
+    public void testRegionLookup() {
+        map.put("Nick", "value");
+        final String host = ":nick!user@host";
+        assertEquals("value", map.get(host, 1, 5));
+        assertTrue(map.containsKey(host, 1, 5));
+        assertFalse(map.containsKey(host, 1, 4));
+    }
+
+    @Test
+    public void testChangingConverterRehashes() {
+        map.put("Nick^", "value");
+        assertEquals("value", map.get("nick~"));
+        converter.set(new IRCStringConverter(IRCEncoding.ASCII));
+        assertNull(map.get("nick~"));
+        assertEquals("value", map.get("nick^"));
+        converter.set(new IRCStringConverter(IRCEncoding.RFC1459));
+        assertEquals("value", map.get("nick~"));
+    }
+
+    @Test
+    public void testGrowsAndRemoves() {
+        for (int i = 0; i < 100; i++) {
+            map.put("Nick" + i, "value" + i);
+        }
+        assertEquals(100, map.size());
+        assertEquals("value42", map.get("NICK42"));
+        assertEquals("value42", map.remove("nick42"));
+        assertNull(map.get("Nick42"));
+        assertEquals(99, map.size());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        map.put("one", "1");
+        map.put("two", "2");
+        final Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(1, map.size());
+        iterator.next();
+        iterator.remove();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testSnapshotIsUnaffectedByLaterChanges() {
+        map.put("one", "1");
+        map.put("two", "2");
+        final Map<String, String> snapshot = map.snapshot();
+        map.put("three", "3");
+        map.remove("one");
+        map.put("TWO", "two");
+
+        assertEquals(2, snapshot.size());
+        assertEquals("1", snapshot.get("ONE"));
+        assertEquals("2", snapshot.get("two"));
+        assertNull(snapshot.get("three"));
+        assertEquals(2, map.size());
+        assertSame(map.snapshot(), map.snapshot());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        map.put("one", "1");
+        map.snapshot().put("two", "2");
+    }
+
+    @Test
+    public void testKeysWithSameHash() {
+        // "1@" and "2!" have the same hash code
+        map.put("1@", "first");
+        map.put("2!", "second");
+        assertEquals("first", map.get("1@"));
+        assertEquals("second", map.get("2!"));
+        assertEquals(2, map.size());
+
+        assertEquals("first", map.remove("1@"));
+        assertNull(map.get("1@"));
+        assertEquals("second", map.get("2!"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        final Map<String, String> expected = new HashMap<>();
+        final Random random = new Random(1459);
+        for (int i = 0; i < 20000; i++) {
+            final String key = "Nick" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key.toLowerCase()), map.remove(key.toUpperCase()));
+            } else {
+                assertEquals(expected.put(key.toLowerCase(), key), map.put(key, key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        int count = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            assertEquals(expected.get(entry.getKey().toLowerCase()), entry.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+}
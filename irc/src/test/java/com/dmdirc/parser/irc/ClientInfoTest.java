@@ -23,6 +23,10 @@
 package com.dmdirc.parser.irc;
 
 import com.dmdirc.parser.common.AwayState;
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
+
+import java.util.Collection;
+import java.util.List;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -115,4 +119,50 @@ public class ClientInfoTest {
         assertEquals("abc 123 def", ci.getRealname());
     }
 
+    @Test
+    public void testChannelMembership() {
+        final IRCParser parser = new IRCParser();
+        final IRCClientInfo ci = new IRCClientInfo(parser, null, "nick!ident@host");
+        final IRCChannelInfo channel1 = new IRCChannelInfo(parser, null, null, null, "#one");
+        final IRCChannelInfo channel2 = new IRCChannelInfo(parser, null, null, null, "#two");
+
+        final IRCChannelClientInfo cci = channel1.addClient(ci);
+        channel2.addClient(ci);
+        assertSame(cci, channel1.getChannelClient(ci));
+        assertSame(cci, ci.getChannelClient(channel1));
+        assertEquals(2, ci.getChannels().size());
+
+        channel2.delClient(ci);
+        assertNull(channel2.getChannelClient(ci));
+        assertEquals(1, ci.getChannelCount());
+        assertSame(channel1, ci.getChannels().get(0));
+    }
+
+    @Test
+    public void testFakeChannelClientIsNotAMember() {
+        final IRCParser parser = new IRCParser();
+        final IRCChannelInfo channel = new IRCChannelInfo(parser, null, null, null, "#one");
+        final IRCChannelClientInfo cci = channel.getChannelClient("nick!ident@host", true);
+
+        assertNull(channel.getChannelClient(cci.getClient()));
+    }
+
+    @Test
+    public void testMembershipSnapshots() {
+        final IRCParser parser = new IRCParser();
+        final IRCClientInfo ci = new IRCClientInfo(parser, null, "nick!ident@host");
+        final IRCChannelInfo channel = new IRCChannelInfo(parser, null, null, null, "#one");
+        channel.addClient(ci);
+
+        final List<IRCChannelInfo> channels = ci.getChannels();
+        final Collection<ChannelClientInfo> clients = channel.getChannelClients();
+        channel.delClient(ci);
+
+        assertEquals(1, channels.size());
+        assertSame(channel, channels.get(0));
+        assertEquals(1, clients.size());
+        assertTrue(ci.getChannels().isEmpty());
+        assertTrue(channel.getChannelClients().isEmpty());
+    }
+
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.events.DebugInfoEvent;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.outputqueue.OutputQueue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import net.engio.mbassy.listener.Handler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class IRCParserTest {
+
+    @Test
+    public void testDebugDisabledWithoutListeners() {
+        final IRCParser parser = new IRCParser();
+        @SuppressWarnings("unchecked")
+        final Supplier<String> supplier = mock(Supplier.class);
+
+        assertFalse(parser.isDebugEnabled(IRCParser.DEBUG_INFO));
+        parser.callDebugInfo(IRCParser.DEBUG_INFO, supplier);
+        verifyZeroInteractions(supplier);
+    }
+
+    @Test
+    public void testDebugMaskFollowsListeners() {
+        final IRCParser parser = new IRCParser();
+        final DebugListener listener = new DebugListener();
+
+        parser.getCallbackManager().subscribe(listener);
+        assertTrue(parser.isDebugEnabled(IRCParser.DEBUG_INFO));
+        parser.callDebugInfo(IRCParser.DEBUG_INFO, "Test %s", "one");
+        parser.callDebugInfo(IRCParser.DEBUG_SOCKET, () -> "Test two");
+        assertEquals(2, listener.events.size());
+        assertEquals("Test one", listener.events.get(0).getData());
+        assertEquals(IRCParser.DEBUG_SOCKET, listener.events.get(1).getLevel());
+
+        parser.getCallbackManager().unsubscribe(listener);
+        assertFalse(parser.isDebugEnabled(IRCParser.DEBUG_INFO));
+        parser.callDebugInfo(IRCParser.DEBUG_INFO, "Test %s", "three");
+        assertEquals(2, listener.events.size());
+    }
+
+    @Test
+    public void testDebugMaskFiltersLevels() {
+        final IRCParser parser = new IRCParser();
+        final DebugListener listener = new DebugListener();
+        parser.getCallbackManager().subscribe(listener);
+        parser.setDebugMask(IRCParser.DEBUG_SOCKET);
+
+        assertFalse(parser.isDebugEnabled(IRCParser.DEBUG_INFO));
+        assertTrue(parser.isDebugEnabled(IRCParser.DEBUG_SOCKET));
+        @SuppressWarnings("unchecked")
+        final Supplier<String> supplier = mock(Supplier.class);
+        parser.callDebugInfo(IRCParser.DEBUG_INFO, supplier);
+        verifyZeroInteractions(supplier);
+    }
+
+    @Test
+    public void testPingIsAnsweredImmediately() throws IOException {
+        final IRCParser parser = new IRCParser();
+        final OutputQueue queue = mock(OutputQueue.class);
+        parser.setOutputQueue(queue);
+        parser.currentSocketState = SocketState.OPEN;
+
+        parser.processLine(new ReadLine("PING :abc", IRCParser.tokeniseLine("PING :abc")));
+        verify(queue).sendLine("PONG :abc", QueuePriority.IMMEDIATE);
+    }
+
+    @Test
+    public void testGetMaxTargets() {
+        final IRCParser parser = new IRCParser();
+        assertEquals(1, parser.getMaxTargets("PRIVMSG"));
+
+        parser.h005Info.put(IrcConstants.ISUPPORT_MAXIMUM_TARGETS, "4");
+        assertEquals(4, parser.getMaxTargets("privmsg"));
+        assertEquals(1, parser.getMaxTargets("KICK"));
+
+        parser.h005Info.put(IrcConstants.ISUPPORT_TARGET_MAXIMUMS, "PRIVMSG:3,KICK:,WHOIS:1");
+        assertEquals(3, parser.getMaxTargets("PRIVMSG"));
+        assertEquals(Integer.MAX_VALUE, parser.getMaxTargets("KICK"));
+        assertEquals(1, parser.getMaxTargets("NOTICE"));
+    }
+
+    @Test
+    public void testNoticeIsPackedByTargetLimit() throws IOException {
+        final IRCParser parser = new IRCParser();
+        final OutputQueue queue = mock(OutputQueue.class);
+        when(queue.getCharset()).thenReturn(StandardCharsets.UTF_8);
+        parser.setOutputQueue(queue);
+        parser.currentSocketState = SocketState.OPEN;
+        parser.h005Info.put(IrcConstants.ISUPPORT_TARGET_MAXIMUMS, "NOTICE:2");
+
+        parser.sendNotice(Arrays.asList("a", "b", "c"), "hello");
+        verify(queue).sendLine("NOTICE a,b :hello", QueuePriority.NORMAL);
+        verify(queue).sendLine("NOTICE c :hello", QueuePriority.NORMAL);
+    }
+
+    public static class DebugListener {
+
+        private final List<DebugInfoEvent> events = new ArrayList<>();
+
+        @Handler
+        public void handleDebugInfo(final DebugInfoEvent event) {
+            events.add(event);
+        }
+
+    }
+
+}
@@ -169,6 +169,45 @@ public class IRCReaderTest {
         verify(encoder).encode(anyString(), eq("y"), any(), anyInt(), anyInt());
     }
 
+    /** Verifies that the source and destination are found after any message tags. */
+    @Test
+    public void testGetSourceAndDestinationWithTags() throws IOException {
+        final InputStream stream = new ByteArrayInputStream("@a=b;c :src x y :z\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        new IRCReader(stream, encoder).readLine();
+
+        verify(encoder).encode(eq("src"), eq("y"), any(), eq(17), eq(1));
+    }
+
+    /** Verifies that individual tokens can be retrieved. */
+    @Test
+    public void testGetToken() throws IOException {
+        final InputStream stream = new ByteArrayInputStream(" server 001  nick :Hi\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        when(encoder.encode(isNull(), isNull(), any(), anyInt(), anyInt())).thenReturn("Hi");
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertEquals(5, line.getTokenCount());
+        assertEquals("001", line.getToken(2));
+        assertEquals("Hi", line.getToken(4));
+        assertArrayEquals(new String[]{"", "server", "001", "nick", "Hi"}, line.getTokens());
+    }
+
+    /** Verifies that a line consisting only of tags doesn't cause an error. */
+    @Test
+    public void testReaderOnlyTags() throws IOException {
+        final InputStream stream = new ByteArrayInputStream("@a=b\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertArrayEquals(new String[]{""}, line.getTokens());
+        assertEquals("b", line.getTags().get("a"));
+    }
+
     /** Verifies that the close call is proxied to the stream. */
     @Test
     public void testClose() throws IOException {
@@ -183,13 +222,10 @@ public class IRCReaderTest {
     /** Verifies that the reader works with improperly coded unicode. */
     @Test
     public void testHandlesBadCoding() throws IOException {
-        final InputStream stream = mock(InputStream.class);
+        final InputStream stream = new ByteArrayInputStream(new byte[]{':', 's', 'r', 'c', ' ',
+                '1', ' ', (byte) 0xF6, ' ', 'y', ' ', 'z', ' ', ':', 'x', '\r', '\n'});
         final Encoder encoder = mock(Encoder.class);
 
-        when(stream.read()).thenReturn((int) ':', (int) 's', (int) 'r', (int) 'c', (int) ' ',
-                (int) '1', (int) ' ', 0xF6, (int) ' ', (int) 'y', (int) ' ', (int) 'z', (int) ' ',
-                (int) ':', (int) 'x', (int) '\r', (int) '\n');
-
         when(encoder.encode(anyString(), anyString(), any(), anyInt(), anyInt())).thenReturn("x");
 
         final ReadLine line = new IRCReader(stream, encoder, Charset.forName("UTF-8")).readLine();
@@ -197,6 +233,60 @@ public class IRCReaderTest {
         Assert.assertArrayEquals(new String[]{":src", "1", "\uFFFD", "y", "z", "x"}, line.getTokens());
     }
 
+    /** Reads several lines that arrive in a single chunk. */
+    @Test
+    public void testReadsMultipleLines() throws IOException {
+        final InputStream stream = new ByteArrayInputStream("one\r\ntwo\nthree\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final IRCReader reader = new IRCReader(stream, encoder);
+
+        assertEquals("one", reader.readLine().getLine());
+        assertEquals("two", reader.readLine().getLine());
+        assertEquals("three", reader.readLine().getLine());
+        assertNull(reader.readLine());
+    }
+
+    /** Reads a line that is split across several reads from the stream. */
+    @Test
+    public void testReadsLineSplitAcrossReads() throws IOException {
+        final InputStream stream = mock(InputStream.class);
+        final Encoder encoder = mock(Encoder.class);
+
+        when(stream.read(any(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            final byte[] buffer = invocation.getArgument(0);
+            buffer[invocation.<Integer>getArgument(1)] = 'a';
+            return 1;
+        }).thenAnswer(invocation -> {
+            final byte[] buffer = invocation.getArgument(0);
+            final byte[] data = " b :c\r\n".getBytes();
+            System.arraycopy(data, 0, buffer, invocation.<Integer>getArgument(1), data.length);
+            return data.length;
+        });
+        when(encoder.encode(isNull(), isNull(), any(), eq(5), eq(1))).thenReturn("c");
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertEquals("a b :c", line.getLine());
+        assertArrayEquals(new String[]{"a", "b", "c"}, line.getTokens());
+    }
+
+    /** Verifies that over-long lines are split rather than overflowing. */
+    @Test
+    public void testSplitsOverlongLines() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1030; i++) {
+            builder.append('x');
+        }
+        final InputStream stream = new ByteArrayInputStream((builder + "\r\n").getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final IRCReader reader = new IRCReader(stream, encoder);
+
+        assertEquals(1024, reader.readLine().getLine().length());
+        assertEquals("xxxxxx", reader.readLine().getLine());
+    }
+
     /** Verify tokeniser with TSIRC Time Stamp */
     @Test
     public void testReadLineTSIRC() throws IOException {
@@ -298,4 +388,77 @@ public class IRCReaderTest {
         assertEquals("ing", line.getTokens()[1]);
         assertTrue(line.getTags().containsKey("123"));
     }
+
+    /** Verify that tag values are unescaped. */
+    @Test
+    public void testReaderUnescapesTags() throws IOException {
+        final InputStream stream = new ByteArrayInputStream(
+                "@a=semi\\:colon;b=sp\\sace\\\\;c=bad\\x\\ :test ing\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertEquals("semi;colon", line.getTag("a"));
+        assertEquals("sp ace\\", line.getTag("b"));
+        assertEquals("badx", line.getTag("c"));
+        assertEquals("semi;colon", line.getTags().get("a"));
+        assertEquals("sp ace\\", line.getTags().get("b"));
+        assertEquals("badx", line.getTags().get("c"));
+    }
+
+    /** Verify the typed tag accessors. */
+    @Test
+    public void testReaderTypedTags() throws IOException {
+        final InputStream stream = new ByteArrayInputStream(
+                "@time=1970-01-01T00:00:01.234Z;msgid=abc;account=foo :test ing\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertEquals(1234L, line.getServerTime());
+        assertEquals("abc", line.getMessageId());
+        assertEquals("foo", line.getAccount());
+        assertTrue(line.hasTag("msgid"));
+        assertNull(line.getTag("ms"));
+    }
+
+    /** Verify that TSIRC timestamps are read, and the slow server-time path is used. */
+    @Test
+    public void testReaderTsircDate() throws IOException {
+        final InputStream stream = new ByteArrayInputStream(
+                "@123456789@@time=2011-10-19T16:40:51.620+0100 :test ing\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertEquals(123456789L, line.getTsircDate());
+        assertEquals(1319038851620L, line.getServerTime());
+        assertEquals(-1L, new ReadLine("", new String[]{"test"}).getTsircDate());
+    }
+
+    /** Verify that TSIRC timestamps are read from lines created from tokens. */
+    @Test
+    public void testTokenisedTsircDate() {
+        final ReadLine line = new ReadLine("", IRCParser.tokeniseLine("@123456789@:test ing"));
+        assertEquals(123456789L, line.getTsircDate());
+
+        final ReadLine tagged = new ReadLine("",
+                IRCParser.tokeniseLine("@tag=value @987@:test ing"));
+        assertEquals(987L, tagged.getTsircDate());
+        final ReadLine untimed = new ReadLine("", IRCParser.tokeniseLine("@tag=value :test"));
+        assertEquals(-1L, untimed.getTsircDate());
+    }
+
+    /** Verify that lines without tags have an empty tag map. */
+    @Test
+    public void testReaderNoTags() throws IOException {
+        final InputStream stream = new ByteArrayInputStream(":test ing\r\n".getBytes());
+        final Encoder encoder = mock(Encoder.class);
+
+        final ReadLine line = new IRCReader(stream, encoder).readLine();
+
+        assertTrue(line.getTags().isEmpty());
+        assertNull(line.getTag("time"));
+        assertEquals(-1L, line.getServerTime());
+    }
 }
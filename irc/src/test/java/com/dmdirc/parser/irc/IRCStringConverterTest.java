@@ -83,4 +83,58 @@ public class IRCStringConverterTest {
         assertFalse(ircsc.equalsIgnoreCase(null, "null"));
     }
 
+    @Test
+    public void testUnchangedStringsAreReturned() {
+        final IRCStringConverter ircsc = new IRCStringConverter(IRCEncoding.RFC1459);
+        final String lower = "nick{away}";
+        final String upper = "NICK[AWAY]";
+
+        assertSame(lower, ircsc.toLowerCase(lower));
+        assertSame(upper, ircsc.toUpperCase(upper));
+        assertEquals("nick{away}", ircsc.toLowerCase("Nick[away]"));
+    }
+
+    @Test
+    public void testEqualsDifferentLengths() {
+        final IRCStringConverter ircsc = new IRCStringConverter(IRCEncoding.RFC1459);
+
+        assertFalse(ircsc.equalsIgnoreCase("nick", "nick2"));
+        assertFalse(ircsc.equalsIgnoreCase("nick[", "nick{a"));
+    }
+
+    @Test
+    public void testCompareIgnoreCase() {
+        final IRCStringConverter rfc = new IRCStringConverter(IRCEncoding.RFC1459);
+        final IRCStringConverter ascii = new IRCStringConverter(IRCEncoding.ASCII);
+
+        assertEquals(0, rfc.compareIgnoreCase("Nick^", "nick~"));
+        assertTrue(ascii.compareIgnoreCase("Nick^", "nick~") < 0);
+        assertTrue(rfc.compareIgnoreCase("ABC", "abd") < 0);
+        assertTrue(rfc.compareIgnoreCase("abd", "ABC") > 0);
+        assertTrue(rfc.compareIgnoreCase("nick", "NICK2") < 0);
+        assertTrue(rfc.compareIgnoreCase("NICK2", "nick") > 0);
+    }
+
+    @Test
+    public void testHashCodeIgnoreCase() {
+        final IRCStringConverter strict = new IRCStringConverter(IRCEncoding.STRICT_RFC1459);
+        final String first = "Nick[Away]";
+        final String second = "nick{away}";
+
+        assertEquals(strict.hashCodeIgnoreCase(first, 0, first.length()),
+                strict.hashCodeIgnoreCase(second, 0, second.length()));
+        assertEquals(second.hashCode(), strict.hashCodeIgnoreCase(first, 0, first.length()));
+        assertEquals("nick".hashCode(), strict.hashCodeIgnoreCase(":NICK!user@host", 1, 5));
+    }
+
+    @Test
+    public void testRegionMatches() {
+        final IRCStringConverter strict = new IRCStringConverter(IRCEncoding.STRICT_RFC1459);
+
+        assertTrue(strict.regionMatches(":Nick[]!user@host", 1, "nick{}", 0, 6));
+        assertFalse(strict.regionMatches("Nick^", 0, "nick~", 0, 5));
+        assertFalse(strict.regionMatches("nick", 2, "nick", 0, 4));
+        assertFalse(strict.regionMatches("nick", -1, "nick", 0, 2));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IdentityTrieTest {
+
+    @Test
+    public void testComparesKeysByIdentity() {
+        final String key = new String("key");
+        final IdentityTrie<String, String> trie = IdentityTrie.<String, String>empty()
+                .with(key, "value");
+        assertEquals("value", trie.get(key));
+        assertNull(trie.get(new String("key")));
+    }
+
+    @Test
+    public void testAddsReplacesAndRemoves() {
+        final List<Object> keys = new ArrayList<>();
+        IdentityTrie<Object, Integer> trie = IdentityTrie.empty();
+        for (int i = 0; i < 1000; i++) {
+            final Object key = new Object();
+            keys.add(key);
+            trie = trie.with(key, i);
+        }
+        assertEquals(1000, trie.size());
+
+        trie = trie.with(keys.get(10), -1);
+        assertEquals(1000, trie.size());
+        assertEquals(Integer.valueOf(-1), trie.get(keys.get(10)));
+
+        for (int i = 0; i < 1000; i += 2) {
+            trie = trie.without(keys.get(i));
+        }
+        assertEquals(500, trie.size());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                assertNull(trie.get(keys.get(i)));
+            } else {
+                assertEquals(Integer.valueOf(i), trie.get(keys.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testKeysAndValuesMatch() {
+        IdentityTrie<Object, Object> trie = IdentityTrie.empty();
+        for (int i = 0; i < 100; i++) {
+            final Object key = new Object();
+            trie = trie.with(key, key);
+        }
+
+        final List<Object> keys = trie.keys();
+        final List<Object> values = trie.values();
+        assertEquals(100, keys.size());
+        assertEquals(keys, values);
+        assertEquals(100, keys.stream().distinct().count());
+    }
+
+    @Test
+    public void testSnapshotsAreUnaffectedByChanges() {
+        final Object key = new Object();
+        final IdentityTrie<Object, String> before = IdentityTrie.empty();
+        final IdentityTrie<Object, String> after = before.with(key, "value");
+
+        assertEquals(0, before.size());
+        assertNull(before.get(key));
+        assertTrue(after.without(key).keys().isEmpty());
+        assertSame(after, after.without(new Object()));
+    }
+
+}
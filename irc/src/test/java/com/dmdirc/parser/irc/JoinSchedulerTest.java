@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.HashedWheelTimer;
+import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.irc.outputqueue.OutputQueue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JoinSchedulerTest {
+
+    private final IRCParser parser = new IRCParser();
+    private final OutputQueue queue = mock(OutputQueue.class);
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+
+    @Before
+    public void setUp() throws IOException {
+        parser.setOutputQueue(queue);
+        parser.setTimer(timer);
+        parser.currentSocketState = SocketState.OPEN;
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdown();
+    }
+
+    @Test
+    public void testKeyedChannelsComeFirst() {
+        parser.joinChannels(new ChannelJoinRequest("#a"), new ChannelJoinRequest("b", "key"),
+                new ChannelJoinRequest("#c", "other"));
+        verify(queue).sendLine("JOIN #b,#c,#a key,other", QueuePriority.NORMAL);
+    }
+
+    @Test
+    public void testLongListsAreSplitAndPaced() {
+        final ChannelJoinRequest[] requests = new ChannelJoinRequest[100];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ChannelJoinRequest(String.format("#channel%03d", i));
+        }
+        parser.joinChannels(requests);
+
+        final ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+        verify(queue).sendLine(lines.capture(), eq(QueuePriority.NORMAL));
+        assertTrue(lines.getValue().length() <= IRCParser.MAX_LINELENGTH);
+        assertTrue(lines.getValue().endsWith(",#channel041"));
+
+        verify(queue, timeout(5000).times(3)).sendLine(lines.capture(), eq(QueuePriority.NORMAL));
+        assertTrue(lines.getValue().startsWith("JOIN #channel084,"));
+        assertTrue(lines.getValue().endsWith(",#channel099"));
+    }
+
+    @Test
+    public void testFirstLineIsNotHeldBackByBusyQueue() {
+        when(queue.queueCount()).thenReturn(10);
+        parser.joinChannels(new ChannelJoinRequest("#a"));
+        verify(queue).sendLine("JOIN #a", QueuePriority.NORMAL);
+    }
+
+    @Test
+    public void testLinesAreSplitByEncodedLength() {
+        when(queue.getCharset()).thenReturn(StandardCharsets.UTF_8);
+        final ChannelJoinRequest[] requests = new ChannelJoinRequest[100];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ChannelJoinRequest(String.format("#\u00e9\u00e9\u00e9%03d", i),
+                    "cl\u00e9");
+        }
+        parser.joinChannels(requests);
+
+        final ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+        verify(queue).sendLine(lines.capture(), eq(QueuePriority.NORMAL));
+        assertTrue(lines.getValue().getBytes(StandardCharsets.UTF_8).length
+                <= IRCParser.MAX_LINELENGTH);
+    }
+
+    @Test
+    public void testChannelLimitIsRespected() {
+        parser.h005Info.put(IrcConstants.ISUPPORT_CHANNEL_LIMIT, "#:2,&:");
+        parser.joinChannels(new ChannelJoinRequest("#a"), new ChannelJoinRequest("&b"),
+                new ChannelJoinRequest("#c"), new ChannelJoinRequest("#d"));
+        verify(queue).sendLine("JOIN #a,&b,#c", QueuePriority.NORMAL);
+    }
+
+    @Test
+    public void testListModesAreDeferredDuringBurst() {
+        final IRCChannelInfo channel = mock(IRCChannelInfo.class);
+        final ChannelJoinRequest[] requests = new ChannelJoinRequest[50];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ChannelJoinRequest(String.format("#channel%03d", i));
+        }
+        parser.joinChannels(requests);
+        parser.requestListModes(channel);
+        verify(channel, never()).requestListModes();
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LagStatisticsTest {
+
+    @Test
+    public void testEmpty() {
+        final LagStatistics statistics = new LagStatistics();
+        assertEquals(0, statistics.getSampleCount());
+        assertEquals(0, statistics.getAverage(TimeUnit.NANOSECONDS));
+        assertEquals(0, statistics.getPercentile(99, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testMinimumMaximumAndPercentiles() {
+        final LagStatistics statistics = new LagStatistics();
+        for (int i = 100; i >= 1; i--) {
+            statistics.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, statistics.getSampleCount());
+        assertEquals(1, statistics.getLatest(TimeUnit.MILLISECONDS));
+        assertEquals(1, statistics.getMinimum(TimeUnit.MILLISECONDS));
+        assertEquals(100, statistics.getMaximum(TimeUnit.MILLISECONDS));
+        assertEquals(99, statistics.getPercentile(99, TimeUnit.MILLISECONDS));
+        assertEquals(50, statistics.getPercentile(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAverageIsWeightedTowardsRecentSamples() {
+        final LagStatistics statistics = new LagStatistics();
+        statistics.record(1000);
+        assertEquals(1000, statistics.getAverage(TimeUnit.NANOSECONDS));
+        statistics.record(2000);
+        assertEquals(1200, statistics.getAverage(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testWindowRollsOver() {
+        final LagStatistics statistics = new LagStatistics();
+        for (int i = 0; i < 130; i++) {
+            statistics.record(i);
+        }
+        final long[] samples = statistics.getSamples();
+        assertEquals(128, samples.length);
+        assertEquals(2, samples[0]);
+        assertEquals(129, samples[127]);
+        assertEquals(2, statistics.getMinimum(TimeUnit.NANOSECONDS));
+        assertEquals(5, statistics.getPercentile(3, TimeUnit.NANOSECONDS));
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.processors.ProcessListModes;
+
+import java.time.LocalDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class ListModeSchedulerTest {
+
+    private final IRCParser parser = new IRCParser();
+    private final ListModeScheduler scheduler = parser.getListModeScheduler();
+    private final ProcessListModes processor = new ProcessListModes(parser);
+    private IRCChannelInfo channel1;
+    private IRCChannelInfo channel2;
+    private IRCChannelInfo channel3;
+
+    @Before
+    public void setUp() {
+        parser.setNickname("nick");
+        parser.chanModesOther.put('b', IRCParser.MODE_LIST);
+        parser.chanModesOther.put('e', IRCParser.MODE_LIST);
+        scheduler.setMaxOutstanding(1);
+        channel1 = createChannel("#one", true);
+        channel2 = createChannel("#two", true);
+        channel3 = createChannel("#three", true);
+    }
+
+    @Test
+    public void testLimitsOutstandingRequests() {
+        scheduler.request(channel1);
+        scheduler.request(channel2);
+        verify(channel1).requestListModes(any());
+        verify(channel2, never()).requestListModes(any());
+        assertEquals(1, scheduler.getOutstandingCount());
+        assertEquals(1, scheduler.getWaitingCount());
+
+        scheduler.complete(channel1);
+        verify(channel2).requestListModes(any());
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testCompletesOnceEveryListHasEnded() {
+        scheduler.request(channel1);
+        scheduler.request(channel2);
+
+        process("367", "#one", "*!*@example.com", "someone", "1234");
+        process("368", "#one", "End of Channel Ban List");
+        verify(channel2, never()).requestListModes(any());
+        assertEquals(1, scheduler.getOutstandingCount());
+
+        process("349", "#one", "End of Channel Exception List");
+        verify(channel2).requestListModes(any());
+        assertEquals(1, scheduler.getOutstandingCount());
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void testRefusalsCountAsEnded() {
+        scheduler.request(channel1);
+        scheduler.request(channel2);
+
+        process("368", "#one", "End of Channel Ban List");
+        process("482", "#one", "You're not a channel operator");
+        verify(channel2).requestListModes(any());
+    }
+
+    @Test
+    public void testEndsForOtherChannelsAreIgnored() {
+        scheduler.request(channel1);
+        scheduler.request(channel2);
+
+        process("368", "#two", "End of Channel Ban List");
+        process("349", "#two", "End of Channel Exception List");
+        verify(channel2, never()).requestListModes(any());
+        assertEquals(1, scheduler.getOutstandingCount());
+    }
+
+    @Test
+    public void testAccessedChannelsAreFetchedFirst() {
+        scheduler.request(channel1);
+        scheduler.request(channel2);
+        scheduler.request(channel3);
+        scheduler.accessed(channel3);
+
+        scheduler.complete(channel1);
+        verify(channel3).requestListModes(any());
+        verify(channel2, never()).requestListModes(any());
+    }
+
+    @Test
+    public void testLazyChannelsAreFetchedWhenRead() {
+        final IRCChannelInfo lazyChannel = createChannel("#lazy", false);
+        scheduler.accessed(lazyChannel);
+        verify(lazyChannel, never()).requestListModes(any());
+
+        scheduler.setLazy(true);
+        scheduler.accessed(lazyChannel);
+        verify(lazyChannel).requestListModes(any());
+    }
+
+    @Test
+    public void testParserReadsDoNotTriggerLazyFetch() {
+        scheduler.setLazy(true);
+        final IRCChannelInfo channel = createChannel("#lazy", true);
+
+        channel.getListModeInternal('b');
+        verify(channel, never()).requestListModes(any());
+
+        channel.getListMode('b');
+        verify(channel).requestListModes(any());
+    }
+
+    @Test
+    public void testChannelsWithNothingRequestedDoNotBlock() {
+        // We aren't in the channel, so nothing is requested for it.
+        final IRCChannelInfo empty = createChannel("#empty", false);
+        scheduler.request(empty);
+        scheduler.request(channel1);
+        verify(empty).requestListModes(any());
+        verify(channel1).requestListModes(any());
+        assertEquals(1, scheduler.getOutstandingCount());
+    }
+
+    private void process(final String numeric, final String channel, final String... args) {
+        final String[] tokens = new String[4 + args.length];
+        tokens[0] = ":server";
+        tokens[1] = numeric;
+        tokens[2] = "nick";
+        tokens[3] = channel;
+        System.arraycopy(args, 0, tokens, 4, args.length);
+        processor.process(LocalDateTime.now(), numeric, tokens);
+    }
+
+    private IRCChannelInfo createChannel(final String name, final boolean joined) {
+        final IRCChannelInfo channel = spy(new IRCChannelInfo(parser, new PrefixModeManager(),
+                mock(ModeManager.class), mock(ModeManager.class), name));
+        if (joined) {
+            channel.addClient(parser.getLocalClient());
+        }
+        parser.addChannel(channel);
+        return channel;
+    }
+
+}
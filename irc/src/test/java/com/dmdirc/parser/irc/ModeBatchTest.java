@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.HashedWheelTimer;
+import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.irc.outputqueue.OutputQueue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ModeBatchTest {
+
+    private final IRCParser parser = new IRCParser();
+    private final OutputQueue queue = mock(OutputQueue.class);
+    private ModeBatch batch;
+
+    @Before
+    public void setUp() throws IOException {
+        parser.setOutputQueue(queue);
+        parser.currentSocketState = SocketState.OPEN;
+        parser.h005Info.put("MODES", "3");
+        batch = new ModeBatch(parser, "#chan");
+    }
+
+    @Test
+    public void testSendsWhenLineIsFull() {
+        batch.add(true, 'o', "a");
+        batch.add(true, 'o', "b");
+        verify(queue, never()).sendLine(anyString(), eq(QueuePriority.NORMAL));
+
+        batch.add(false, 'v', "c");
+        verify(queue).sendLine("MODE #chan -v+oo c a b", QueuePriority.NORMAL);
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void testOpposingChangesCancel() {
+        batch.add(true, 'o', "Nick");
+        batch.add(true, 'm', null);
+        batch.add(false, 'o', "nick");
+        batch.add(false, 'm', null);
+        assertEquals(0, batch.size());
+
+        batch.flush();
+        verify(queue, never()).sendLine(anyString(), eq(QueuePriority.NORMAL));
+    }
+
+    @Test
+    public void testDuplicateChangesAreIgnored() {
+        batch.add(true, 'm', null);
+        batch.add(true, 'm', null);
+        assertEquals(1, batch.size());
+    }
+
+    @Test
+    public void testFlushPacksWithinLineLength() {
+        parser.h005Info.put("MODES", "100");
+        final StringBuilder mask = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            mask.append('x');
+        }
+        batch.add(true, 'b', mask + "1");
+        batch.add(true, 'b', mask + "2");
+        batch.add(true, 'b', mask + "3");
+        batch.flush();
+
+        verify(queue).sendLine("MODE #chan +bb " + mask + "1 " + mask + '2', QueuePriority.NORMAL);
+        verify(queue).sendLine("MODE #chan +b " + mask + '3', QueuePriority.NORMAL);
+    }
+
+    @Test
+    public void testFlushPacksWithinEncodedLineLength() {
+        when(queue.getCharset()).thenReturn(StandardCharsets.UTF_8);
+        parser.h005Info.put("MODES", "100");
+        final StringBuilder mask = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            mask.append('\u00e9');
+        }
+        batch.add(true, 'b', mask + "1");
+        batch.add(true, 'b', mask + "2");
+        batch.flush();
+
+        verify(queue).sendLine("MODE #chan +b " + mask + '1', QueuePriority.NORMAL);
+        verify(queue).sendLine("MODE #chan +b " + mask + '2', QueuePriority.NORMAL);
+    }
+
+    @Test
+    public void testFlushesAfterDelay() {
+        final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+        try {
+            parser.setTimer(timer);
+            parser.setModeFlushDelay(20, TimeUnit.MILLISECONDS);
+            batch.add(true, 'v', "a");
+            verify(queue, timeout(2000)).sendLine("MODE #chan +v a", QueuePriority.NORMAL);
+        } finally {
+            timer.shutdown();
+        }
+    }
+
+}
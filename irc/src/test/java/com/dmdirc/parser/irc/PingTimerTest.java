@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackExecutor;
+import com.dmdirc.parser.common.HashedWheelTimer;
+import com.dmdirc.parser.common.MyInfo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PingTimerTest {
+
+    @Test
+    public void testSkipsRunsWhileThePreviousIsPending() {
+        final IRCParser parser = mock(IRCParser.class);
+        when(parser.tryExecute(any())).thenReturn(true);
+        final PingTimer pingTimer = new PingTimer(parser);
+
+        pingTimer.run();
+        pingTimer.run();
+        verify(parser, times(1)).tryExecute(any());
+    }
+
+    @Test
+    public void testRetriesAfterRejection() {
+        final IRCParser parser = mock(IRCParser.class);
+        when(parser.tryExecute(any())).thenReturn(false);
+        final PingTimer pingTimer = new PingTimer(parser);
+
+        pingTimer.run();
+        pingTimer.run();
+        verify(parser, times(2)).tryExecute(any());
+    }
+
+    @Test
+    public void testScheduledTasksDoNotRunOnTheTimerThread() throws InterruptedException {
+        final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+        try {
+            final IRCParser parser = new IRCParser();
+            parser.setTimer(timer);
+            final AtomicReference<Thread> thread = new AtomicReference<>();
+            final AtomicReference<Thread> timerThread = new AtomicReference<>();
+            final CountDownLatch latch = new CountDownLatch(2);
+            timer.schedule(() -> {
+                timerThread.set(Thread.currentThread());
+                latch.countDown();
+            }, 0, TimeUnit.MILLISECONDS);
+            parser.schedule(() -> {
+                thread.set(Thread.currentThread());
+                latch.countDown();
+            }, 0, TimeUnit.MILLISECONDS);
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertNotEquals(timerThread.get(), thread.get());
+        } finally {
+            timer.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullTaskQueueDoesNotBlockTheTimer() throws InterruptedException {
+        final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+        final CallbackExecutor executor = new CallbackExecutor(1, 1);
+        try {
+            final IRCParser parser = new IRCParser(new MyInfo(), null, executor);
+            parser.setTimer(timer);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch gate = new CountDownLatch(1);
+            parser.execute(() -> {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            parser.execute(() -> {});
+
+            final CountDownLatch scheduled = new CountDownLatch(1);
+            final CountDownLatch timerRan = new CountDownLatch(1);
+            parser.schedule(scheduled::countDown, 0, TimeUnit.MILLISECONDS);
+            timer.schedule(timerRan::countDown, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(timerRan.await(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduled.getCount());
+            assertTrue(parser.getFullTaskQueueCount() > 0);
+            gate.countDown();
+            assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+        } finally {
+            timer.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testScheduledTasksAreCancelledAfterShutdown() throws InterruptedException {
+        final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+        try {
+            final IRCParser parser = new IRCParser();
+            parser.setTimer(timer);
+            parser.shutdown();
+
+            final HashedWheelTimer.Timeout timeout =
+                    parser.schedule(() -> {}, 0, TimeUnit.MILLISECONDS);
+            final CountDownLatch timerRan = new CountDownLatch(1);
+            timer.schedule(timerRan::countDown, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(timerRan.await(5, TimeUnit.SECONDS));
+            assertTrue(timeout.isCancelled());
+        } finally {
+            timer.shutdown();
+        }
+    }
+
+}
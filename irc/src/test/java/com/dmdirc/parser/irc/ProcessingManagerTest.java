@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.processors.IRCProcessor;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProcessingManagerTest {
+
+    @Mock private IRCParser parser;
+    @Mock private CallbackManager callbackManager;
+    @Mock private IRCProcessor privmsgProcessor;
+    @Mock private IRCProcessor numericProcessor;
+    private ProcessingManager manager;
+
+    @Before
+    public void setup() {
+        when(parser.getCallbackManager()).thenReturn(callbackManager);
+        manager = new ProcessingManager(parser, Collections.emptySet());
+        manager.addProcessor(new String[]{"PRIVMSG", "Notice Auth"}, privmsgProcessor);
+        manager.addProcessor(new String[]{"001"}, numericProcessor);
+    }
+
+    @Test
+    public void testGetNumeric() {
+        assertEquals(1, ProcessingManager.getNumeric("001"));
+        assertEquals(999, ProcessingManager.getNumeric("999"));
+        assertEquals(ProcessingManager.NOT_NUMERIC, ProcessingManager.getNumeric("1"));
+        assertEquals(ProcessingManager.NOT_NUMERIC, ProcessingManager.getNumeric("1000"));
+        assertEquals(ProcessingManager.NOT_NUMERIC, ProcessingManager.getNumeric("-01"));
+        assertEquals(ProcessingManager.NOT_NUMERIC, ProcessingManager.getNumeric("JOIN"));
+    }
+
+    @Test
+    public void testGetProcessorIgnoresCase() throws ProcessorNotFoundException {
+        assertSame(privmsgProcessor, manager.getProcessor("PRIVMSG"));
+        assertSame(privmsgProcessor, manager.getProcessor("privmsg"));
+        assertSame(privmsgProcessor, manager.getProcessor("PrivMsg"));
+        assertSame(privmsgProcessor, manager.getProcessor("NOTICE AUTH"));
+        assertSame(numericProcessor, manager.getProcessor("001"));
+    }
+
+    @Test(expected = ProcessorNotFoundException.class)
+    public void testGetProcessorUnknown() throws ProcessorNotFoundException {
+        manager.getProcessor("PRIVMS");
+    }
+
+    @Test
+    public void testNewProcessorsTakePriority() throws ProcessorNotFoundException {
+        manager.addProcessor(new String[]{"privmsg"}, numericProcessor);
+        assertSame(numericProcessor, manager.getProcessor("PRIVMSG"));
+    }
+
+    @Test
+    public void testProcessesVerb() {
+        final LocalDateTime date = LocalDateTime.now();
+        final String[] tokens = {":a", "PRIVMSG", "#b", "c"};
+        assertTrue(manager.tryProcess(date, "privmsg", tokens));
+        verify(privmsgProcessor).process(date, "privmsg", tokens);
+        verify(callbackManager, never()).publish(any());
+    }
+
+    @Test
+    public void testPublishesUnhandledNumerics() {
+        final LocalDateTime date = LocalDateTime.now();
+        final String[] tokens = {":a", "372", "b", "c"};
+        assertFalse(manager.tryProcess(date, "372", tokens));
+
+        final ArgumentCaptor<NumericEvent> captor = ArgumentCaptor.forClass(NumericEvent.class);
+        verify(callbackManager).publish(captor.capture());
+        assertEquals(372, captor.getValue().getNumeric());
+    }
+
+    @Test
+    public void testUnhandledLinesAreNotDecoded() {
+        final ReadLine line = mock(ReadLine.class);
+        assertFalse(manager.tryProcess(LocalDateTime.now(), "FOO", line));
+        verify(line, never()).getTokens();
+    }
+
+    @Test
+    public void testHandledLinesAreDecoded() {
+        final LocalDateTime date = LocalDateTime.now();
+        final String[] tokens = {":a", "PRIVMSG", "#b", "c"};
+        final ReadLine line = mock(ReadLine.class);
+        when(line.getTokens()).thenReturn(tokens);
+        assertTrue(manager.tryProcess(date, "PRIVMSG", line));
+        verify(privmsgProcessor).process(date, "PRIVMSG", tokens);
+    }
+
+    @Test(expected = ProcessorNotFoundException.class)
+    public void testProcessUnknownThrows() throws ProcessorNotFoundException {
+        manager.process(LocalDateTime.now(), "FOO", ":a", "FOO");
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.events.IRCDataInEvent;
+import com.dmdirc.parser.irc.events.IRCDataOutEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RawTrafficTapTest {
+
+    @Mock private CallbackManager callbackManager;
+    private RawTrafficTap tap;
+
+    @Before
+    public void setup() {
+        tap = new RawTrafficTap();
+    }
+
+    private static ReadLine line(final String line) {
+        return new ReadLine(line, IRCParser.tokeniseLine(line));
+    }
+
+    @Test
+    public void testNothingPublishedWithoutSubscribers() {
+        tap.update(callbackManager);
+        assertFalse(tap.shouldPublish(line(":server 001 nick :Welcome")));
+        assertFalse(tap.shouldPublish("PRIVMSG #chan :Hi"));
+    }
+
+    @Test
+    public void testDirectionsAreIndependent() {
+        when(callbackManager.hasSubscribers(IRCDataOutEvent.class)).thenReturn(true);
+        tap.update(callbackManager);
+        assertFalse(tap.shouldPublish(line(":server 001 nick :Welcome")));
+        assertTrue(tap.shouldPublish("PRIVMSG #chan :Hi"));
+    }
+
+    @Test
+    public void testFiltersCommands() {
+        when(callbackManager.hasSubscribers(IRCDataInEvent.class)).thenReturn(true);
+        when(callbackManager.hasSubscribers(IRCDataOutEvent.class)).thenReturn(true);
+        tap.update(callbackManager);
+        tap.setCommands("privmsg", "001");
+
+        assertArrayEquals(new String[]{"privmsg", "001"}, tap.getCommands());
+        assertTrue(tap.shouldPublish(line(":server 001 nick :Welcome")));
+        assertTrue(tap.shouldPublish(line(":nick!user@host PRIVMSG #chan :Hi")));
+        assertFalse(tap.shouldPublish(line(":nick!user@host NOTICE #chan :Hi")));
+        assertFalse(tap.shouldPublish(line("PING :12345")));
+        assertTrue(tap.shouldPublish("PRIVMSG #chan :Hi"));
+        assertFalse(tap.shouldPublish("PRIVMSGS #chan :Hi"));
+        assertFalse(tap.shouldPublish("JOIN #chan"));
+
+        tap.setCommands();
+        assertTrue(tap.shouldPublish("JOIN #chan"));
+    }
+
+    @Test
+    public void testSamplesLines() {
+        when(callbackManager.hasSubscribers(IRCDataOutEvent.class)).thenReturn(true);
+        tap.update(callbackManager);
+        tap.setSampleRate(3);
+
+        assertTrue(tap.shouldPublish("PRIVMSG #chan :1"));
+        assertFalse(tap.shouldPublish("PRIVMSG #chan :2"));
+        assertFalse(tap.shouldPublish("PRIVMSG #chan :3"));
+        assertTrue(tap.shouldPublish("PRIVMSG #chan :4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidSampleRate() {
+        tap.setSampleRate(0);
+    }
+
+}
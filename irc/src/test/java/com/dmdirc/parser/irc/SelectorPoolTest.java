@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.MyInfo;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SelectorPoolTest {
+
+    private SelectorPool pool;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new SelectorPool(1);
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSendsAndReceivesLines() throws Exception {
+        final IRCParser parser = createParser();
+        assertSame(pool, parser.getSelectorPool());
+        parser.connect();
+
+        try (Socket client = server.accept()) {
+            client.setSoTimeout(5000);
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("CAP LS", reader.readLine());
+
+            final OutputStream output = client.getOutputStream();
+            output.write("PING :test\r\n".getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith("PONG"));
+            assertEquals("PONG :test", line);
+        } finally {
+            parser.shutdown();
+        }
+    }
+
+    @Test
+    public void testRemoteCloseClosesParser() throws Exception {
+        final IRCParser parser = createParser();
+        parser.connect();
+
+        try (Socket client = server.accept()) {
+            client.setSoTimeout(5000);
+            new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    StandardCharsets.UTF_8)).readLine();
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (parser.getSocketState() != SocketState.CLOSED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SocketState.CLOSED, parser.getSocketState());
+    }
+
+    @Test
+    public void testReceivesBulkDataOverSsl() throws Exception {
+        server.close();
+        server = createSslServerSocket();
+        final IRCParser parser = createParser("ircs");
+        parser.connect();
+
+        try (Socket client = server.accept()) {
+            client.setSoTimeout(5000);
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("CAP LS", reader.readLine());
+
+            // Enough data that records are split across reads
+            final StringBuilder data = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                data.append(":server NOTICE * :Line ").append(i)
+                        .append(" of some bulk data sent by the server\r\n");
+            }
+            data.append("PING :done\r\n");
+            final OutputStream output = client.getOutputStream();
+            output.write(data.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.startsWith("PONG"));
+            assertEquals("PONG :done", line);
+        } finally {
+            parser.shutdown();
+        }
+    }
+
+    private ServerSocket createSslServerSocket() throws Exception {
+        final char[] password = "password".toCharArray();
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream stream = getClass().getResourceAsStream("test-server.p12")) {
+            keyStore.load(stream, password);
+        }
+        final KeyManagerFactory factory =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore, password);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(factory.getKeyManagers(), null, null);
+        final ServerSocket socket = context.getServerSocketFactory()
+                .createServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private IRCParser createParser() {
+        return createParser("irc");
+    }
+
+    private IRCParser createParser(final String scheme) {
+        final IRCParser parser = new IRCParser(new MyInfo(),
+                URI.create(scheme + "://127.0.0.1:" + server.getLocalPort()));
+        parser.setSelectorPool(pool);
+        return parser;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class TargetPackerTest {
+
+    @Test
+    public void testPacksUpToMaxTargets() {
+        assertEquals(Arrays.asList("NOTICE a,b :hi", "NOTICE c,d :hi", "NOTICE e :hi"),
+                TargetPacker.pack("NOTICE", Arrays.asList("a", "b", "c", "d", "e"), "hi", 2, 510, UTF_8));
+    }
+
+    @Test
+    public void testPacksWithinMaxLength() {
+        assertEquals(Arrays.asList("KICK #c aaa,bbb", "KICK #c ccc"),
+                TargetPacker.pack("KICK #c", Arrays.asList("aaa", "bbb", "ccc"), "", 10, 15, UTF_8));
+    }
+
+    @Test
+    public void testLongTargetIsSentAlone() {
+        assertEquals(Arrays.asList("WHOIS a", "WHOIS verylongnickname"),
+                TargetPacker.pack("WHOIS", Arrays.asList("a", "verylongnickname"), "", 10, 12, UTF_8));
+    }
+
+    @Test
+    public void testPacksByEncodedLength() {
+        // Each target is 4 characters but 8 bytes in UTF-8
+        assertEquals(Arrays.asList("KICK #c \u00e9\u00e9\u00e9\u00e9",
+                "KICK #c \u00e8\u00e8\u00e8\u00e8"),
+                TargetPacker.pack("KICK #c", Arrays.asList("\u00e9\u00e9\u00e9\u00e9",
+                        "\u00e8\u00e8\u00e8\u00e8"), "", 10, 20, UTF_8));
+        assertEquals(Collections.singletonList("KICK #c \u00e9\u00e9\u00e9\u00e9,\u00e8\u00e8\u00e8\u00e8"),
+                TargetPacker.pack("KICK #c", Arrays.asList("\u00e9\u00e9\u00e9\u00e9",
+                        "\u00e8\u00e8\u00e8\u00e8"), "", 10, 20, ISO_8859_1));
+    }
+
+    @Test
+    public void testSkipsEmptyTargets() {
+        assertEquals(Collections.emptyList(),
+                TargetPacker.pack("PRIVMSG", Arrays.asList("", ""), "hi", 4, 510, UTF_8));
+    }
+
+}
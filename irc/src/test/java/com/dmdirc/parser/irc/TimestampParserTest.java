@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampParserTest {
+
+    private static long parse(final String value) {
+        final byte[] data = ("x" + value + "y").getBytes(StandardCharsets.UTF_8);
+        return TimestampParser.parseServerTime(data, 1, data.length - 2);
+    }
+
+    private static long expected(final String value) {
+        return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void testParsesCommonFormat() {
+        assertEquals(expected("2011-10-19T16:40:51.620Z"), parse("2011-10-19T16:40:51.620Z"));
+        assertEquals(1234L, parse("1970-01-01T00:00:01.234Z"));
+        assertEquals(expected("2016-02-29T23:59:59.999Z"), parse("2016-02-29T23:59:59.999Z"));
+    }
+
+    @Test
+    public void testParsesVariations() {
+        assertEquals(expected("2011-10-19T16:40:51Z"), parse("2011-10-19T16:40:51Z"));
+        assertEquals(expected("2011-10-19T16:40:51.6Z"), parse("2011-10-19T16:40:51.6Z"));
+        assertEquals(expected("2011-10-19T16:40:51.620Z"), parse("2011-10-19T16:40:51.620123Z"));
+        assertEquals(expected("2011-10-19T16:40:51.620+01:30"),
+                parse("2011-10-19T16:40:51.620+01:30"));
+        assertEquals(expected("2011-10-19T16:40:51.620-05:00"), parse("2011-10-19T16:40:51.620-0500"));
+        assertEquals(expected("2011-10-19T16:40:51.620+02:00"), parse("2011-10-19T16:40:51.620+02"));
+    }
+
+    @Test
+    public void testRejectsInvalid() {
+        assertEquals(TimestampParser.INVALID, parse("2011-10-19 16:40:51.620Z"));
+        assertEquals(TimestampParser.INVALID, parse("2011-02-30T16:40:51.620Z"));
+        assertEquals(TimestampParser.INVALID, parse("2011-10-19T24:40:51.620Z"));
+        assertEquals(TimestampParser.INVALID, parse("2011-10-19T16:40:51.620"));
+        assertEquals(TimestampParser.INVALID, parse("2011-10-19T16:40:51.Z"));
+        assertEquals(TimestampParser.INVALID, parse("yesterday"));
+    }
+
+    @Test
+    public void testSlowPath() {
+        assertEquals(expected("2011-10-19T16:40:51.620Z"),
+                TimestampParser.parseServerTime("2011-10-19T16:40:51.620Z"));
+        assertEquals(TimestampParser.INVALID, TimestampParser.parseServerTime("yesterday"));
+    }
+
+    @Test
+    public void testParseLong() {
+        final byte[] data = "@1234567890123 -12 +7 1a".getBytes(StandardCharsets.UTF_8);
+        assertEquals(1234567890123L, TimestampParser.parseLong(data, 1, 13));
+        assertEquals(-12L, TimestampParser.parseLong(data, 15, 3));
+        assertEquals(7L, TimestampParser.parseLong(data, 19, 2));
+        assertEquals(TimestampParser.INVALID, TimestampParser.parseLong(data, 22, 2));
+        assertEquals(TimestampParser.INVALID, TimestampParser.parseLong(data, 0, 0));
+    }
+
+    @Test
+    public void testLocalTimeConverter() {
+        final ZoneId zone = ZoneId.of("Europe/London");
+        final LocalTimeConverter converter = new LocalTimeConverter(zone);
+        // Either side of the 2016 clocks going forward, and back again.
+        for (String time : new String[]{"2016-03-27T00:59:59.999Z", "2016-03-27T01:00:00.000Z",
+                "2016-10-30T00:59:59.999Z", "2016-10-30T01:00:00.000Z", "1969-12-31T23:59:59.500Z"}) {
+            final long millis = expected(time);
+            assertEquals(LocalDateTime.ofInstant(OffsetDateTime.parse(time).toInstant(), zone),
+                    converter.toLocalDateTime(millis));
+        }
+        assertEquals(LocalDateTime.of(1970, 1, 1, 0, 0, 1, 234000000),
+                new LocalTimeConverter(ZoneOffset.UTC).toLocalDateTime(1234L));
+    }
+
+    @Test
+    public void testLocalTimeConverterStartingOnTransition() {
+        final ZoneId zone = ZoneId.of("Europe/London");
+        final LocalTimeConverter converter = new LocalTimeConverter(zone);
+        // Prime the cache exactly on the transition, then go back before it.
+        for (String time : new String[]{"2016-03-27T01:00:00.000Z", "2016-03-27T00:59:59.999Z",
+                "2016-03-27T00:30:00.000Z"}) {
+            final long millis = expected(time);
+            assertEquals(LocalDateTime.ofInstant(OffsetDateTime.parse(time).toInstant(), zone),
+                    converter.toLocalDateTime(millis));
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineWriterTest {
+
+    @Test
+    public void testWritesLinesWithCharset() {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final LineWriter writer = new LineWriter(stream, StandardCharsets.UTF_8);
+        writer.writeLine("PRIVMSG #test :café");
+        writer.writeLine("QUIT");
+        assertArrayEquals("PRIVMSG #test :café\r\nQUIT\r\n".getBytes(StandardCharsets.UTF_8),
+                stream.toByteArray());
+    }
+
+    @Test
+    public void testWritesLongLines() {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final LineWriter writer = new LineWriter(stream, StandardCharsets.UTF_8);
+        final char[] chars = new char[10000];
+        Arrays.fill(chars, 'a');
+        writer.writeLine(new String(chars));
+        assertEquals(10002, stream.size());
+    }
+
+    @Test
+    public void testCoalescesLinesSentWhileWriting() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> writes = new ArrayList<>();
+        final LineWriter writer = new LineWriter(new OutputStream() {
+            @Override
+            public void write(final int b) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                writes.add(new String(b, off, len, StandardCharsets.UTF_8));
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, StandardCharsets.UTF_8);
+
+        final Thread first = new Thread(() -> writer.writeLine("one"));
+        first.start();
+        writing.await();
+        writer.writeLine("two");
+        writer.writeLine("three");
+        release.countDown();
+        first.join();
+
+        assertEquals(Arrays.asList("one\r\n", "two\r\nthree\r\n"), writes);
+    }
+
+    @Test
+    public void testConcurrentLinesAreNotInterleaved() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final LineWriter writer = new LineWriter(stream, StandardCharsets.UTF_8);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    writer.writeLine("PRIVMSG #thread" + thread + " :line " + i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final String[] lines = new String(stream.toByteArray(), StandardCharsets.UTF_8)
+                .split("\r\n");
+        assertEquals(2000, lines.length);
+        final Set<String> unique = new HashSet<>(Arrays.asList(lines));
+        assertEquals(2000, unique.size());
+        for (String line : lines) {
+            assertTrue(line, line.matches("PRIVMSG #thread[0-3] :line [0-9]+"));
+        }
+    }
+
+}
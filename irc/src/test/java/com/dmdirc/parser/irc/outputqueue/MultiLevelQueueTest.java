@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import com.dmdirc.parser.common.QueuePriority;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MultiLevelQueueTest {
+
+    private final AtomicLong time = new AtomicLong();
+    private final MultiLevelQueue queue = new MultiLevelQueue(Duration.ofSeconds(10), time::get);
+
+    @Test
+    public void testTakesByPriorityThenOrder() {
+        final QueueItem low = QueueItem.create("low", QueuePriority.LOW);
+        final QueueItem normal1 = QueueItem.create("normal1", QueuePriority.NORMAL);
+        final QueueItem normal2 = QueueItem.create("normal2", QueuePriority.NORMAL);
+        final QueueItem high = QueueItem.create("high", QueuePriority.HIGH);
+        queue.add(low);
+        queue.add(normal1);
+        queue.add(high);
+        queue.add(normal2);
+
+        assertEquals(4, queue.size());
+        assertSame(high, queue.peek());
+        assertSame(high, queue.poll());
+        assertSame(normal1, queue.poll());
+        assertSame(normal2, queue.poll());
+        assertSame(low, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testStarvedItemsAreTakenFirst() {
+        final QueueItem low = QueueItem.create("low", QueuePriority.LOW);
+        queue.add(low);
+        time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        final QueueItem high = QueueItem.create("high", QueuePriority.HIGH);
+        queue.add(high);
+        assertSame(high, queue.peek());
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertSame(low, queue.poll());
+        assertSame(high, queue.poll());
+    }
+
+    @Test
+    public void testPutBackItemKeepsItsPlace() {
+        final QueueItem first = QueueItem.create("first", QueuePriority.NORMAL);
+        final QueueItem second = QueueItem.create("second", QueuePriority.NORMAL);
+        queue.add(first);
+        queue.add(second);
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertSame(first, queue.poll());
+        queue.add(first);
+        assertEquals(0, queue.getTakenCount(QueuePriority.NORMAL));
+        assertEquals(1, queue.getOldestWait(QueuePriority.NORMAL, TimeUnit.SECONDS));
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void testMetrics() {
+        queue.add(QueueItem.create("one", QueuePriority.NORMAL));
+        queue.add(QueueItem.create("two", QueuePriority.NORMAL));
+        queue.add(QueueItem.create("three", QueuePriority.LOW));
+        assertEquals(2, queue.getDepth(QueuePriority.NORMAL));
+        assertEquals(1, queue.getDepth(QueuePriority.LOW));
+
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        queue.poll();
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        queue.poll();
+
+        assertEquals(2, queue.getTakenCount(QueuePriority.NORMAL));
+        assertEquals(200, queue.getAverageWait(QueuePriority.NORMAL, TimeUnit.MILLISECONDS));
+        assertEquals(300, queue.getMaxWait(QueuePriority.NORMAL, TimeUnit.MILLISECONDS));
+        assertEquals(300, queue.getOldestWait(QueuePriority.LOW, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.getDepth(QueuePriority.NORMAL));
+    }
+
+    @Test
+    public void testTimedPollReturnsNullWhenEmpty() throws InterruptedException {
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFairQueuingServesTargetsInTurn() {
+        queue.setFairQueuing(true);
+        final QueueItem a1 = QueueItem.create("PRIVMSG #a :1", QueuePriority.NORMAL);
+        final QueueItem a2 = QueueItem.create("PRIVMSG #a :2", QueuePriority.NORMAL);
+        final QueueItem a3 = QueueItem.create("PRIVMSG #A :3", QueuePriority.NORMAL);
+        final QueueItem b1 = QueueItem.create("NOTICE #b :1", QueuePriority.NORMAL);
+        final QueueItem c1 = QueueItem.create("MODE #c +o nick", QueuePriority.NORMAL);
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(a3);
+        queue.add(b1);
+        queue.add(c1);
+
+        assertEquals(3, queue.getTargetCount(QueuePriority.NORMAL));
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+        assertSame(c1, queue.poll());
+        assertSame(a2, queue.poll());
+        assertSame(a3, queue.poll());
+        assertEquals(0, queue.getTargetCount(QueuePriority.NORMAL));
+    }
+
+    @Test
+    public void testFairQueuingPutBackKeepsItsTurn() {
+        queue.setFairQueuing(true);
+        final QueueItem a1 = QueueItem.create("PRIVMSG #a :1", QueuePriority.NORMAL);
+        final QueueItem a2 = QueueItem.create("PRIVMSG #a :2", QueuePriority.NORMAL);
+        final QueueItem b1 = QueueItem.create("PRIVMSG #b :1", QueuePriority.NORMAL);
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(b1);
+
+        assertSame(a1, queue.poll());
+        queue.add(a1);
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+        assertSame(a2, queue.poll());
+    }
+
+    @Test
+    public void testFairQueuingPutBackFromLaterGroupKeepsQueueOrder() {
+        queue.setFairQueuing(true);
+        final QueueItem a1 = QueueItem.create("PRIVMSG #a :1", QueuePriority.NORMAL);
+        final QueueItem a2 = QueueItem.create("PRIVMSG #a :2", QueuePriority.NORMAL);
+        final QueueItem b1 = QueueItem.create("PRIVMSG #b :1", QueuePriority.NORMAL);
+        final QueueItem b2 = QueueItem.create("PRIVMSG #b :2", QueuePriority.NORMAL);
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(b1);
+        queue.add(b2);
+
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+        queue.add(b1);
+        assertEquals(3, queue.getDepth(QueuePriority.NORMAL));
+
+        // Once everything is starved, items come out strictly in the order they were queued.
+        time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertSame(a2, queue.poll());
+        assertSame(b1, queue.poll());
+        assertSame(b2, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testEnablingFairQueuingRegroupsItems() {
+        final QueueItem a1 = QueueItem.create("PRIVMSG #a :1", QueuePriority.NORMAL);
+        final QueueItem a2 = QueueItem.create("PRIVMSG #a :2", QueuePriority.NORMAL);
+        final QueueItem b1 = QueueItem.create("PRIVMSG #b :1", QueuePriority.NORMAL);
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(b1);
+        assertEquals(1, queue.getTargetCount(QueuePriority.NORMAL));
+
+        queue.setFairQueuing(true);
+        assertEquals(2, queue.getTargetCount(QueuePriority.NORMAL));
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+        assertSame(a2, queue.poll());
+    }
+
+    @Test
+    public void testGetTarget() {
+        assertEquals("#chan", MultiLevelQueue.getTarget("PRIVMSG #Chan :hello there"));
+        assertEquals("nick", MultiLevelQueue.getTarget(":me!u@h notice Nick :hi"));
+        assertEquals("#chan", MultiLevelQueue.getTarget("KICK #chan nick :bye"));
+        assertEquals("#chan", MultiLevelQueue.getTarget("MODE #chan"));
+        assertEquals("", MultiLevelQueue.getTarget("JOIN #chan"));
+        assertEquals("", MultiLevelQueue.getTarget("PRIVMSG"));
+        assertEquals("", MultiLevelQueue.getTarget(":prefix"));
+    }
+
+}
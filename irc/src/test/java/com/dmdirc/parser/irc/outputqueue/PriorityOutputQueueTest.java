@@ -22,16 +22,20 @@
 
 package com.dmdirc.parser.irc.outputqueue;
 
+import com.dmdirc.parser.common.HashedWheelTimer;
 import com.dmdirc.parser.common.QueuePriority;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 
@@ -73,4 +77,25 @@ public class PriorityOutputQueueTest {
         assertEquals("456...", reader.readLine());
     }
 
+    @Test
+    public void testSendTimerSendsWithoutThreadAndWaitsForWritable() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final AtomicBoolean writable = new AtomicBoolean(true);
+        outputQueue.setOutputStream(output, StandardCharsets.UTF_8);
+        outputQueue.setSendTimer(HashedWheelTimer.getDefault(), writable::get);
+
+        outputQueue.sendLine("test 123");
+        assertEquals("test 123\r\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+        writable.set(false);
+        outputQueue.sendLine("456...");
+        assertEquals(1, outputQueue.queueCount());
+
+        writable.set(true);
+        outputQueue.resumeSending();
+        assertEquals(0, outputQueue.queueCount());
+        assertEquals("test 123\r\n456...\r\n",
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.dmdirc.parser.irc.outputqueue;
+
+import com.dmdirc.parser.irc.ServerType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketOutputQueueTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testAllowsBurstThenWaits() {
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue(FloodProfile.HYBRID);
+        final long now = System.nanoTime();
+        for (int i = 0; i < 9; i++) {
+            assertEquals(0, queue.reserve(50, now));
+        }
+        assertEquals(1000, queue.reserve(50, now));
+        assertEquals(0, queue.reserve(50, now + SECOND));
+    }
+
+    @Test
+    public void testChargesPerByte() {
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue(FloodProfile.IRCU);
+        final long now = System.nanoTime();
+        // 2000 + 480 / 120 * 1000 = 6000 per line
+        assertEquals(0, queue.reserve(480, now));
+        assertEquals(3000, queue.reserve(480, now));
+    }
+
+    @Test
+    public void testOversizedLineSentWhenFull() {
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue(FloodProfile.IRCU);
+        final long now = System.nanoTime();
+        assertEquals(0, queue.reserve(2000, now));
+        assertTrue(queue.reserve(10, now) > 9000);
+    }
+
+    @Test
+    public void testChoosesProfileForServerType() {
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue();
+        assertSame(FloodProfile.RFC1459, queue.getProfile());
+        queue.setServerType(ServerType.CHARYBDIS);
+        assertSame(FloodProfile.HYBRID, queue.getProfile());
+    }
+
+    @Test
+    public void testExplicitProfileIsKept() {
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue();
+        queue.setProfile(FloodProfile.INSPIRCD);
+        queue.setServerType(ServerType.IRCU2);
+        assertSame(FloodProfile.INSPIRCD, queue.getProfile());
+    }
+
+    @Test
+    public void testSendsQueuedLines() throws IOException {
+        final PipedInputStream pipeInput = new PipedInputStream();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(pipeInput));
+        final TokenBucketOutputQueue queue = new TokenBucketOutputQueue(FloodProfile.HYBRID);
+        queue.setOutputStream(new PipedOutputStream(pipeInput));
+        queue.sendLine("test 123");
+        queue.sendLine("456...");
+        assertEquals("test 123", reader.readLine());
+        assertEquals("456...", reader.readLine());
+    }
+
+}
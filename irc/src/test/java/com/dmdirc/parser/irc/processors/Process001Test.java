@@ -113,8 +113,7 @@ public class Process001Test {
     public void testRaisesFatalErrorIfDuplicate001CausesNicknameCollision() {
         setupLocalClientToTrackNicknameChanges();
 
-        when(parser.isKnownClient("newName")).thenReturn(true);
-        when(parser.getClient("newName")).thenReturn(mock(IRCClientInfo.class));
+        when(parser.getKnownClient("newName")).thenReturn(mock(IRCClientInfo.class));
 
         processor.process(LocalDateTime.now(), "001", ":test.server.com", "001", "newName", "Hello!");
 